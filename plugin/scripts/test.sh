@@ -0,0 +1,51 @@
+#!/bin/sh
+# Compiles and runs the JVM unit tests in test/ (npm test).
+#
+# Only the plugin classes the tests use are compiled, from src/. They refer to
+# Android and Play Games types, so these must be on the classpath:
+#
+#   ANDROID_JAR          android.jar of an installed platform, found under
+#                        $ANDROID_HOME/platforms when not set
+#   PLAY_GAMES_CLASSPATH classes of play-services-games, -base, -basement and
+#                        -tasks (the classes.jar of each AAR), colon-separated
+#
+# JUnit 4, Hamcrest and org.json are taken from ~/.m2 unless TEST_CLASSPATH
+# is set. The real org.json comes first, as android.jar only has stubs of it.
+
+set -e
+
+cd "$(dirname "$0")/.."
+
+m2="$HOME/.m2/repository"
+if [ -z "$TEST_CLASSPATH" ]; then
+    for jar in "$m2"/junit/junit/4.*/junit-4.*.jar "$m2"/org/hamcrest/hamcrest-core/1.3/hamcrest-core-1.3.jar "$m2"/org/json/json/*/json-*.jar; do
+        if [ -f "$jar" ]; then
+            TEST_CLASSPATH="${TEST_CLASSPATH:+$TEST_CLASSPATH:}$jar"
+        fi
+    done
+fi
+if [ -z "$TEST_CLASSPATH" ]; then
+    echo "test.sh: set TEST_CLASSPATH to the JUnit 4, Hamcrest and org.json jars" >&2
+    exit 1
+fi
+
+if [ -z "$ANDROID_JAR" ] && [ -n "$ANDROID_HOME" ]; then
+    ANDROID_JAR=$(ls -d "$ANDROID_HOME"/platforms/android-*/android.jar 2>/dev/null | sort -V | tail -n 1)
+fi
+if [ -z "$ANDROID_JAR" ] || [ ! -f "$ANDROID_JAR" ]; then
+    echo "test.sh: set ANDROID_JAR or ANDROID_HOME to find android.jar" >&2
+    exit 1
+fi
+if [ -z "$PLAY_GAMES_CLASSPATH" ]; then
+    echo "test.sh: set PLAY_GAMES_CLASSPATH to the Play Games services classes" >&2
+    exit 1
+fi
+
+classpath="$TEST_CLASSPATH:$ANDROID_JAR:$PLAY_GAMES_CLASSPATH"
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+
+javac -nowarn --release 8 -implicit:class -sourcepath src -cp "$classpath" -d "$out" $(find test -name '*.java')
+
+classes=$(cd test && find . -name '*Test.java' | sed 's#^\./##; s#\.java$##; s#/#.#g')
+java -cp "$out:$classpath" org.junit.runner.JUnitCore $classes
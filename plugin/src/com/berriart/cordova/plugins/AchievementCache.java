@@ -0,0 +1,486 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.achievement.Achievement;
+import com.google.android.gms.games.achievement.Achievements;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Locally persisted state of the player's achievements, refreshed from
+ * {@link Achievements#load} and updated in place by unlocks. Every change of
+ * an achievement's state or steps is sent to the listener, so JS only
+ * receives the entries that changed.
+ *
+ * Increments can be predicted from the cached steps before the server answers;
+ * a prediction the server does not confirm is corrected by reloading the
+ * achievements, or by reverting it when they cannot be reloaded.
+ *
+ * The cache is kept per player, and a load answered after the player changed
+ * is dropped, so one player's achievements are never shown to another.
+ */
+class AchievementCache {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final long DEFAULT_MAX_AGE = 5 * 60 * 1000;
+
+    private static final String AREA = "achievements";
+    private static final String FILE_NAME = "achievements.json";
+
+    interface Callback {
+        void onSuccess();
+
+        void onError(String message);
+    }
+
+    interface ChangeListener {
+        /**
+         * @param changed the achievements whose state or steps changed
+         * @param removed the identifiers of achievements no longer listed
+         * @param corrected whether the changes correct a prediction
+         */
+        void onChanged(JSONArray changed, JSONArray removed, boolean corrected);
+    }
+
+    /** An increment applied to the cache before the server confirmed it. */
+    static class Prediction {
+        final String achievementId;
+        final int previousState;
+        final int previousSteps;
+        final int state;
+        final int currentSteps;
+        final int totalSteps;
+
+        Prediction(Entry entry, int state, int currentSteps) {
+            this.achievementId = entry.achievementId;
+            this.previousState = entry.state;
+            this.previousSteps = entry.currentSteps;
+            this.state = state;
+            this.currentSteps = currentSteps;
+            this.totalSteps = entry.totalSteps;
+        }
+
+        boolean unlocked() {
+            return state == Achievement.STATE_UNLOCKED;
+        }
+    }
+
+    static class Entry {
+        String achievementId;
+        String name;
+        String description;
+        boolean incremental;
+        int state;
+        int currentSteps;
+        int totalSteps;
+        long lastUpdated;
+        String unlockedImageUrl;
+        String revealedImageUrl;
+        long xpValue;
+
+        boolean sameProgress(Entry other) {
+            return state == other.state && currentSteps == other.currentSteps && totalSteps == other.totalSteps;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("achievementId", achievementId);
+            json.put("name", name);
+            json.put("description", description);
+            json.put("type", incremental ? "incremental" : "standard");
+            json.put("state", state == Achievement.STATE_UNLOCKED ? "unlocked" : (state == Achievement.STATE_REVEALED ? "revealed" : "hidden"));
+            json.put("currentSteps", currentSteps);
+            json.put("totalSteps", totalSteps);
+            json.put("lastUpdated", lastUpdated);
+            json.put("unlockedImageUrl", unlockedImageUrl == null ? JSONObject.NULL : unlockedImageUrl);
+            json.put("revealedImageUrl", revealedImageUrl == null ? JSONObject.NULL : revealedImageUrl);
+            json.put("xpValue", xpValue);
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) {
+            Entry entry = new Entry();
+            entry.achievementId = json.optString("achievementId");
+            entry.name = json.optString("name");
+            entry.description = json.optString("description");
+            entry.incremental = "incremental".equals(json.optString("type"));
+            String state = json.optString("state");
+            entry.state = "unlocked".equals(state) ? Achievement.STATE_UNLOCKED : ("revealed".equals(state) ? Achievement.STATE_REVEALED : Achievement.STATE_HIDDEN);
+            entry.currentSteps = json.optInt("currentSteps");
+            entry.totalSteps = json.optInt("totalSteps");
+            entry.lastUpdated = json.optLong("lastUpdated");
+            entry.unlockedImageUrl = json.isNull("unlockedImageUrl") ? null : json.optString("unlockedImageUrl");
+            entry.revealedImageUrl = json.isNull("revealedImageUrl") ? null : json.optString("revealedImageUrl");
+            entry.xpValue = json.optLong("xpValue");
+            return entry;
+        }
+
+        static Entry fromAchievement(Achievement achievement) {
+            Entry entry = new Entry();
+            entry.achievementId = achievement.getAchievementId();
+            entry.name = achievement.getName();
+            entry.description = achievement.getDescription();
+            entry.incremental = achievement.getType() == Achievement.TYPE_INCREMENTAL;
+            entry.state = achievement.getState();
+            entry.currentSteps = entry.incremental ? achievement.getCurrentSteps() : 0;
+            entry.totalSteps = entry.incremental ? achievement.getTotalSteps() : 0;
+            entry.lastUpdated = achievement.getLastUpdatedTimestamp();
+            entry.unlockedImageUrl = achievement.getUnlockedImageUrl();
+            entry.revealedImageUrl = achievement.getRevealedImageUrl();
+            entry.xpValue = achievement.getXpValue();
+            return entry;
+        }
+    }
+
+    private final Context context;
+    private final GameHelper gameHelper;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private String playerId;
+    private File file;
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+    private ChangeListener listener;
+    private long maxAge = DEFAULT_MAX_AGE;
+    private long refreshedAt;
+    private boolean refreshing;
+    private boolean restored;
+
+    AchievementCache(Context context, GameHelper gameHelper) {
+        this.context = context;
+        this.gameHelper = gameHelper;
+    }
+
+    /**
+     * Switches to the achievements of the player, called once signed in.
+     */
+    void setPlayer(String playerId) {
+        select(playerId, true);
+    }
+
+    /**
+     * Selects the achievements of the player signed in last unless a player
+     * signed in since, so they are answered before the connection completes.
+     */
+    void restorePlayer(String playerId) {
+        select(playerId, false);
+    }
+
+    /**
+     * Forgets the achievements of the player signing out. They stay on disk
+     * for their next sign-in.
+     */
+    synchronized void clear() {
+        playerId = null;
+        file = null;
+        entries.clear();
+        refreshedAt = 0;
+        restored = true;
+    }
+
+    private synchronized void select(String playerId, boolean replace) {
+        if (playerId.equals(this.playerId) || !replace && this.playerId != null) {
+            return;
+        }
+        this.playerId = playerId;
+        file = new File(PluginStorage.getPlayerDirectory(context, AREA, playerId), FILE_NAME);
+        entries.clear();
+        refreshedAt = 0;
+        restored = false;
+    }
+
+    synchronized void setMaxAge(long maxAge) {
+        this.maxAge = Math.max(0, maxAge);
+    }
+
+    synchronized void setListener(ChangeListener listener) {
+        this.listener = listener;
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+        restore();
+        JSONArray achievements = new JSONArray();
+        for (Entry entry : entries.values()) {
+            achievements.put(entry.toJson());
+        }
+        JSONObject result = new JSONObject();
+        result.put("achievements", achievements);
+        result.put("refreshedAt", refreshedAt);
+        return result;
+    }
+
+    /**
+     * Returns whether there is a copy of the achievements, fresh or not.
+     */
+    synchronized boolean isLoaded() {
+        restore();
+        return refreshedAt > 0;
+    }
+
+    synchronized boolean isFresh() {
+        restore();
+        return refreshedAt > 0 && System.currentTimeMillis() - refreshedAt <= maxAge;
+    }
+
+    /**
+     * Reloads the achievements unless they are fresh, changes go to the
+     * listener.
+     */
+    void refreshIfStale() {
+        synchronized (this) {
+            if (refreshing || isFresh()) {
+                return;
+            }
+        }
+        refresh(false, new Callback() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.w(LOGTAG, "AchievementCache: " + message);
+            }
+        });
+    }
+
+    /**
+     * Replaces the cached achievements with the loaded ones and sends the
+     * differences to the listener.
+     */
+    void refresh(boolean forceReload, Callback callback) {
+        load(forceReload, false, callback);
+    }
+
+    private void load(boolean forceReload, final boolean corrected, final Callback callback) {
+        if (!gameHelper.isSignedIn()) {
+            callback.onError("not yet signed in");
+            return;
+        }
+        final String loadingPlayerId;
+        synchronized (this) {
+            refreshing = true;
+            loadingPlayerId = playerId;
+        }
+        Games.Achievements.load(gameHelper.getApiClient(), forceReload)
+                .setResultCallback(new ResultCallback<Achievements.LoadAchievementsResult>() {
+                    @Override
+                    public void onResult(Achievements.LoadAchievementsResult achievementsResult) {
+                        List<Entry> changed = new ArrayList<Entry>();
+                        Set<String> removed;
+                        try {
+                            if (!achievementsResult.getStatus().isSuccess()) {
+                                synchronized (AchievementCache.this) {
+                                    refreshing = false;
+                                }
+                                callback.onError("error while loading achievements: " + achievementsResult.getStatus().getStatusMessage());
+                                return;
+                            }
+                            synchronized (AchievementCache.this) {
+                                if (loadingPlayerId == null ? playerId != null : !loadingPlayerId.equals(playerId)) {
+                                    // Loaded for the player signed in before
+                                    refreshing = false;
+                                    callback.onError("player changed while loading achievements");
+                                    return;
+                                }
+                                restore();
+                                removed = new HashSet<String>(entries.keySet());
+                                for (Achievement achievement : achievementsResult.getAchievements()) {
+                                    Entry entry = Entry.fromAchievement(achievement);
+                                    Entry known = entries.put(entry.achievementId, entry);
+                                    removed.remove(entry.achievementId);
+                                    if (known == null || !known.sameProgress(entry)) {
+                                        changed.add(entry);
+                                    }
+                                }
+                                entries.keySet().removeAll(removed);
+                                refreshedAt = System.currentTimeMillis();
+                                refreshing = false;
+                            }
+                        } finally {
+                            achievementsResult.release();
+                        }
+                        persist();
+                        notifyChanged(changed, removed, corrected);
+                        callback.onSuccess();
+                    }
+                });
+    }
+
+    /**
+     * Records a change made on the device, such as an unlock.
+     *
+     * @param state        the new state
+     * @param currentSteps the new steps, or -1 to keep them
+     */
+    void update(String achievementId, int state, int currentSteps) {
+        apply(achievementId, state, currentSteps, false);
+    }
+
+    /**
+     * Applies an increment to the cached steps of an incremental achievement,
+     * unlocking it when the steps reach the total.
+     *
+     * @return the predicted progress, or null when the achievement is not
+     * cached or not incremental
+     */
+    Prediction predictIncrement(String achievementId, int numSteps) {
+        Prediction prediction;
+        synchronized (this) {
+            restore();
+            Entry entry = entries.get(achievementId);
+            if (entry == null || !entry.incremental) {
+                return null;
+            }
+            int steps = (int) Math.min((long) entry.currentSteps + Math.max(0, numSteps), entry.totalSteps);
+            int state = steps >= entry.totalSteps ? Achievement.STATE_UNLOCKED : entry.state;
+            prediction = new Prediction(entry, state, steps);
+        }
+        apply(achievementId, prediction.state, prediction.currentSteps, false);
+        return prediction;
+    }
+
+    /**
+     * Checks a prediction against the server's answer. A mismatch or failure
+     * reloads the achievements, the changes going to the listener as
+     * corrections.
+     *
+     * @param confirmed whether the server applied the increment
+     * @param unlocked  whether the server reported the achievement unlocked
+     */
+    void reconcile(final Prediction prediction, boolean confirmed, boolean unlocked) {
+        if (confirmed && unlocked == prediction.unlocked()) {
+            return;
+        }
+        Log.d(LOGTAG, "AchievementCache: correcting the predicted progress of " + prediction.achievementId);
+        load(true, true, new Callback() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.w(LOGTAG, "AchievementCache: " + message + ", reverting the prediction");
+                revert(prediction);
+            }
+        });
+    }
+
+    private void revert(Prediction prediction) {
+        synchronized (this) {
+            Entry entry = entries.get(prediction.achievementId);
+            if (entry == null || entry.state != prediction.state || entry.currentSteps != prediction.currentSteps) {
+                // Changed again since the prediction
+                return;
+            }
+        }
+        apply(prediction.achievementId, prediction.previousState, prediction.previousSteps, true);
+    }
+
+    private void apply(String achievementId, int state, int currentSteps, boolean corrected) {
+        Entry entry;
+        synchronized (this) {
+            restore();
+            entry = entries.get(achievementId);
+            if (entry == null) {
+                return;
+            }
+            int steps = currentSteps < 0 ? entry.currentSteps : Math.min(currentSteps, entry.totalSteps);
+            if (entry.state == state && entry.currentSteps == steps) {
+                return;
+            }
+            entry.state = state;
+            entry.currentSteps = steps;
+            entry.lastUpdated = System.currentTimeMillis();
+        }
+        persist();
+        List<Entry> changed = new ArrayList<Entry>();
+        changed.add(entry);
+        notifyChanged(changed, new HashSet<String>(), corrected);
+    }
+
+    private void notifyChanged(List<Entry> changed, Set<String> removed, boolean corrected) {
+        ChangeListener current;
+        JSONArray changedJson = new JSONArray();
+        synchronized (this) {
+            current = listener;
+            if (current == null || (changed.isEmpty() && removed.isEmpty())) {
+                return;
+            }
+            try {
+                for (Entry entry : changed) {
+                    changedJson.put(entry.toJson());
+                }
+            } catch (JSONException e) {
+                Log.w(LOGTAG, "AchievementCache: unable to send changes", e);
+                return;
+            }
+        }
+        current.onChanged(changedJson, new JSONArray(removed), corrected);
+    }
+
+    private void restore() {
+        if (restored) {
+            return;
+        }
+        restored = true;
+        if (file == null) {
+            return;
+        }
+        try {
+            byte[] data = PluginStorage.readFully(file);
+            if (data == null) {
+                return;
+            }
+            JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            refreshedAt = json.optLong("refreshedAt");
+            JSONArray achievements = json.optJSONArray("achievements");
+            for (int i = 0; achievements != null && i < achievements.length(); i++) {
+                Entry entry = Entry.fromJson(achievements.getJSONObject(i));
+                entries.put(entry.achievementId, entry);
+            }
+        } catch (Exception e) {
+            Log.w(LOGTAG, "AchievementCache: ignoring unreadable cache", e);
+            entries.clear();
+        }
+    }
+
+    private void persist() {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] data;
+                    File target;
+                    synchronized (AchievementCache.this) {
+                        // Not persisted until the player is known
+                        if (file == null) {
+                            return;
+                        }
+                        target = file;
+                        data = toJson().toString().getBytes(StandardCharsets.UTF_8);
+                    }
+                    PluginStorage.writeAtomically(target, data);
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "AchievementCache: unable to persist cache", e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,320 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Size-bounded disk cache of player avatars, answering local file URIs so the
+ * WebView does not download them again on every launch. Missing images are
+ * downloaded in the background and are available from the next lookup; the
+ * least recently used images are evicted once over the byte budget, except
+ * the pinned ones (the signed in player's).
+ *
+ * Image files are named after the SHA-256 of their URL, as URLs can be longer
+ * than a file name may be, and an index file keeps the URL of every image.
+ * The cache is restored from disk in the background; images missing from the
+ * index are left over from an interrupted download and are deleted.
+ */
+class AvatarCache {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private static final String AREA = "avatars";
+    private static final String FILE_EXTENSION = ".img";
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final int MAX_IMAGE_BYTES = 1024 * 1024;
+    private static final int TIMEOUT = 10000;
+
+    interface Listener {
+        void onCached(String url, String localUri);
+    }
+
+    private static class Entry {
+        final String url;
+        final File file;
+        final long sizeBytes;
+
+        Entry(String url, File file, long sizeBytes) {
+            this.url = url;
+            this.file = file;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    private final File directory;
+    private final File indexFile;
+    private final ExecutorService executor;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    /** Least recently used first. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Set<String> pinned = new HashSet<String>();
+    private final Set<String> downloading = new HashSet<String>();
+    private Listener listener;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long totalBytes;
+
+    private long hits;
+    private long misses;
+    private long downloads;
+    private long failures;
+    private long evictions;
+    private long evictedBytes;
+
+    AvatarCache(Context context, ExecutorService executor) {
+        this.directory = PluginStorage.getDirectory(context, AREA);
+        this.indexFile = new File(directory, INDEX_FILE_NAME);
+        this.executor = executor;
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        });
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Keeps the images of the urls (null ones ignored) from being evicted,
+     * replacing the previously pinned ones.
+     */
+    synchronized void pin(Collection<String> urls) {
+        pinned.clear();
+        for (String url : urls) {
+            if (url != null) {
+                pinned.add(fileNameFor(url));
+            }
+        }
+    }
+
+    /**
+     * Returns the file URI of the cached image, or null after queueing its
+     * download.
+     */
+    String localUri(final String url) {
+        if (url == null) {
+            return null;
+        }
+        final String fileName = fileNameFor(url);
+        synchronized (this) {
+            Entry entry = entries.get(fileName);
+            if (entry != null) {
+                hits++;
+                return Uri.fromFile(entry.file).toString();
+            }
+            misses++;
+            if (!downloading.add(fileName)) {
+                return null;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                download(url, fileName);
+            }
+        });
+        return null;
+    }
+
+    synchronized JSONObject statsToJson() throws JSONException {
+        long lookups = hits + misses;
+        JSONObject stats = new JSONObject();
+        stats.put("entries", entries.size());
+        stats.put("bytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", lookups == 0 ? 0 : (double) hits / lookups);
+        stats.put("downloads", downloads);
+        stats.put("failures", failures);
+        stats.put("evictions", evictions);
+        stats.put("evictedBytes", evictedBytes);
+        return stats;
+    }
+
+    private void download(String url, String fileName) {
+        File file = new File(directory, fileName);
+        Listener current;
+        try {
+            byte[] data = fetch(url);
+            PluginStorage.writeAtomically(file, data);
+            synchronized (this) {
+                downloading.remove(fileName);
+                downloads++;
+                Entry previous = entries.put(fileName, new Entry(url, file, data.length));
+                totalBytes += data.length - (previous == null ? 0 : previous.sizeBytes);
+                evict();
+                persistIndex();
+                if (!entries.containsKey(fileName)) {
+                    return;
+                }
+                current = listener;
+            }
+        } catch (IOException e) {
+            Log.w(LOGTAG, "AvatarCache: unable to download " + url, e);
+            synchronized (this) {
+                downloading.remove(fileName);
+                failures++;
+            }
+            return;
+        }
+        if (current != null) {
+            current.onCached(url, Uri.fromFile(file).toString());
+        }
+    }
+
+    private static byte[] fetch(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                if (out.size() > MAX_IMAGE_BYTES) {
+                    throw new IOException("image larger than " + MAX_IMAGE_BYTES + " bytes");
+                }
+            }
+            in.close();
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Deletes the least recently used unpinned images until under budget.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (pinned.contains(entry.getKey())) {
+                continue;
+            }
+            iterator.remove();
+            totalBytes -= entry.getValue().sizeBytes;
+            evictions++;
+            evictedBytes += entry.getValue().sizeBytes;
+            if (!entry.getValue().file.delete()) {
+                Log.w(LOGTAG, "AvatarCache: unable to delete " + entry.getValue().file);
+            }
+        }
+    }
+
+    private static String fileNameFor(String url) {
+        return PluginStorage.hashedFileNameFor(url, FILE_EXTENSION);
+    }
+
+    /**
+     * Reads the index and the images on the disk executor. Images already
+     * known in memory by then are kept as they are.
+     */
+    private void restore() {
+        JSONObject index = new JSONObject();
+        try {
+            byte[] data = PluginStorage.readFully(indexFile);
+            if (data != null) {
+                index = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            Log.w(LOGTAG, "AvatarCache: ignoring unreadable index", e);
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest first, as the images were last written
+        List<File> sorted = new ArrayList<File>(Arrays.asList(files));
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+            }
+        });
+        synchronized (this) {
+            LinkedHashMap<String, Entry> known = new LinkedHashMap<String, Entry>(entries);
+            entries.clear();
+            for (File file : sorted) {
+                String fileName = file.getName();
+                if (!fileName.endsWith(FILE_EXTENSION) || known.containsKey(fileName) || downloading.contains(fileName)) {
+                    continue;
+                }
+                String url = index.optString(fileName, null);
+                if (url == null || !fileName.equals(fileNameFor(url))) {
+                    if (!file.delete()) {
+                        Log.w(LOGTAG, "AvatarCache: unable to delete " + file);
+                    }
+                    continue;
+                }
+                entries.put(fileName, new Entry(url, file, file.length()));
+                totalBytes += file.length();
+            }
+            // Images used since the cache was created are the most recent
+            entries.putAll(known);
+            evict();
+        }
+        persistIndex();
+    }
+
+    /**
+     * Writes the URL of every cached image, keyed by file name.
+     */
+    private void persistIndex() {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JSONObject index = new JSONObject();
+                    synchronized (AvatarCache.this) {
+                        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                            index.put(entry.getKey(), entry.getValue().url);
+                        }
+                    }
+                    PluginStorage.writeAtomically(indexFile, index.toString().getBytes(StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "AvatarCache: unable to persist index", e);
+                }
+            }
+        });
+    }
+}
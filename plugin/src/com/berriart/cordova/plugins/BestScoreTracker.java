@@ -0,0 +1,238 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.games.leaderboard.LeaderboardVariant;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Locally persisted best score of the player on every leaderboard, per daily,
+ * weekly and all-time period. A submission that is not better than the best
+ * of any current period cannot change a leaderboard and is not sent.
+ *
+ * Bests come from the server (submitScoreNow and getPlayerScore results) and
+ * from the scores submitted on the device. Nothing is suppressed for a
+ * leaderboard whose score order is not known yet. The bests are restored on
+ * the disk executor once created; until then only the bests recorded in
+ * memory are known.
+ */
+class BestScoreTracker {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    private static final String AREA = "index";
+    private static final String FILE_NAME = "best_scores.json";
+    private static final int[] TIME_SPANS = {LeaderboardVariant.TIME_SPAN_DAILY, LeaderboardVariant.TIME_SPAN_WEEKLY, LeaderboardVariant.TIME_SPAN_ALL_TIME};
+
+    /** The best score of every time span and the period it was reached in. */
+    private static class Bests {
+        final long[] scores = new long[TIME_SPANS.length];
+        final long[] periodStarts = new long[TIME_SPANS.length];
+        final boolean[] known = new boolean[TIME_SPANS.length];
+    }
+
+    private final LeaderboardMetadataCache metadataCache;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final File file;
+    private final Map<String, Bests> bests = new HashMap<String, Bests>();
+
+    private long submitted;
+    private long suppressed;
+
+    BestScoreTracker(Context context, LeaderboardMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+        this.file = new File(PluginStorage.getDirectory(context, AREA), FILE_NAME);
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        });
+    }
+
+    /**
+     * Tells whether submitting the score can change a time span of the
+     * leaderboard, and counts the submission as sent or suppressed.
+     */
+    synchronized boolean shouldSubmit(String playerId, String leaderboardId, long score) {
+        Boolean largerIsBetter = metadataCache.largerIsBetter(leaderboardId);
+        Bests known = bests.get(keyOf(playerId, leaderboardId));
+        boolean improves = largerIsBetter == null || known == null;
+        long now = System.currentTimeMillis();
+        for (int i = 0; !improves && i < TIME_SPANS.length; i++) {
+            improves = !known.known[i] || known.periodStarts[i] != LocalLeaderboards.periodStart(TIME_SPANS[i], now)
+                    || (largerIsBetter ? score > known.scores[i] : score < known.scores[i]);
+        }
+        if (improves) {
+            submitted++;
+        } else {
+            suppressed++;
+        }
+        return improves;
+    }
+
+    /**
+     * Records a score submitted on the device as a candidate best of every
+     * current period.
+     */
+    void recordSubmitted(String playerId, String leaderboardId, long score) {
+        synchronized (this) {
+            Boolean largerIsBetter = metadataCache.largerIsBetter(leaderboardId);
+            if (largerIsBetter == null) {
+                // Which score is better cannot be told yet
+                return;
+            }
+            Bests known = bestsOf(playerId, leaderboardId);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < TIME_SPANS.length; i++) {
+                long periodStart = LocalLeaderboards.periodStart(TIME_SPANS[i], now);
+                boolean better = largerIsBetter ? score > known.scores[i] : score < known.scores[i];
+                if (!known.known[i] || known.periodStarts[i] != periodStart || better) {
+                    known.scores[i] = score;
+                    known.periodStarts[i] = periodStart;
+                    known.known[i] = true;
+                }
+            }
+        }
+        persist();
+    }
+
+    /**
+     * Records the best of a time span as reported by the server.
+     */
+    void recordBest(String playerId, String leaderboardId, int timeSpan, long score) {
+        synchronized (this) {
+            Bests known = bestsOf(playerId, leaderboardId);
+            for (int i = 0; i < TIME_SPANS.length; i++) {
+                if (TIME_SPANS[i] == timeSpan) {
+                    known.scores[i] = score;
+                    known.periodStarts[i] = LocalLeaderboards.periodStart(timeSpan, System.currentTimeMillis());
+                    known.known[i] = true;
+                }
+            }
+        }
+        persist();
+    }
+
+    synchronized JSONObject statsToJson() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("submitted", submitted);
+        stats.put("suppressed", suppressed);
+        return stats;
+    }
+
+    private Bests bestsOf(String playerId, String leaderboardId) {
+        String key = keyOf(playerId, leaderboardId);
+        Bests known = bests.get(key);
+        if (known == null) {
+            known = new Bests();
+            bests.put(key, known);
+        }
+        return known;
+    }
+
+    private static String keyOf(String playerId, String leaderboardId) {
+        return (playerId == null ? "" : playerId) + "/" + leaderboardId;
+    }
+
+    /**
+     * Reads the stored bests on the disk executor. Periods already recorded in
+     * memory by then are kept as they are.
+     */
+    private void restore() {
+        Map<String, Bests> stored = new HashMap<String, Bests>();
+        try {
+            byte[] data = PluginStorage.readFully(file);
+            if (data == null) {
+                return;
+            }
+            JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            JSONArray entries = json.optJSONArray("bests");
+            for (int i = 0; entries != null && i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                JSONArray periods = entry.getJSONArray("periods");
+                Bests known = new Bests();
+                for (int j = 0; j < TIME_SPANS.length && j < periods.length(); j++) {
+                    JSONObject period = periods.optJSONObject(j);
+                    if (period != null) {
+                        known.scores[j] = period.getLong("score");
+                        known.periodStarts[j] = period.getLong("periodStart");
+                        known.known[j] = true;
+                    }
+                }
+                stored.put(entry.getString("key"), known);
+            }
+        } catch (Exception e) {
+            Log.w(LOGTAG, "BestScoreTracker: ignoring unreadable best scores", e);
+            return;
+        }
+        synchronized (this) {
+            for (Map.Entry<String, Bests> entry : stored.entrySet()) {
+                Bests known = bests.get(entry.getKey());
+                if (known == null) {
+                    bests.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                for (int i = 0; i < TIME_SPANS.length; i++) {
+                    if (!known.known[i]) {
+                        known.scores[i] = entry.getValue().scores[i];
+                        known.periodStarts[i] = entry.getValue().periodStarts[i];
+                        known.known[i] = entry.getValue().known[i];
+                    }
+                }
+            }
+        }
+    }
+
+    private void persist() {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] data;
+                    synchronized (BestScoreTracker.this) {
+                        data = toJson().toString().getBytes(StandardCharsets.UTF_8);
+                    }
+                    PluginStorage.writeAtomically(file, data);
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "BestScoreTracker: unable to persist best scores", e);
+                }
+            }
+        });
+    }
+
+    private JSONObject toJson() throws JSONException {
+        JSONArray entries = new JSONArray();
+        for (Map.Entry<String, Bests> entry : bests.entrySet()) {
+            JSONArray periods = new JSONArray();
+            for (int i = 0; i < TIME_SPANS.length; i++) {
+                if (entry.getValue().known[i]) {
+                    JSONObject period = new JSONObject();
+                    period.put("score", entry.getValue().scores[i]);
+                    period.put("periodStart", entry.getValue().periodStarts[i]);
+                    periods.put(period);
+                } else {
+                    periods.put(JSONObject.NULL);
+                }
+            }
+            JSONObject json = new JSONObject();
+            json.put("key", entry.getKey());
+            json.put("periods", periods);
+            entries.put(json);
+        }
+        JSONObject json = new JSONObject();
+        json.put("bests", entries);
+        return json;
+    }
+}
@@ -0,0 +1,192 @@
+package com.berriart.cordova.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Framed save format with a CRC-32C per block, so a truncated or corrupted
+ * snapshot is detected on load instead of being handed to the game.
+ *
+ * Layout: a 16 byte header (magic, version, block size, payload length)
+ * followed by the payload blocks, each preceded by its checksum.
+ */
+class ChecksummedSaveFormat {
+
+    static final int HEADER_SIZE = 16;
+    private static final byte[] MAGIC = {0x00, 'P', 'G', 'C'};
+    private static final int VERSION = 1;
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    /** Thrown when the frame does not match its checksums or length. */
+    static class CorruptSaveException extends IOException {
+        CorruptSaveException(String message) {
+            super(message);
+        }
+    }
+
+    private ChecksummedSaveFormat() {
+    }
+
+    static boolean isChecksummedFrame(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] wrap(byte[] payload) {
+        return wrap(payload, DEFAULT_BLOCK_SIZE);
+    }
+
+    static byte[] wrap(byte[] payload, int blockSize) {
+        int blocks = (payload.length + blockSize - 1) / blockSize;
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + blocks * 4 + payload.length);
+        frame.put(MAGIC).put((byte) VERSION).put(new byte[3]).putInt(blockSize).putInt(payload.length);
+        for (int offset = 0; offset < payload.length; offset += blockSize) {
+            int length = Math.min(blockSize, payload.length - offset);
+            frame.putInt(Crc32c.compute(payload, offset, length));
+            frame.put(payload, offset, length);
+        }
+        return frame.array();
+    }
+
+    /**
+     * Verifies a frame and returns its payload, or the data itself when it is
+     * not a checksummed frame.
+     */
+    static byte[] unwrap(byte[] data) throws IOException {
+        if (!isChecksummedFrame(data)) {
+            return data;
+        }
+        ByteBuffer frame = ByteBuffer.wrap(data);
+        int[] header = readHeader(frame);
+        int blockSize = header[0];
+        int payloadLength = header[1];
+        long blocks = ((long) payloadLength + blockSize - 1) / blockSize;
+        if (HEADER_SIZE + blocks * 4 + payloadLength != data.length) {
+            throw new CorruptSaveException("Checksummed save has " + data.length + " bytes, expected " + (HEADER_SIZE + blocks * 4 + payloadLength));
+        }
+
+        byte[] payload = new byte[payloadLength];
+        for (int offset = 0, index = 0; offset < payloadLength; offset += blockSize, index++) {
+            int length = Math.min(blockSize, payloadLength - offset);
+            int expected = frame.getInt();
+            frame.get(payload, offset, length);
+            if (Crc32c.compute(payload, offset, length) != expected) {
+                throw new CorruptSaveException("Checksum mismatch in block " + index);
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Wraps a stream over snapshot data so that a checksummed frame is reduced
+     * to its payload, every block being verified before it is returned. Plain
+     * data is returned unchanged, with the length of the stream it came from
+     * when known.
+     */
+    static SnapshotFraming.PayloadStream unwrap(final InputStream in) throws IOException {
+        final byte[] headerBytes = new byte[HEADER_SIZE];
+        int read = readFully(in, headerBytes, 0, HEADER_SIZE);
+        if (read < HEADER_SIZE || !isChecksummedFrame(headerBytes)) {
+            return new SnapshotFraming.PayloadStream(new SequenceInputStream(new ByteArrayInputStream(headerBytes, 0, read), in),
+                    in instanceof SnapshotFraming.PayloadStream ? ((SnapshotFraming.PayloadStream) in).length : -1);
+        }
+        int[] header = readHeader(ByteBuffer.wrap(headerBytes));
+        final int blockSize = header[0];
+        final int payloadLength = header[1];
+
+        return new SnapshotFraming.PayloadStream(new InputStream() {
+            private final byte[] block = new byte[Math.min(blockSize, Math.max(payloadLength, 1))];
+            private final byte[] checksum = new byte[4];
+            private int remaining = payloadLength;
+            private int position;
+            private int limit;
+            private int index;
+
+            @Override
+            public int read() throws IOException {
+                if (!fill()) {
+                    return -1;
+                }
+                return block[position++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, limit - position);
+                System.arraycopy(block, position, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+
+            private boolean fill() throws IOException {
+                if (position < limit) {
+                    return true;
+                }
+                if (remaining == 0) {
+                    return false;
+                }
+                int length = Math.min(blockSize, remaining);
+                if (readFully(in, checksum, 0, 4) < 4 || readFully(in, block, 0, length) < length) {
+                    throw new CorruptSaveException("Checksummed save truncated in block " + index);
+                }
+                if (Crc32c.compute(block, 0, length) != ByteBuffer.wrap(checksum).getInt()) {
+                    throw new CorruptSaveException("Checksum mismatch in block " + index);
+                }
+                index++;
+                remaining -= length;
+                position = 0;
+                limit = length;
+                return true;
+            }
+        }, payloadLength);
+    }
+
+    private static int[] readHeader(ByteBuffer frame) throws IOException {
+        frame.position(MAGIC.length);
+        int version = frame.get() & 0xFF;
+        frame.position(8);
+        int blockSize = frame.getInt();
+        int payloadLength = frame.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unknown checksummed save version " + version);
+        }
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE || payloadLength < 0) {
+            throw new CorruptSaveException("Invalid checksummed save header");
+        }
+        return new int[]{blockSize, payloadLength};
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, offset + read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+}
@@ -0,0 +1,243 @@
+package com.berriart.cordova.plugins;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the metadata change committed with a save: description, played time,
+ * progress value and cover image. The cover image is decoded and downscaled
+ * to the snapshot cover limit off the UI thread. Decoded and scaled bitmaps
+ * come from a small pool, a game sending a same-sized screenshot on every save
+ * reuses the same bitmaps instead of allocating new ones.
+ */
+class CoverImageProcessor {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final long DEFAULT_MAX_COVER_BYTES = 800 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int POOL_SIZE = 4;
+    private static final String[] METADATA_OPTIONS = {"description", "playedTime", "progressValue", "coverImage"};
+
+    /** A metadata change and the cover bitmap to give back once committed. */
+    static class PreparedMetadata {
+        final SnapshotMetadataChange change;
+        final Bitmap cover;
+
+        PreparedMetadata(SnapshotMetadataChange change, Bitmap cover) {
+            this.change = change;
+            this.cover = cover;
+        }
+    }
+
+    private final List<Bitmap> pool = new ArrayList<Bitmap>();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    static boolean hasMetadata(JSONObject options) {
+        for (String option : METADATA_OPTIONS) {
+            if (options.has(option)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the metadata options alone, or null when there are none, so they
+     * can be kept with a save that is committed later.
+     */
+    static JSONObject metadataOf(JSONObject options) throws JSONException {
+        if (!hasMetadata(options)) {
+            return null;
+        }
+        JSONObject metadata = new JSONObject();
+        for (String option : METADATA_OPTIONS) {
+            if (options.has(option)) {
+                metadata.put(option, options.get(option));
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Prepares the metadata change on the executor.
+     *
+     * @param maxCoverBytes the cover limit of the client, the bitmap is scaled to fit in it
+     */
+    Future<PreparedMetadata> prepare(final JSONObject options, final long maxCoverBytes, ExecutorService executor) {
+        return executor.submit(new Callable<PreparedMetadata>() {
+            @Override
+            public PreparedMetadata call() throws Exception {
+                SnapshotMetadataChange.Builder builder = new SnapshotMetadataChange.Builder();
+                if (options.has("description")) {
+                    builder.setDescription(options.getString("description"));
+                }
+                if (options.has("playedTime")) {
+                    builder.setPlayedTimeMillis(options.getLong("playedTime"));
+                }
+                if (options.has("progressValue")) {
+                    builder.setProgressValue(options.getLong("progressValue"));
+                }
+                Bitmap cover = null;
+                if (options.has("coverImage")) {
+                    cover = decodeCover(options.getString("coverImage"), maxCoverBytes > 0 ? maxCoverBytes : DEFAULT_MAX_COVER_BYTES);
+                    builder.setCoverImage(cover);
+                }
+                return new PreparedMetadata(builder.build(), cover);
+            }
+        });
+    }
+
+    /**
+     * Waits for the metadata change, or returns null when it could not be
+     * prepared and the save is committed without it. Must not be called on
+     * the UI thread.
+     */
+    static PreparedMetadata await(Future<PreparedMetadata> metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        try {
+            return metadata.get();
+        } catch (Exception e) {
+            Log.w(LOGTAG, "CoverImageProcessor: saving without metadata, unable to prepare it", e);
+            return null;
+        }
+    }
+
+    /**
+     * Gives up a change that will not be committed, cancelling its decoding
+     * when it has not started yet.
+     */
+    void discard(Future<PreparedMetadata> metadata) {
+        if (metadata == null || metadata.cancel(false)) {
+            return;
+        }
+        try {
+            release(metadata.get());
+        } catch (Exception e) {
+            // Nothing was decoded
+        }
+    }
+
+    /**
+     * Gives the cover bitmap back to the pool once the commit is done.
+     */
+    void release(PreparedMetadata metadata) {
+        if (metadata != null && metadata.cover != null) {
+            recycle(metadata.cover);
+        }
+    }
+
+    /**
+     * Decodes a base64 image, optionally as a data URL, so that its pixels fit
+     * in maxBytes.
+     */
+    Bitmap decodeCover(String image, long maxBytes) {
+        int comma = image.startsWith("data:") ? image.indexOf(',') : -1;
+        byte[] encoded = Base64.decode(comma >= 0 ? image.substring(comma + 1) : image, Base64.DEFAULT);
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(encoded, 0, encoded.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IllegalArgumentException("coverImage is not a supported image");
+        }
+
+        double scale = Math.min(1.0, Math.sqrt((double) maxBytes / ((long) bounds.outWidth * bounds.outHeight * BYTES_PER_PIXEL)));
+        int targetWidth = Math.max(1, (int) (bounds.outWidth * scale));
+        int targetHeight = Math.max(1, (int) (bounds.outHeight * scale));
+
+        // The decoder subsamples by powers of two for free, the rest is scaled below
+        int sampleSize = 1;
+        while (bounds.outWidth / (sampleSize * 2) >= targetWidth && bounds.outHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        int decodedWidth = (bounds.outWidth + sampleSize - 1) / sampleSize;
+        int decodedHeight = (bounds.outHeight + sampleSize - 1) / sampleSize;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = acquire(decodedWidth, decodedHeight, false);
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit the decoder's requirements
+            recycle(options.inBitmap);
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        }
+        if (decoded == null) {
+            throw new IllegalArgumentException("coverImage could not be decoded");
+        }
+        if (decoded.getWidth() <= targetWidth && decoded.getHeight() <= targetHeight) {
+            return decoded;
+        }
+
+        Bitmap scaled = acquire(targetWidth, targetHeight, true);
+        if (scaled == null) {
+            scaled = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+        } else {
+            scaled.eraseColor(0);
+        }
+        new Canvas(scaled).drawBitmap(decoded, null, new Rect(0, 0, targetWidth, targetHeight), paint);
+        recycle(decoded);
+        return scaled;
+    }
+
+    /**
+     * Takes a pooled bitmap of exactly that size, or one large enough to be
+     * decoded into.
+     */
+    private synchronized Bitmap acquire(int width, int height, boolean exact) {
+        long needed = (long) width * height * BYTES_PER_PIXEL;
+        Iterator<Bitmap> iterator = pool.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            boolean fits = exact
+                    ? bitmap.getWidth() == width && bitmap.getHeight() == height
+                    : bitmap.getAllocationByteCount() >= needed;
+            if (fits) {
+                iterator.remove();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void recycle(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (bitmap.isMutable() && bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            pool.add(bitmap);
+            if (pool.size() > POOL_SIZE) {
+                Bitmap evicted = pool.remove(0);
+                Log.d(LOGTAG, "CoverImageProcessor: evicting " + evicted.getWidth() + "x" + evicted.getHeight() + " bitmap from pool");
+                evicted.recycle();
+            }
+        } else {
+            bitmap.recycle();
+        }
+    }
+}
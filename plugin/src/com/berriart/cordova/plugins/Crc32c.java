@@ -0,0 +1,63 @@
+package com.berriart.cordova.plugins;
+
+/**
+ * CRC-32C (Castagnoli) using slicing-by-8: eight bytes are folded per step
+ * through eight lookup tables, which keeps checksumming far below the cost of
+ * reading or writing a snapshot.
+ */
+final class Crc32c {
+
+    private static final int POLYNOMIAL = 0x82F63B78; // Reversed 0x1EDC6F41
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            int crc = TABLES[0][n];
+            for (int t = 1; t < 8; t++) {
+                crc = TABLES[0][crc & 0xFF] ^ (crc >>> 8);
+                TABLES[t][n] = crc;
+            }
+        }
+    }
+
+    private Crc32c() {
+    }
+
+    static int compute(byte[] data, int offset, int length) {
+        return update(0, data, offset, length);
+    }
+
+    /**
+     * Continues a checksum, pass 0 to start a new one.
+     */
+    static int update(int crc, byte[] data, int offset, int length) {
+        final int[] t0 = TABLES[0];
+        final int[] t1 = TABLES[1];
+        final int[] t2 = TABLES[2];
+        final int[] t3 = TABLES[3];
+        final int[] t4 = TABLES[4];
+        final int[] t5 = TABLES[5];
+        final int[] t6 = TABLES[6];
+        final int[] t7 = TABLES[7];
+
+        int c = ~crc;
+        int i = offset;
+        int end = offset + length;
+        for (int limit = end - 8; i <= limit; i += 8) {
+            int low = c ^ ((data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | (data[i + 3] & 0xFF) << 24);
+            c = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+                    ^ t3[data[i + 4] & 0xFF] ^ t2[data[i + 5] & 0xFF] ^ t1[data[i + 6] & 0xFF] ^ t0[data[i + 7] & 0xFF];
+        }
+        for (; i < end; i++) {
+            c = t0[(c ^ data[i]) & 0xFF] ^ (c >>> 8);
+        }
+        return ~c;
+    }
+}
@@ -0,0 +1,497 @@
+package com.berriart.cordova.plugins;
+
+import com.google.android.gms.games.snapshot.SnapshotContents;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Block based delta save format.
+ *
+ * The payload is split into content-defined chunks, stored anywhere in the
+ * snapshot and listed in payload order by an index that the header points to:
+ * magic, version, payload length, index offset and chunk count, followed by the
+ * chunks, followed by the index (position and length of every chunk). The
+ * hashes of the stored chunks are kept in a local manifest, so the next save
+ * only appends the chunks whose content is not stored yet, wherever they moved
+ * to in the payload, and a new index, using {@link SnapshotContents#modifyBytes}.
+ * Data that is no longer indexed is ignored until a full rewrite drops it.
+ *
+ * Version 1 frames, with the payload stored contiguously after a 12 byte
+ * header, are still read.
+ */
+class DeltaSaveFormat {
+
+    static final int HEADER_SIZE = 20;
+    private static final int HEADER_SIZE_V1 = 12;
+    private static final int INDEX_ENTRY_SIZE = 8;
+    private static final byte[] MAGIC = {0x00, 'P', 'G', 'D'};
+    private static final int VERSION_1 = 1;
+    private static final int VERSION = 2;
+
+    private static final int MANIFEST_VERSION = 2;
+    static final String MANIFEST_AREA = "delta";
+    private static final String MANIFEST_EXTENSION = ".idx";
+
+    // Content-defined chunking bounds (Gear rolling hash)
+    static final int MIN_CHUNK = 2 * 1024;
+    static final int MAX_CHUNK = 64 * 1024;
+    private static final long BOUNDARY_MASK = (1 << 13) - 1; // ~8KB average chunks
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x5EEDL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Destination of a write, the snapshot contents outside of tests. */
+    interface Contents {
+        long size();
+
+        void writeBytes(byte[] data);
+
+        void modifyBytes(int offset, byte[] data, int srcOffset, int count);
+    }
+
+    /**
+     * Chunk of the payload: offset and length inside the payload, its hash and
+     * its position inside the snapshot once stored (-1 before).
+     */
+    static class Chunk {
+        final int offset;
+        final int length;
+        final byte[] hash;
+        final int position;
+
+        Chunk(int offset, int length, byte[] hash, int position) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+            this.position = position;
+        }
+
+        Chunk storedAt(int position) {
+            return new Chunk(offset, length, hash, position);
+        }
+    }
+
+    /** Layout of the last delta save we committed for a snapshot. */
+    static class Manifest {
+        final long snapshotTime;
+        final int payloadLength;
+        /** End of the stored chunks, where the index starts. */
+        final int dataEnd;
+        final List<Chunk> chunks;
+
+        Manifest(long snapshotTime, int payloadLength, int dataEnd, List<Chunk> chunks) {
+            this.snapshotTime = snapshotTime;
+            this.payloadLength = payloadLength;
+            this.dataEnd = dataEnd;
+            this.chunks = chunks;
+        }
+
+        Manifest withSnapshotTime(long time) {
+            return new Manifest(time, payloadLength, dataEnd, chunks);
+        }
+    }
+
+    /** Outcome of a delta write. */
+    static class WriteResult {
+        final Manifest manifest;
+        final long bytesWritten;
+        final boolean fullRewrite;
+
+        WriteResult(Manifest manifest, long bytesWritten, boolean fullRewrite) {
+            this.manifest = manifest;
+            this.bytesWritten = bytesWritten;
+            this.fullRewrite = fullRewrite;
+        }
+    }
+
+    private DeltaSaveFormat() {
+    }
+
+    static boolean isDeltaFrame(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE_V1) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the payload of a delta frame, or the data itself when it is not
+     * a delta frame.
+     */
+    static byte[] unwrap(byte[] data) throws IOException {
+        if (!isDeltaFrame(data)) {
+            return data;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(MAGIC.length);
+        int version = buffer.getInt();
+        int payloadLength = buffer.getInt();
+        if (version == VERSION_1) {
+            if (payloadLength < 0 || HEADER_SIZE_V1 + payloadLength > data.length) {
+                throw new IOException("Truncated delta save: expected " + payloadLength + " bytes");
+            }
+            return Arrays.copyOfRange(data, HEADER_SIZE_V1, HEADER_SIZE_V1 + payloadLength);
+        }
+        if (version != VERSION) {
+            throw new IOException("Unsupported delta save version " + version);
+        }
+        if (data.length < HEADER_SIZE) {
+            throw new IOException("Truncated delta save header");
+        }
+        int indexOffset = buffer.getInt();
+        int count = buffer.getInt();
+        if (payloadLength < 0 || count < 0 || indexOffset < HEADER_SIZE
+                || (long) indexOffset + (long) count * INDEX_ENTRY_SIZE > data.length) {
+            throw new IOException("Truncated delta save index");
+        }
+        byte[] payload = new byte[payloadLength];
+        int offset = 0;
+        buffer.position(indexOffset);
+        for (int i = 0; i < count; i++) {
+            int position = buffer.getInt();
+            int length = buffer.getInt();
+            if (position < HEADER_SIZE || length < 0 || (long) position + length > indexOffset
+                    || (long) offset + length > payloadLength) {
+                throw new IOException("Corrupt delta save: chunk " + i + " out of bounds");
+            }
+            System.arraycopy(data, position, payload, offset, length);
+            offset += length;
+        }
+        if (offset != payloadLength) {
+            throw new IOException("Truncated delta save: expected " + payloadLength + " bytes, indexed " + offset);
+        }
+        return payload;
+    }
+
+    /**
+     * Wraps a stream over snapshot data so that a delta frame is transparently
+     * reduced to its payload. Plain data is returned unchanged. The index of a
+     * version 2 frame is read first through the file channel, then its chunks
+     * are read in payload order, so only the index is held in memory.
+     */
+    static SnapshotFraming.PayloadStream unwrap(FileInputStream in) throws IOException {
+        final FileChannel channel = in.getChannel();
+        final long start = channel.position();
+        byte[] header = new byte[HEADER_SIZE];
+        int read = readFully(in, header, 0, HEADER_SIZE_V1);
+        if (read < HEADER_SIZE_V1 || !isDeltaFrame(header)) {
+            return new SnapshotFraming.PayloadStream(new SequenceInputStream(new ByteArrayInputStream(header, 0, read), in), channel.size() - start);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        buffer.position(MAGIC.length);
+        int version = buffer.getInt();
+        final int payloadLength = buffer.getInt();
+        if (version == VERSION_1) {
+            return new SnapshotFraming.PayloadStream(new FilterInputStream(in) {
+                private int remaining = payloadLength;
+
+                @Override
+                public int read() throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int b = super.read();
+                    if (b >= 0) {
+                        remaining--;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int n = super.read(b, off, Math.min(len, remaining));
+                    if (n > 0) {
+                        remaining -= n;
+                    }
+                    return n;
+                }
+            }, payloadLength);
+        }
+        if (version != VERSION) {
+            throw new IOException("Unsupported delta save version " + version);
+        }
+        if (readFully(in, header, HEADER_SIZE_V1, HEADER_SIZE - HEADER_SIZE_V1) < HEADER_SIZE - HEADER_SIZE_V1) {
+            throw new IOException("Truncated delta save header");
+        }
+        int indexOffset = buffer.getInt();
+        final int count = buffer.getInt();
+        if (payloadLength < 0 || count < 0 || indexOffset < HEADER_SIZE
+                || (long) indexOffset + (long) count * INDEX_ENTRY_SIZE > channel.size() - start) {
+            throw new IOException("Truncated delta save index");
+        }
+        ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+        while (index.hasRemaining()) {
+            if (channel.read(index, start + indexOffset + index.position()) < 0) {
+                throw new IOException("Truncated delta save index");
+            }
+        }
+        final int[] positions = new int[count];
+        final int[] lengths = new int[count];
+        long indexed = 0;
+        index.flip();
+        for (int i = 0; i < count; i++) {
+            positions[i] = index.getInt();
+            lengths[i] = index.getInt();
+            if (positions[i] < HEADER_SIZE || lengths[i] < 0 || (long) positions[i] + lengths[i] > indexOffset) {
+                throw new IOException("Corrupt delta save: chunk " + i + " out of bounds");
+            }
+            indexed += lengths[i];
+        }
+        if (indexed != payloadLength) {
+            throw new IOException("Truncated delta save: expected " + payloadLength + " bytes, indexed " + indexed);
+        }
+        return new SnapshotFraming.PayloadStream(new InputStream() {
+            private int chunk;
+            private int chunkRead;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (chunk < count && chunkRead == lengths[chunk]) {
+                    chunk++;
+                    chunkRead = 0;
+                }
+                if (chunk >= count) {
+                    return -1;
+                }
+                if (len == 0) {
+                    return 0;
+                }
+                int n = channel.read(ByteBuffer.wrap(b, off, Math.min(len, lengths[chunk] - chunkRead)), start + positions[chunk] + chunkRead);
+                if (n < 0) {
+                    throw new IOException("Truncated delta save: chunk " + chunk + " ends early");
+                }
+                chunkRead += n;
+                return n;
+            }
+        }, payloadLength);
+    }
+
+    /**
+     * Reads up to length bytes, stopping early only at the end of the stream.
+     *
+     * @return the number of bytes read
+     */
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, offset + read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Splits the payload into content-defined chunks.
+     */
+    static List<Chunk> chunk(byte[] payload) {
+        MessageDigest digest = newDigest();
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int start = 0;
+        long hash = 0;
+        for (int i = 0; i < payload.length; i++) {
+            hash = (hash << 1) + GEAR[payload[i] & 0xFF];
+            int length = i - start + 1;
+            if ((length >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0) || length >= MAX_CHUNK) {
+                chunks.add(newChunk(digest, payload, start, length));
+                start = i + 1;
+                hash = 0;
+            }
+        }
+        if (start < payload.length) {
+            chunks.add(newChunk(digest, payload, start, payload.length - start));
+        }
+        return chunks;
+    }
+
+    static WriteResult write(final SnapshotContents contents, byte[] payload, Manifest previous, long currentSnapshotTime) {
+        return write(new Contents() {
+            @Override
+            public long size() {
+                return SnapshotChunkReader.sizeOf(contents);
+            }
+
+            @Override
+            public void writeBytes(byte[] data) {
+                contents.writeBytes(data);
+            }
+
+            @Override
+            public void modifyBytes(int offset, byte[] data, int srcOffset, int count) {
+                contents.modifyBytes(offset, data, srcOffset, count);
+            }
+        }, payload, previous, currentSnapshotTime);
+    }
+
+    /**
+     * Writes the payload into the contents, appending only the chunks whose
+     * hash is not among the stored ones of the previous manifest. A full
+     * rewrite is done when there is no usable manifest or the snapshot would
+     * carry too much data that is no longer indexed.
+     */
+    static WriteResult write(Contents contents, byte[] payload, Manifest previous, long currentSnapshotTime) {
+        List<Chunk> chunks = chunk(payload);
+
+        if (previous != null && previous.snapshotTime == currentSnapshotTime && contents.size() >= previous.dataEnd) {
+            Map<ByteBuffer, Chunk> stored = new HashMap<ByteBuffer, Chunk>();
+            for (Chunk chunk : previous.chunks) {
+                stored.put(ByteBuffer.wrap(chunk.hash), chunk);
+            }
+            List<Chunk> placed = new ArrayList<Chunk>(chunks.size());
+            ByteArrayOutputStream appended = new ByteArrayOutputStream();
+            int dataEnd = previous.dataEnd;
+            for (Chunk chunk : chunks) {
+                ByteBuffer key = ByteBuffer.wrap(chunk.hash);
+                Chunk match = stored.get(key);
+                if (match == null || match.length != chunk.length) {
+                    match = chunk.storedAt(dataEnd);
+                    stored.put(key, match);
+                    appended.write(payload, chunk.offset, chunk.length);
+                    dataEnd += chunk.length;
+                }
+                placed.add(chunk.storedAt(match.position));
+            }
+            if (dataEnd - HEADER_SIZE <= 2L * payload.length + MAX_CHUNK) {
+                // New chunks are contiguous after the previous ones, the old index is overwritten
+                byte[] data = appended.toByteArray();
+                byte[] index = index(placed);
+                if (data.length > 0) {
+                    contents.modifyBytes(previous.dataEnd, data, 0, data.length);
+                }
+                contents.modifyBytes(dataEnd, index, 0, index.length);
+                contents.modifyBytes(0, header(payload.length, dataEnd, placed.size()), 0, HEADER_SIZE);
+                return new WriteResult(new Manifest(0, payload.length, dataEnd, placed), data.length + index.length + HEADER_SIZE, false);
+            }
+        }
+
+        List<Chunk> placed = new ArrayList<Chunk>(chunks.size());
+        for (Chunk chunk : chunks) {
+            placed.add(chunk.storedAt(HEADER_SIZE + chunk.offset));
+        }
+        int dataEnd = HEADER_SIZE + payload.length;
+        byte[] index = index(placed);
+        byte[] frame = new byte[dataEnd + index.length];
+        System.arraycopy(header(payload.length, dataEnd, placed.size()), 0, frame, 0, HEADER_SIZE);
+        System.arraycopy(payload, 0, frame, HEADER_SIZE, payload.length);
+        System.arraycopy(index, 0, frame, dataEnd, index.length);
+        contents.writeBytes(frame);
+        return new WriteResult(new Manifest(0, payload.length, dataEnd, placed), frame.length, true);
+    }
+
+    static Manifest loadManifest(File directory, String saveName) {
+        try {
+            byte[] data = PluginStorage.readFully(new File(directory, PluginStorage.fileNameFor(saveName, MANIFEST_EXTENSION)));
+            if (data == null) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MANIFEST_VERSION) {
+                return null;
+            }
+            long snapshotTime = in.readLong();
+            int payloadLength = in.readInt();
+            int dataEnd = in.readInt();
+            int count = in.readInt();
+            List<Chunk> chunks = new ArrayList<Chunk>(count);
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                int position = in.readInt();
+                int length = in.readInt();
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+                chunks.add(new Chunk(offset, length, hash, position));
+                offset += length;
+            }
+            return new Manifest(snapshotTime, payloadLength, dataEnd, chunks);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static void saveManifest(File directory, String saveName, Manifest manifest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(24 + manifest.chunks.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MANIFEST_VERSION);
+        out.writeLong(manifest.snapshotTime);
+        out.writeInt(manifest.payloadLength);
+        out.writeInt(manifest.dataEnd);
+        out.writeInt(manifest.chunks.size());
+        for (Chunk chunk : manifest.chunks) {
+            out.writeInt(chunk.position);
+            out.writeInt(chunk.length);
+            out.writeByte(chunk.hash.length);
+            out.write(chunk.hash);
+        }
+        out.flush();
+        PluginStorage.writeAtomically(new File(directory, PluginStorage.fileNameFor(saveName, MANIFEST_EXTENSION)), bytes.toByteArray());
+    }
+
+    static void deleteManifest(File directory, String saveName) {
+        new File(directory, PluginStorage.fileNameFor(saveName, MANIFEST_EXTENSION)).delete();
+    }
+
+    private static byte[] header(int payloadLength, int indexOffset, int count) {
+        return ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).putInt(VERSION).putInt(payloadLength).putInt(indexOffset).putInt(count).array();
+    }
+
+    private static byte[] index(List<Chunk> chunks) {
+        ByteBuffer index = ByteBuffer.allocate(chunks.size() * INDEX_ENTRY_SIZE);
+        for (Chunk chunk : chunks) {
+            index.putInt(chunk.position).putInt(chunk.length);
+        }
+        return index.array();
+    }
+
+    private static Chunk newChunk(MessageDigest digest, byte[] payload, int offset, int length) {
+        digest.update(payload, offset, length);
+        return new Chunk(offset, length, digest.digest(), -1);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
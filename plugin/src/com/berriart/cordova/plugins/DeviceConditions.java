@@ -0,0 +1,80 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Android implementations of the sync scheduler clock and device conditions.
+ */
+class DeviceConditions implements SyncScheduler.Conditions {
+
+    private final Context context;
+
+    DeviceConditions(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean isOnline() {
+        NetworkInfo network = connectivity().getActiveNetworkInfo();
+        return network != null && network.isConnected();
+    }
+
+    @Override
+    public boolean isMetered() {
+        return connectivity().isActiveNetworkMetered();
+    }
+
+    @Override
+    public boolean isCharging() {
+        Intent battery = batteryStatus();
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    @Override
+    public int batteryPercent() {
+        Intent battery = batteryStatus();
+        if (battery == null) {
+            return -1;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level < 0 || scale <= 0 ? -1 : level * 100 / scale;
+    }
+
+    private ConnectivityManager connectivity() {
+        return (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    private Intent batteryStatus() {
+        // Sticky broadcast, no receiver is kept registered
+        return context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    }
+
+    /** Schedules on the main looper, measured with the elapsed realtime. */
+    static class HandlerClock implements SyncScheduler.Clock {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void schedule(Runnable task, long delay) {
+            handler.postDelayed(task, delay);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            handler.removeCallbacks(task);
+        }
+    }
+}
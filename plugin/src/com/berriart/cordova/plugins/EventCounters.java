@@ -0,0 +1,273 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.games.Games;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts event occurrences in memory and sends them to {@link Games#Events}
+ * in one pass per flush, periodically while signed in and when the app
+ * stops. Counts not sent yet are persisted per player, so they survive
+ * process death and are only ever sent for the player who made them.
+ *
+ * Occurrences counted while no player is selected are kept in memory and
+ * belong to the next player selected.
+ */
+class EventCounters {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final long DEFAULT_FLUSH_INTERVAL = 60 * 1000;
+
+    private static final String AREA = "index";
+    private static final String FILE_NAME = "events.json";
+
+    private final Context context;
+    private final GameHelper gameHelper;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /** Written by earlier versions for whoever was signed in. */
+    private final File legacyFile;
+    private final AtomicBoolean persistQueued = new AtomicBoolean();
+    private volatile ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+    private String playerId;
+    /** Set once the stored counts of the player are added to the counts. */
+    private File file;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private boolean started;
+
+    private final Runnable periodicFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            handler.postDelayed(this, flushInterval);
+        }
+    };
+
+    EventCounters(Context context, GameHelper gameHelper) {
+        this.context = context;
+        this.gameHelper = gameHelper;
+        this.legacyFile = new File(PluginStorage.getDirectory(context, AREA), FILE_NAME);
+    }
+
+    void setFlushInterval(long flushInterval) {
+        this.flushInterval = Math.max(1000, flushInterval);
+    }
+
+    /**
+     * Switches to the counts of the player, called once signed in. Their
+     * stored counts are added in the background.
+     */
+    synchronized void setPlayer(String playerId) {
+        if (playerId.equals(this.playerId)) {
+            return;
+        }
+        if (this.playerId != null) {
+            deselect();
+        }
+        this.playerId = playerId;
+        file = null;
+        final String selectedPlayerId = playerId;
+        final ConcurrentHashMap<String, AtomicLong> selected = counts;
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File selectedFile = new File(PluginStorage.getPlayerDirectory(context, AREA, selectedPlayerId), FILE_NAME);
+                restore(selectedFile, selected);
+                synchronized (EventCounters.this) {
+                    if (counts == selected) {
+                        file = selectedFile;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Selects the counts of the player signed in last unless a player signed
+     * in since, so the occurrences counted before the connection completes
+     * are kept for them.
+     */
+    synchronized void restorePlayer(String playerId) {
+        if (this.playerId == null) {
+            setPlayer(playerId);
+        }
+    }
+
+    /**
+     * Forgets the counts of the player signing out, called once flushed.
+     * Counts still pending stay on disk for their next sign-in.
+     */
+    synchronized void clear() {
+        deselect();
+        playerId = null;
+        file = null;
+    }
+
+    /**
+     * Adds occurrences of the event, sent with the next flush.
+     */
+    void increment(String eventId, long amount) {
+        ConcurrentHashMap<String, AtomicLong> counts = this.counts;
+        AtomicLong count = counts.get(eventId);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = counts.putIfAbsent(eventId, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.addAndGet(amount);
+        persist();
+    }
+
+    /**
+     * Flushes now and then every flush interval, called after sign-in.
+     */
+    void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        handler.post(periodicFlush);
+    }
+
+    void stop() {
+        started = false;
+        handler.removeCallbacks(periodicFlush);
+    }
+
+    /**
+     * Sends the pending count of every event.
+     */
+    void flush() {
+        if (!gameHelper.isSignedIn()) {
+            return;
+        }
+        boolean sent = false;
+        for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+            long count = entry.getValue().getAndSet(0);
+            while (count > 0) {
+                int amount = (int) Math.min(count, Integer.MAX_VALUE);
+                Games.Events.increment(gameHelper.getApiClient(), entry.getKey(), amount);
+                count -= amount;
+                sent = true;
+            }
+        }
+        if (sent) {
+            persist();
+        }
+    }
+
+    /**
+     * Stores the counts of the player being deselected and starts over with
+     * none. Counts not restored yet are stored once they are.
+     */
+    private void deselect() {
+        final ConcurrentHashMap<String, AtomicLong> previous = counts;
+        final File previousFile = file;
+        counts = new ConcurrentHashMap<String, AtomicLong>();
+        if (previousFile == null) {
+            return;
+        }
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(previousFile, previous);
+            }
+        });
+    }
+
+    /**
+     * Adds the stored counts of the player, and the counts stored by earlier
+     * versions, to the counts and writes them back, on the disk executor.
+     */
+    private void restore(File file, ConcurrentHashMap<String, AtomicLong> counts) {
+        read(file, counts);
+        boolean legacy = legacyFile.isFile();
+        if (legacy) {
+            read(legacyFile, counts);
+        }
+        if (write(file, counts) && legacy && !legacyFile.delete()) {
+            Log.w(LOGTAG, "EventCounters: unable to delete the shared counts");
+        }
+    }
+
+    private void read(File file, ConcurrentHashMap<String, AtomicLong> counts) {
+        try {
+            byte[] data = PluginStorage.readFully(file);
+            if (data == null) {
+                return;
+            }
+            JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8)).getJSONObject("counts");
+            Iterator<String> eventIds = json.keys();
+            while (eventIds.hasNext()) {
+                String eventId = eventIds.next();
+                AtomicLong count = counts.putIfAbsent(eventId, new AtomicLong(json.getLong(eventId)));
+                if (count != null) {
+                    count.addAndGet(json.getLong(eventId));
+                }
+            }
+        } catch (Exception e) {
+            Log.w(LOGTAG, "EventCounters: ignoring unreadable counts", e);
+        }
+    }
+
+    private void persist() {
+        // Increments arriving before the write runs are written with it
+        if (!persistQueued.compareAndSet(false, true)) {
+            return;
+        }
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                persistQueued.set(false);
+                File file;
+                ConcurrentHashMap<String, AtomicLong> counts;
+                synchronized (EventCounters.this) {
+                    // Until restored, the stored counts would be overwritten
+                    if (EventCounters.this.file == null) {
+                        return;
+                    }
+                    file = EventCounters.this.file;
+                    counts = EventCounters.this.counts;
+                }
+                write(file, counts);
+            }
+        });
+    }
+
+    private boolean write(File file, ConcurrentHashMap<String, AtomicLong> counts) {
+        try {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+                long count = entry.getValue().get();
+                if (count > 0) {
+                    json.put(entry.getKey(), count);
+                }
+            }
+            JSONObject state = new JSONObject();
+            state.put("counts", json);
+            PluginStorage.writeAtomically(file, state.toString().getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (Exception e) {
+            Log.w(LOGTAG, "EventCounters: unable to persist counts", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,650 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.GamesStatusCodes;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+import com.google.android.gms.games.snapshot.Snapshots;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Key-value save store layered over snapshots. Every namespace is backed by a
+ * single snapshot and mirrored in a compact binary file on disk. Updates only
+ * mark the namespace as dirty; the snapshot is rewritten when the namespace is
+ * flushed, so many updates end up in a single commit.
+ *
+ * A flush merges per key: the keys changed on this device since the last
+ * flush are applied over the snapshot as it is now, so keys written by other
+ * devices are kept. The mirror is kept per player and refreshed from the
+ * snapshot the first time a namespace is used after signing in, the keys
+ * changed locally staying on top.
+ */
+class KeyValueSaveStore {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final String AREA = "kv";
+    static final String SNAPSHOT_PREFIX = SnapshotMetadataIndex.INTERNAL_PREFIX + "kv~";
+    private static final long FLUSH_DELAY = 5000;
+
+    private static final String FILE_EXTENSION = ".kv";
+    private static final int FORMAT_MAGIC = 0x5047534B; // "PGSK"
+    private static final int FORMAT_VERSION = 1;
+    private static final int LOCAL_FORMAT_VERSION = 2;
+
+    interface Callback {
+        void onSuccess(Namespace namespace);
+
+        void onError(String message);
+    }
+
+    static class Namespace {
+        final String name;
+        final File file;
+        final Map<String, String> values = new TreeMap<String, String>();
+        /** Keys changed since the last flush (absent from values when deleted), with the version of their change. */
+        final Map<String, Long> changedKeys = new TreeMap<String, Long>();
+        long version;
+        long flushedVersion;
+
+        private boolean loaded;
+        /** Read from the snapshot since the player signed in. */
+        private boolean synced;
+        private boolean loading;
+        private boolean flushing;
+        private boolean flushRequested;
+        private final List<Callback> loadWaiters = new ArrayList<Callback>();
+        private final List<Callback> flushWaiters = new ArrayList<Callback>();
+        private Runnable scheduledFlush;
+
+        Namespace(String name, File file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        boolean isDirty() {
+            return version != flushedVersion;
+        }
+    }
+
+    private final GameHelper gameHelper;
+    private final Context context;
+    private String playerId;
+    private File directory;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Namespace> namespaces = new HashMap<String, Namespace>();
+
+    KeyValueSaveStore(Context context, GameHelper gameHelper) {
+        this.gameHelper = gameHelper;
+        this.context = context;
+    }
+
+    /**
+     * Switches to the mirror of the player, called once signed in. Namespaces
+     * of the previous player are forgotten, their unflushed changes stay on
+     * disk for their next sign-in.
+     */
+    synchronized void setPlayer(String playerId) {
+        if (playerId.equals(this.playerId)) {
+            // Signed in again, other devices may have written meanwhile
+            for (Namespace namespace : namespaces.values()) {
+                namespace.synced = false;
+            }
+            return;
+        }
+        forget();
+        this.playerId = playerId;
+        directory = PluginStorage.getPlayerDirectory(context, AREA, playerId);
+    }
+
+    /**
+     * Selects the mirror of the player signed in last unless a player signed
+     * in since, so namespaces can be used before the connection completes.
+     */
+    synchronized void restorePlayer(String playerId) {
+        if (this.playerId == null) {
+            setPlayer(playerId);
+        }
+    }
+
+    /**
+     * Forgets the namespaces of the player signing out. Their mirror stays on
+     * disk for their next sign-in.
+     */
+    synchronized void clear() {
+        forget();
+        playerId = null;
+        directory = null;
+    }
+
+    private void forget() {
+        for (Namespace namespace : namespaces.values()) {
+            if (namespace.scheduledFlush != null) {
+                handler.removeCallbacks(namespace.scheduledFlush);
+                namespace.scheduledFlush = null;
+            }
+        }
+        namespaces.clear();
+    }
+
+    /**
+     * Makes sure the namespace is in memory, reading it from disk and, the
+     * first time it is used since signing in, from its snapshot.
+     */
+    void load(final String name, final Callback callback) {
+        final Namespace namespace;
+        synchronized (this) {
+            if (directory == null) {
+                callback.onError("no signed in player for namespace " + name);
+                return;
+            }
+            namespace = namespaceFor(name);
+            if (namespace.loaded && (namespace.synced || !gameHelper.isSignedIn())) {
+                callback.onSuccess(namespace);
+                return;
+            }
+            namespace.loadWaiters.add(callback);
+            if (namespace.loading) {
+                return;
+            }
+            namespace.loading = true;
+        }
+
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    boolean local = namespace.loaded || readLocal(namespace);
+                    if (local && !gameHelper.isSignedIn()) {
+                        // Refreshed from the snapshot once signed in
+                        finishLoad(namespace, null);
+                    } else {
+                        loadRemote(namespace, local);
+                    }
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "KeyValueSaveStore: unable to load namespace " + name, e);
+                    finishLoad(namespace, "error while loading namespace " + name);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the updates (null values delete keys) and schedules a flush.
+     */
+    void update(String name, final Map<String, String> updates, final Callback callback) {
+        load(name, new Callback() {
+            @Override
+            public void onSuccess(Namespace namespace) {
+                synchronized (KeyValueSaveStore.this) {
+                    namespace.version++;
+                    for (Map.Entry<String, String> entry : updates.entrySet()) {
+                        if (entry.getValue() == null) {
+                            namespace.values.remove(entry.getKey());
+                        } else {
+                            namespace.values.put(entry.getKey(), entry.getValue());
+                        }
+                        namespace.changedKeys.put(entry.getKey(), namespace.version);
+                    }
+                    scheduleFlush(namespace);
+                }
+                writeLocalAsync(namespace);
+                callback.onSuccess(namespace);
+            }
+
+            @Override
+            public void onError(String message) {
+                callback.onError(message);
+            }
+        });
+    }
+
+    /**
+     * Writes the namespace to its snapshot if it has unflushed changes.
+     */
+    void flush(String name, final Callback callback) {
+        final Namespace namespace;
+        synchronized (this) {
+            if (directory == null) {
+                callback.onError("no signed in player for namespace " + name);
+                return;
+            }
+            namespace = namespaceFor(name);
+            if (namespace.scheduledFlush != null) {
+                handler.removeCallbacks(namespace.scheduledFlush);
+                namespace.scheduledFlush = null;
+            }
+            if (!namespace.flushing && (!namespace.loaded || !namespace.isDirty())) {
+                callback.onSuccess(namespace);
+                return;
+            }
+            namespace.flushWaiters.add(callback);
+            if (namespace.flushing) {
+                namespace.flushRequested = namespace.isDirty();
+                return;
+            }
+            namespace.flushing = true;
+        }
+        commit(namespace);
+    }
+
+    /**
+     * Flushes every loaded namespace with pending changes, running done once
+     * every flush finished.
+     */
+    void flushAll(final Runnable done) {
+        List<String> dirty = new ArrayList<String>();
+        synchronized (this) {
+            for (Namespace namespace : namespaces.values()) {
+                if (namespace.loaded && namespace.isDirty()) {
+                    dirty.add(namespace.name);
+                }
+            }
+        }
+        if (dirty.isEmpty()) {
+            done.run();
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(dirty.size());
+        for (String name : dirty) {
+            flush(name, new Callback() {
+                @Override
+                public void onSuccess(Namespace namespace) {
+                    if (remaining.decrementAndGet() == 0) {
+                        done.run();
+                    }
+                }
+
+                @Override
+                public void onError(String message) {
+                    Log.w(LOGTAG, "KeyValueSaveStore: " + message);
+                    if (remaining.decrementAndGet() == 0) {
+                        done.run();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads the namespaces that were left dirty by a previous session so they
+     * are flushed now that the client is connected.
+     */
+    void resumePendingFlushes() {
+        File[] files;
+        synchronized (this) {
+            files = directory == null ? null : directory.listFiles();
+        }
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (!fileName.endsWith(FILE_EXTENSION)) {
+                continue;
+            }
+            try {
+                String name = URLDecoder.decode(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()), "UTF-8");
+                load(name, new Callback() {
+                    @Override
+                    public void onSuccess(Namespace namespace) {
+                        synchronized (KeyValueSaveStore.this) {
+                            if (namespace.isDirty()) {
+                                scheduleFlush(namespace);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        Log.w(LOGTAG, "KeyValueSaveStore: " + message);
+                    }
+                });
+            } catch (IOException e) {
+                Log.w(LOGTAG, "KeyValueSaveStore: ignoring " + fileName, e);
+            }
+        }
+    }
+
+    private Namespace namespaceFor(String name) {
+        Namespace namespace = namespaces.get(name);
+        if (namespace == null) {
+            namespace = new Namespace(name, new File(directory, PluginStorage.fileNameFor(name, FILE_EXTENSION)));
+            namespaces.put(name, namespace);
+        }
+        return namespace;
+    }
+
+    private void scheduleFlush(final Namespace namespace) {
+        if (namespace.scheduledFlush != null) {
+            handler.removeCallbacks(namespace.scheduledFlush);
+        }
+        namespace.scheduledFlush = new Runnable() {
+            @Override
+            public void run() {
+                flush(namespace.name, new Callback() {
+                    @Override
+                    public void onSuccess(Namespace namespace) {
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        Log.w(LOGTAG, "KeyValueSaveStore: " + message);
+                    }
+                });
+            }
+        };
+        handler.postDelayed(namespace.scheduledFlush, FLUSH_DELAY);
+    }
+
+    private void finishLoad(Namespace namespace, String error) {
+        List<Callback> waiters;
+        synchronized (this) {
+            namespace.loading = false;
+            namespace.loaded = error == null;
+            waiters = new ArrayList<Callback>(namespace.loadWaiters);
+            namespace.loadWaiters.clear();
+        }
+        for (Callback waiter : waiters) {
+            if (error == null) {
+                waiter.onSuccess(namespace);
+            } else {
+                waiter.onError(error);
+            }
+        }
+    }
+
+    /**
+     * Reads the snapshot of the namespace, applying the keys changed locally
+     * over it. When the namespace is already known locally, it is kept as is
+     * if the snapshot cannot be read.
+     */
+    private void loadRemote(final Namespace namespace, final boolean local) {
+        if (!gameHelper.isSignedIn()) {
+            finishLoad(namespace, local ? null : "not yet signed in");
+            return;
+        }
+        PendingResult<Snapshots.OpenSnapshotResult> result = Games.Snapshots.open(gameHelper.getApiClient(), SNAPSHOT_PREFIX + namespace.name, false, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED);
+        result.setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(final Snapshots.OpenSnapshotResult snapshotResult) {
+                final int statusCode = snapshotResult.getStatus().getStatusCode();
+                if (!snapshotResult.getStatus().isSuccess() && statusCode != GamesStatusCodes.STATUS_SNAPSHOT_NOT_FOUND) {
+                    if (local) {
+                        Log.w(LOGTAG, "KeyValueSaveStore: keeping the local copy of " + namespace.name + ": " + snapshotResult.getStatus().getStatusMessage());
+                    }
+                    finishLoad(namespace, local ? null : "error while opening snapshot: " + snapshotResult.getStatus().getStatusMessage());
+                    return;
+                }
+                diskExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Snapshot snapshot = snapshotResult.getSnapshot();
+                        try {
+                            Map<String, String> remote = new TreeMap<String, String>();
+                            if (snapshot != null && snapshot.getSnapshotContents() != null) {
+                                byte[] data = SnapshotFraming.read(snapshot.getSnapshotContents());
+                                if (data != null && data.length > 0) {
+                                    decodeValues(new DataInputStream(new ByteArrayInputStream(data)), remote);
+                                }
+                            }
+                            synchronized (KeyValueSaveStore.this) {
+                                overlayChanges(namespace, remote);
+                                namespace.values.clear();
+                                namespace.values.putAll(remote);
+                                namespace.synced = true;
+                            }
+                            writeLocal(namespace);
+                            finishLoad(namespace, null);
+                        } catch (Exception e) {
+                            Log.w(LOGTAG, "KeyValueSaveStore: unable to read snapshot of " + namespace.name, e);
+                            if (!local) {
+                                synchronized (KeyValueSaveStore.this) {
+                                    namespace.values.clear();
+                                }
+                            }
+                            finishLoad(namespace, local ? null : "error while reading snapshot");
+                        } finally {
+                            if (snapshot != null) {
+                                Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void commit(final Namespace namespace) {
+        if (!gameHelper.isSignedIn()) {
+            finishFlush(namespace, -1, "not yet signed in");
+            return;
+        }
+        PendingResult<Snapshots.OpenSnapshotResult> result = Games.Snapshots.open(gameHelper.getApiClient(), SNAPSHOT_PREFIX + namespace.name, true, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED);
+        result.setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                final Snapshot snapshot = snapshotResult.getSnapshot();
+                if (!snapshotResult.getStatus().isSuccess() || snapshot == null || snapshot.getSnapshotContents() == null) {
+                    finishFlush(namespace, -1, "error while opening snapshot: " + snapshotResult.getStatus().getStatusMessage());
+                    return;
+                }
+                // Reading and merging the remote values happens off the UI thread
+                diskExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mergeAndCommit(namespace, snapshot);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Applies the keys changed locally over the values of the snapshot and
+     * commits the result, which also becomes the local state.
+     */
+    private void mergeAndCommit(final Namespace namespace, Snapshot snapshot) {
+        final long version;
+        byte[] data;
+        try {
+            byte[] remote = SnapshotFraming.read(snapshot.getSnapshotContents());
+            Map<String, String> merged = new TreeMap<String, String>();
+            if (remote != null && remote.length > 0) {
+                decodeValues(new DataInputStream(new ByteArrayInputStream(remote)), merged);
+            }
+            synchronized (this) {
+                overlayChanges(namespace, merged);
+                namespace.values.clear();
+                namespace.values.putAll(merged);
+                version = namespace.version;
+                data = encode(merged);
+            }
+        } catch (IOException e) {
+            Log.w(LOGTAG, "KeyValueSaveStore: unable to merge namespace " + namespace.name, e);
+            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+            finishFlush(namespace, -1, "error while merging namespace");
+            return;
+        }
+        SnapshotFraming.write(snapshot.getSnapshotContents(), data);
+
+        PendingResult<Snapshots.CommitSnapshotResult> commitResult = Games.Snapshots.commitAndClose(gameHelper.getApiClient(), snapshot, SnapshotMetadataChange.EMPTY_CHANGE);
+        commitResult.setResultCallback(new ResultCallback<Snapshots.CommitSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.CommitSnapshotResult commitSnapshotResult) {
+                if (commitSnapshotResult.getStatus().isSuccess()) {
+                    finishFlush(namespace, version, null);
+                } else {
+                    finishFlush(namespace, -1, "save not sent: " + commitSnapshotResult.getStatus().getStatusMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the keys changed locally since the last flush over the values.
+     */
+    private static void overlayChanges(Namespace namespace, Map<String, String> values) {
+        for (String key : namespace.changedKeys.keySet()) {
+            String value = namespace.values.get(key);
+            if (value == null) {
+                values.remove(key);
+            } else {
+                values.put(key, value);
+            }
+        }
+    }
+
+    private void finishFlush(Namespace namespace, long flushedVersion, String error) {
+        List<Callback> waiters;
+        boolean again;
+        synchronized (this) {
+            if (flushedVersion > namespace.flushedVersion) {
+                namespace.flushedVersion = flushedVersion;
+                // Keys changed again while committing stay for the next flush
+                Iterator<Long> changes = namespace.changedKeys.values().iterator();
+                while (changes.hasNext()) {
+                    if (changes.next() <= flushedVersion) {
+                        changes.remove();
+                    }
+                }
+            }
+            waiters = new ArrayList<Callback>(namespace.flushWaiters);
+            namespace.flushWaiters.clear();
+            again = namespace.flushRequested && error == null;
+            namespace.flushRequested = false;
+            namespace.flushing = again;
+        }
+        if (flushedVersion >= 0) {
+            writeLocalAsync(namespace);
+        }
+        if (again) {
+            // Updates arrived while committing; they are in the next commit
+            synchronized (this) {
+                namespace.flushWaiters.addAll(waiters);
+            }
+            commit(namespace);
+            return;
+        }
+        for (Callback waiter : waiters) {
+            if (error == null) {
+                waiter.onSuccess(namespace);
+            } else {
+                waiter.onError(error);
+            }
+        }
+    }
+
+    private boolean readLocal(Namespace namespace) throws IOException {
+        byte[] data = PluginStorage.readFully(namespace.file);
+        if (data == null) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readUnsignedByte() != LOCAL_FORMAT_VERSION) {
+            throw new IOException("Unknown key-value mirror format");
+        }
+        int changed = in.readInt();
+        synchronized (this) {
+            namespace.changedKeys.clear();
+            for (int i = 0; i < changed; i++) {
+                namespace.changedKeys.put(readString(in), 1L);
+            }
+            decodeValues(in, namespace.values);
+            namespace.version = changed > 0 ? 1 : 0;
+            namespace.flushedVersion = 0;
+        }
+        return true;
+    }
+
+    private void writeLocalAsync(final Namespace namespace) {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeLocal(namespace);
+                } catch (IOException e) {
+                    Log.w(LOGTAG, "KeyValueSaveStore: unable to persist namespace " + namespace.name, e);
+                }
+            }
+        });
+    }
+
+    private void writeLocal(Namespace namespace) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        synchronized (this) {
+            out.writeByte(LOCAL_FORMAT_VERSION);
+            out.writeInt(namespace.changedKeys.size());
+            for (String key : namespace.changedKeys.keySet()) {
+                writeString(out, key);
+            }
+            out.write(encode(namespace.values));
+        }
+        out.flush();
+        PluginStorage.writeAtomically(namespace.file, bytes.toByteArray());
+    }
+
+    static byte[] encode(Map<String, String> values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FORMAT_MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(values.size());
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static void decodeValues(DataInputStream in, Map<String, String> values) throws IOException {
+        if (in.readInt() != FORMAT_MAGIC || in.readUnsignedByte() != FORMAT_VERSION) {
+            throw new IOException("Unknown key-value save format");
+        }
+        values.clear();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            values.put(key, readString(in));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
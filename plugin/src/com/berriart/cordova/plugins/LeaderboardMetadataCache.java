@@ -0,0 +1,241 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.leaderboard.Leaderboard;
+import com.google.android.gms.games.leaderboard.Leaderboards;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Locally persisted metadata of the game's leaderboards (name, icon and score
+ * order), loaded once after sign-in and again when older than the maximum
+ * age, so lookups are answered from memory. The cache is restored on the
+ * disk executor once created; until then no leaderboard is known.
+ */
+class LeaderboardMetadataCache {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final long DEFAULT_MAX_AGE = 24 * 60 * 60 * 1000;
+
+    private static final String AREA = "index";
+    private static final String FILE_NAME = "leaderboards.json";
+
+    interface Callback {
+        void onSuccess();
+
+        void onError(String message);
+    }
+
+    static class Entry {
+        String leaderboardId;
+        String displayName;
+        String iconImageUrl;
+        boolean largerIsBetter;
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("leaderboardId", leaderboardId);
+            json.put("displayName", displayName);
+            json.put("iconImageUrl", iconImageUrl == null ? JSONObject.NULL : iconImageUrl);
+            json.put("scoreOrder", largerIsBetter ? "largerIsBetter" : "smallerIsBetter");
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) {
+            Entry entry = new Entry();
+            entry.leaderboardId = json.optString("leaderboardId");
+            entry.displayName = json.optString("displayName");
+            entry.iconImageUrl = json.isNull("iconImageUrl") ? null : json.optString("iconImageUrl");
+            entry.largerIsBetter = !"smallerIsBetter".equals(json.optString("scoreOrder"));
+            return entry;
+        }
+    }
+
+    private final GameHelper gameHelper;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final File file;
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+    private long maxAge = DEFAULT_MAX_AGE;
+    private long refreshedAt;
+    private boolean refreshing;
+
+    LeaderboardMetadataCache(Context context, GameHelper gameHelper) {
+        this.gameHelper = gameHelper;
+        this.file = new File(PluginStorage.getDirectory(context, AREA), FILE_NAME);
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        });
+    }
+
+    synchronized void setMaxAge(long maxAge) {
+        this.maxAge = Math.max(0, maxAge);
+    }
+
+    /**
+     * Returns the metadata of every leaderboard, or of the given one.
+     *
+     * @param leaderboardId the leaderboard, or null for all of them
+     */
+    synchronized JSONObject toJson(String leaderboardId) throws JSONException {
+        JSONArray leaderboards = new JSONArray();
+        for (Entry entry : entries.values()) {
+            if (leaderboardId == null || leaderboardId.equals(entry.leaderboardId)) {
+                leaderboards.put(entry.toJson());
+            }
+        }
+        JSONObject result = new JSONObject();
+        result.put("leaderboards", leaderboards);
+        result.put("refreshedAt", refreshedAt);
+        return result;
+    }
+
+    synchronized boolean isFresh() {
+        return refreshedAt > 0 && System.currentTimeMillis() - refreshedAt <= maxAge;
+    }
+
+    /**
+     * Returns whether larger scores rank better on the leaderboard, or null
+     * when the leaderboard is unknown.
+     */
+    synchronized Boolean largerIsBetter(String leaderboardId) {
+        Entry entry = entries.get(leaderboardId);
+        return entry == null ? null : entry.largerIsBetter;
+    }
+
+    /**
+     * Loads the metadata unless it is fresh, called after sign-in. Freshness
+     * is checked on the disk executor, once the cache is restored.
+     */
+    void refreshIfStale() {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LeaderboardMetadataCache.this) {
+                    if (refreshing || isFresh()) {
+                        return;
+                    }
+                }
+                refresh(false, new Callback() {
+                    @Override
+                    public void onSuccess() {
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        Log.w(LOGTAG, "LeaderboardMetadataCache: " + message);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replaces the cached metadata with the metadata of every leaderboard.
+     */
+    void refresh(boolean forceReload, final Callback callback) {
+        if (!gameHelper.isSignedIn()) {
+            callback.onError("not yet signed in");
+            return;
+        }
+        synchronized (this) {
+            refreshing = true;
+        }
+        Games.Leaderboards.loadLeaderboardMetadata(gameHelper.getApiClient(), forceReload)
+                .setResultCallback(new ResultCallback<Leaderboards.LeaderboardMetadataResult>() {
+                    @Override
+                    public void onResult(Leaderboards.LeaderboardMetadataResult metadataResult) {
+                        try {
+                            if (!metadataResult.getStatus().isSuccess()) {
+                                synchronized (LeaderboardMetadataCache.this) {
+                                    refreshing = false;
+                                }
+                                callback.onError("error while loading leaderboards: " + metadataResult.getStatus().getStatusMessage());
+                                return;
+                            }
+                            synchronized (LeaderboardMetadataCache.this) {
+                                entries.clear();
+                                for (Leaderboard leaderboard : metadataResult.getLeaderboards()) {
+                                    Entry entry = new Entry();
+                                    entry.leaderboardId = leaderboard.getLeaderboardId();
+                                    entry.displayName = leaderboard.getDisplayName();
+                                    entry.iconImageUrl = leaderboard.getIconImageUrl();
+                                    entry.largerIsBetter = leaderboard.getScoreOrder() == Leaderboard.SCORE_ORDER_LARGER_IS_BETTER;
+                                    entries.put(entry.leaderboardId, entry);
+                                }
+                                refreshedAt = System.currentTimeMillis();
+                                refreshing = false;
+                            }
+                            persist();
+                            callback.onSuccess();
+                        } finally {
+                            metadataResult.release();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Reads the stored metadata on the disk executor, unless the metadata was
+     * loaded from the server by then.
+     */
+    private void restore() {
+        Map<String, Entry> stored = new TreeMap<String, Entry>();
+        long storedAt;
+        try {
+            byte[] data = PluginStorage.readFully(file);
+            if (data == null) {
+                return;
+            }
+            JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            storedAt = json.optLong("refreshedAt");
+            JSONArray leaderboards = json.optJSONArray("leaderboards");
+            for (int i = 0; leaderboards != null && i < leaderboards.length(); i++) {
+                Entry entry = Entry.fromJson(leaderboards.getJSONObject(i));
+                stored.put(entry.leaderboardId, entry);
+            }
+        } catch (Exception e) {
+            Log.w(LOGTAG, "LeaderboardMetadataCache: ignoring unreadable cache", e);
+            return;
+        }
+        synchronized (this) {
+            if (refreshedAt == 0) {
+                entries.putAll(stored);
+                refreshedAt = storedAt;
+            }
+        }
+    }
+
+    private void persist() {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] data;
+                    synchronized (LeaderboardMetadataCache.this) {
+                        data = toJson(null).toString().getBytes(StandardCharsets.UTF_8);
+                    }
+                    PluginStorage.writeAtomically(file, data);
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "LeaderboardMetadataCache: unable to persist cache", e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,465 @@
+package com.berriart.cordova.plugins;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.PageDirection;
+import com.google.android.gms.games.Player;
+import com.google.android.gms.games.leaderboard.Leaderboard;
+import com.google.android.gms.games.leaderboard.LeaderboardScore;
+import com.google.android.gms.games.leaderboard.LeaderboardScoreBuffer;
+import com.google.android.gms.games.leaderboard.LeaderboardVariant;
+import com.google.android.gms.games.leaderboard.Leaderboards;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads leaderboard scores page by page and hands every page over as JSON as
+ * soon as it arrives.
+ *
+ * Public scores are also handed to {@link LocalLeaderboards}.
+ *
+ * Pages are cached for {@link #DEFAULT_TTL} per leaderboard, time span,
+ * collection and page size, and the page after the last one handed over is
+ * prefetched, so scrolling through a leaderboard is answered from memory.
+ * Page tokens carry the view and the position. Top score pages are ranges of
+ * ranks, so a paging whose pages expired or were invalidated is loaded again
+ * up to its position and continues from there. Pages around the player are
+ * placed relative to the player's score, so a player-centered paging whose
+ * pages were dropped fails with {@link #TOKEN_EXPIRED} and is started again
+ * with a new load.
+ *
+ * A score buffer is released as soon as the next page is requested from it;
+ * only the buffer of the last page of every cached view is kept, for at most
+ * {@link #MAX_ENTRIES} views.
+ *
+ * Must be called on the UI thread.
+ */
+class LeaderboardScoreLoader {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final int MAX_RESULTS = 25;
+    static final int MAX_ENTRIES = 4;
+    static final long DEFAULT_TTL = 2 * 60 * 1000;
+    static final String TOKEN_EXPIRED = "page token expired, load the scores again";
+
+    interface Listener {
+        void onPage(JSONObject page) throws JSONException;
+
+        /**
+         * @param pageToken the token to load more pages with, or null when the
+         *                  leaderboard has no more scores
+         */
+        void onDone(String leaderboardId, String pageToken);
+
+        void onError(String message);
+    }
+
+    /**
+     * The cached pages of one view of a leaderboard and the buffer the pages
+     * around them are loaded from. Page 0 is the first page loaded, following
+     * pages have growing indexes and previous pages negative ones.
+     */
+    private static class Entry {
+        final int id;
+        final String key;
+        final String leaderboardId;
+        final int timeSpan;
+        final int collection;
+        final int maxResults;
+        final boolean playerCentered;
+        final boolean forceReload;
+        final Map<Integer, JSONArray> pages = new HashMap<Integer, JSONArray>();
+        final List<Runnable> waiting = new ArrayList<Runnable>();
+        Leaderboards.LoadScoresResult result;
+        int knownScores;
+        int nextIndex;
+        int previousIndex = -1;
+        boolean nextEnd;
+        boolean previousEnd;
+        boolean loading;
+        boolean largerIsBetter = true;
+        long loadedAt;
+        /** Changed when pages are invalidated, a load started before is dropped. */
+        int generation;
+
+        Entry(int id, String key, String leaderboardId, int timeSpan, int collection, int maxResults, boolean playerCentered, boolean forceReload) {
+            this.id = id;
+            this.key = key;
+            this.leaderboardId = leaderboardId;
+            this.timeSpan = timeSpan;
+            this.collection = collection;
+            this.maxResults = maxResults;
+            this.playerCentered = playerCentered;
+            this.forceReload = forceReload;
+        }
+    }
+
+    private final GameHelper gameHelper;
+    private final LocalLeaderboards localLeaderboards;
+    private final AvatarCache avatarCache;
+    /** Least recently used first. */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long ttl = DEFAULT_TTL;
+    private int nextEntryId;
+
+    LeaderboardScoreLoader(GameHelper gameHelper, LocalLeaderboards localLeaderboards, AvatarCache avatarCache) {
+        this.gameHelper = gameHelper;
+        this.localLeaderboards = localLeaderboards;
+        this.avatarCache = avatarCache;
+    }
+
+    void setTtl(long ttl) {
+        this.ttl = Math.max(0, ttl);
+    }
+
+    /**
+     * Loads the first pages of the top scores, or of the scores around the
+     * current player.
+     */
+    void load(String leaderboardId, int timeSpan, int collection, int maxResults, boolean playerCentered,
+              boolean forceReload, int pages, Listener listener) {
+        Entry entry = entry(leaderboardId, timeSpan, collection, Math.max(1, Math.min(MAX_RESULTS, maxResults)), playerCentered, forceReload);
+        deliver(entry, 0, PageDirection.NEXT, 0, 0, Math.max(1, pages), listener);
+    }
+
+    /**
+     * Continues a paging from its page token, towards lower ranks or, with
+     * previous, towards higher ranks.
+     */
+    void loadMore(String pageToken, boolean previous, int pages, Listener listener) {
+        JSONArray token;
+        try {
+            token = new JSONArray(pageToken);
+        } catch (JSONException e) {
+            listener.onError("invalid page token");
+            return;
+        }
+        Entry entry = entry(token.optString(0), token.optInt(1), token.optInt(2), token.optInt(3), token.optBoolean(4), false);
+        if (entry.playerCentered && entry.id != token.optInt(7, -1)) {
+            // The view was loaded again around the player's current score, the token's pages no longer exist
+            listener.onError(TOKEN_EXPIRED);
+            return;
+        }
+        int first = token.optInt(5);
+        int last = token.optInt(6);
+        if (previous) {
+            deliver(entry, first - 1, PageDirection.PREV, first, last, Math.max(1, pages), listener);
+        } else {
+            deliver(entry, last + 1, PageDirection.NEXT, first, last, Math.max(1, pages), listener);
+        }
+    }
+
+    /**
+     * Drops the cached pages a new best score of the player changes: the
+     * pages from the first one the score ranks in, and every page around the
+     * player.
+     */
+    void invalidate(String leaderboardId, int timeSpan, long newBest) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.leaderboardId.equals(leaderboardId) || entry.timeSpan != timeSpan) {
+                continue;
+            }
+            if (entry.playerCentered) {
+                iterator.remove();
+                release(entry);
+                continue;
+            }
+            int affected = firstAffectedPage(entry, newBest);
+            if (affected < entry.nextIndex) {
+                for (int index = affected; index < entry.nextIndex; index++) {
+                    entry.pages.remove(index);
+                }
+                // The buffer continues after pages that are no longer valid
+                release(entry);
+                entry.generation++;
+                entry.nextIndex = affected;
+                entry.nextEnd = false;
+            }
+        }
+    }
+
+    /**
+     * Releases every cached page and buffer, called on sign-out.
+     */
+    void releaseAll() {
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+    }
+
+    private Entry entry(String leaderboardId, int timeSpan, int collection, int maxResults, boolean playerCentered, boolean forceReload) {
+        String key = leaderboardId + "/" + timeSpan + "/" + collection + "/" + maxResults + "/" + playerCentered;
+        Entry entry = entries.get(key);
+        if (entry != null && (forceReload || (entry.loadedAt > 0 && SystemClock.elapsedRealtime() - entry.loadedAt > ttl))) {
+            entries.remove(key);
+            release(entry);
+            entry = null;
+        }
+        if (entry == null) {
+            entry = new Entry(nextEntryId++, key, leaderboardId, timeSpan, collection, maxResults, playerCentered, forceReload);
+            entries.put(key, entry);
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (entries.size() > MAX_ENTRIES) {
+                release(iterator.next());
+                iterator.remove();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Hands over the page at index, from the cache or once loaded, then the
+     * following pages in the same direction.
+     *
+     * @param first the lowest page index handed over by the paging so far
+     * @param last  the highest page index handed over by the paging so far
+     */
+    private void deliver(final Entry entry, final int index, final int direction, final int first, final int last,
+                         final int pages, final Listener listener) {
+        JSONArray page = entry.pages.get(index);
+        if (page == null) {
+            boolean ended = direction == PageDirection.NEXT
+                    ? entry.nextEnd && index >= entry.nextIndex
+                    : entry.previousEnd && index <= entry.previousIndex;
+            if (ended) {
+                listener.onDone(entry.leaderboardId, null);
+                return;
+            }
+            Runnable retry = new Runnable() {
+                @Override
+                public void run() {
+                    deliver(entry, index, direction, first, last, pages, listener);
+                }
+            };
+            if (entry.loading) {
+                entry.waiting.add(retry);
+            } else {
+                fetch(entry, direction, retry, listener);
+            }
+            return;
+        }
+
+        try {
+            JSONObject pageJson = new JSONObject();
+            pageJson.put("leaderboardId", entry.leaderboardId);
+            pageJson.put("pageIndex", index);
+            pageJson.put("scores", page);
+            pageJson.put("done", false);
+            listener.onPage(pageJson);
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "LeaderboardScoreLoader: unable to send scores", e);
+            listener.onError("error while reading scores");
+            return;
+        }
+
+        int newFirst = Math.min(first, index);
+        int newLast = Math.max(last, index);
+        int following = direction == PageDirection.NEXT ? index + 1 : index - 1;
+        boolean hasMore = direction == PageDirection.NEXT
+                ? !(entry.nextEnd && following >= entry.nextIndex)
+                : !(entry.previousEnd && following <= entry.previousIndex);
+        if (hasMore && pages > 1) {
+            deliver(entry, following, direction, newFirst, newLast, pages - 1, listener);
+        } else if (hasMore) {
+            listener.onDone(entry.leaderboardId, pageToken(entry, newFirst, newLast));
+            prefetch(entry, following, direction);
+        } else {
+            listener.onDone(entry.leaderboardId, null);
+        }
+    }
+
+    /**
+     * Loads the page the player will most likely ask for next while the
+     * current one is read.
+     */
+    private void prefetch(Entry entry, int index, int direction) {
+        int loadable = direction == PageDirection.NEXT ? entry.nextIndex : entry.previousIndex;
+        if (entry.loading || entry.result == null || index != loadable || entry.pages.containsKey(index)) {
+            return;
+        }
+        fetch(entry, direction, null, null);
+    }
+
+    /**
+     * Loads one more page into the entry: the first page when it has no
+     * buffer, otherwise the page after the buffer in the given direction.
+     *
+     * @param then     run once the page is cached, or null
+     * @param listener told about a failure, or null
+     */
+    private void fetch(final Entry entry, final int direction, final Runnable then, final Listener listener) {
+        entry.loading = true;
+        final boolean initial = entry.result == null;
+        final int generation = entry.generation;
+        ResultCallback<Leaderboards.LoadScoresResult> callback = new ResultCallback<Leaderboards.LoadScoresResult>() {
+            @Override
+            public void onResult(Leaderboards.LoadScoresResult scoresResult) {
+                entry.loading = false;
+                String error = null;
+                if (!scoresResult.getStatus().isSuccess()) {
+                    error = "error while loading scores: " + scoresResult.getStatus().getStatusMessage();
+                    scoresResult.release();
+                } else if (entry.generation != generation) {
+                    // Invalidated while loading, the retries load it again
+                    scoresResult.release();
+                } else {
+                    try {
+                        JSONArray page = cachePage(entry, scoresResult, initial, direction);
+                        if (entry.collection == LeaderboardVariant.COLLECTION_PUBLIC) {
+                            localLeaderboards.recordPage(entry.leaderboardId, entry.timeSpan, entry.largerIsBetter, page);
+                        }
+                    } catch (JSONException e) {
+                        Log.w(LOGTAG, "LeaderboardScoreLoader: unable to read scores", e);
+                        error = "error while reading scores";
+                        scoresResult.release();
+                    }
+                }
+                if (entries.get(entry.key) != entry) {
+                    // Dropped while loading, the pages are handed over but the buffer is not kept
+                    release(entry);
+                }
+
+                List<Runnable> waiting = new ArrayList<Runnable>(entry.waiting);
+                entry.waiting.clear();
+                if (error == null && then != null) {
+                    then.run();
+                } else if (error != null && listener != null) {
+                    listener.onError(error);
+                }
+                for (Runnable retry : waiting) {
+                    retry.run();
+                }
+            }
+        };
+
+        if (initial && entry.playerCentered) {
+            Games.Leaderboards.loadPlayerCenteredScores(gameHelper.getApiClient(), entry.leaderboardId, entry.timeSpan, entry.collection, entry.maxResults, entry.forceReload)
+                    .setResultCallback(callback);
+        } else if (initial) {
+            Games.Leaderboards.loadTopScores(gameHelper.getApiClient(), entry.leaderboardId, entry.timeSpan, entry.collection, entry.maxResults, entry.forceReload)
+                    .setResultCallback(callback);
+        } else {
+            Games.Leaderboards.loadMoreScores(gameHelper.getApiClient(), entry.result.getScores(), entry.maxResults, direction)
+                    .setResultCallback(callback);
+            // The buffer may be released once passed in, the next one holds these scores again
+            release(entry);
+        }
+    }
+
+    /**
+     * Stores the scores the result added to the buffer as a page and keeps
+     * the result as the buffer of the entry.
+     *
+     * @return the page
+     */
+    private JSONArray cachePage(Entry entry, Leaderboards.LoadScoresResult scoresResult, boolean initial, int direction) throws JSONException {
+        LeaderboardScoreBuffer scores = scoresResult.getScores();
+        int known = initial ? 0 : entry.knownScores;
+        int added = scores.getCount() - known;
+        int start = initial || direction == PageDirection.PREV ? 0 : known;
+        JSONArray page = new JSONArray();
+        for (int i = start; i < start + added; i++) {
+            page.put(scoreToJson(scores.get(i), avatarCache));
+        }
+
+        if (initial) {
+            Leaderboard leaderboard = scoresResult.getLeaderboard();
+            entry.largerIsBetter = leaderboard == null || leaderboard.getScoreOrder() == Leaderboard.SCORE_ORDER_LARGER_IS_BETTER;
+            entry.loadedAt = SystemClock.elapsedRealtime();
+            entry.pages.put(0, page);
+            entry.nextIndex = 1;
+            entry.previousIndex = -1;
+            entry.nextEnd = added < 1 || (!entry.playerCentered && added < entry.maxResults);
+            entry.previousEnd = !entry.playerCentered;
+        } else if (direction == PageDirection.NEXT) {
+            if (added > 0) {
+                entry.pages.put(entry.nextIndex++, page);
+            }
+            entry.nextEnd = added < 1 || (!entry.playerCentered && added < entry.maxResults);
+        } else {
+            if (added > 0) {
+                entry.pages.put(entry.previousIndex--, page);
+            }
+            entry.previousEnd = added < 1;
+        }
+
+        entry.result = scoresResult;
+        entry.knownScores = scores.getCount();
+        return page;
+    }
+
+    /**
+     * Returns the index of the first page the score ranks in, or the index
+     * after the loaded pages.
+     */
+    private static int firstAffectedPage(Entry entry, long newBest) {
+        for (int index = 0; index < entry.nextIndex; index++) {
+            JSONArray page = entry.pages.get(index);
+            if (page == null || page.length() == 0) {
+                return index;
+            }
+            long worst = page.optJSONObject(page.length() - 1).optLong("score");
+            if (entry.largerIsBetter ? newBest >= worst : newBest <= worst) {
+                return index;
+            }
+        }
+        return entry.nextIndex;
+    }
+
+    private static String pageToken(Entry entry, int first, int last) {
+        JSONArray token = new JSONArray();
+        token.put(entry.leaderboardId);
+        token.put(entry.timeSpan);
+        token.put(entry.collection);
+        token.put(entry.maxResults);
+        token.put(entry.playerCentered);
+        token.put(first);
+        token.put(last);
+        token.put(entry.id);
+        return token.toString();
+    }
+
+    private static void release(Entry entry) {
+        if (entry.result != null) {
+            entry.result.release();
+            entry.result = null;
+        }
+    }
+
+    /**
+     * @param avatarCache answers the local URI of the player's avatar, null
+     *                    until downloaded
+     */
+    static JSONObject scoreToJson(LeaderboardScore score, AvatarCache avatarCache) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("rank", score.getRank());
+        json.put("displayRank", score.getDisplayRank());
+        json.put("score", score.getRawScore());
+        json.put("displayScore", score.getDisplayScore());
+        json.put("scoreTag", score.getScoreTag() == null ? JSONObject.NULL : score.getScoreTag());
+        json.put("timestamp", score.getTimestampMillis());
+        Player player = score.getScoreHolder();
+        json.put("playerId", player == null ? JSONObject.NULL : player.getPlayerId());
+        json.put("playerDisplayName", score.getScoreHolderDisplayName());
+        json.put("playerIconImageUrl", score.getScoreHolderIconImageUrl() == null ? JSONObject.NULL : score.getScoreHolderIconImageUrl());
+        String iconImageUri = avatarCache.localUri(score.getScoreHolderIconImageUrl());
+        json.put("playerIconImageUri", iconImageUri == null ? JSONObject.NULL : iconImageUri);
+        return json;
+    }
+}
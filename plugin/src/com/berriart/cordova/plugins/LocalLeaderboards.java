@@ -0,0 +1,434 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.games.leaderboard.LeaderboardVariant;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Device-side copy of the leaderboards: the scores submitted on this device
+ * and the scores of the last pages loaded, kept sorted per daily, weekly and
+ * all-time window. It answers the rank a score would have and the scores to
+ * show while offline or before a network load finishes.
+ *
+ * Ranks of loaded scores are the remote ones; a score ranked between loaded
+ * scores gets the rank after the closest better one, otherwise its rank is
+ * counted among the scores known on the device and marked as estimated.
+ *
+ * The boards are read and written by a disk executor, never by the caller:
+ * they are restored in the background once created, and answers given before
+ * that only count the scores known in memory.
+ */
+class LocalLeaderboards {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final String AREA = "leaderboards";
+    static final int MAX_SCORES = 2000;
+    private static final String FILE_EXTENSION = ".json";
+    private static final String LOCAL_PLAYER = "";
+    /** Daily and weekly leaderboards reset at midnight Pacific time. */
+    private static final TimeZone RESET_TIME_ZONE = TimeZone.getTimeZone("America/Los_Angeles");
+    private static final int[] TIME_SPANS = {LeaderboardVariant.TIME_SPAN_DAILY, LeaderboardVariant.TIME_SPAN_WEEKLY, LeaderboardVariant.TIME_SPAN_ALL_TIME};
+
+    static class Score {
+        final String playerId;
+        final String displayName;
+        final long score;
+        final long timestamp;
+        /** The remote rank, or 0 for a score submitted on the device. */
+        final long remoteRank;
+
+        Score(String playerId, String displayName, long score, long timestamp, long remoteRank) {
+            this.playerId = playerId;
+            this.displayName = displayName;
+            this.score = score;
+            this.timestamp = timestamp;
+            this.remoteRank = remoteRank;
+        }
+    }
+
+    /** The best score of every known player within one time span. */
+    private static class Window {
+        final RankingSkipList<Score> ranking;
+        final Map<String, Score> byPlayer = new HashMap<String, Score>();
+        long startsAt;
+
+        Window(Comparator<Score> order) {
+            this.ranking = new RankingSkipList<Score>(order);
+        }
+    }
+
+    private static class Board {
+        final boolean largerIsBetter;
+        final Window[] windows = new Window[TIME_SPANS.length];
+
+        Board(boolean largerIsBetter) {
+            this.largerIsBetter = largerIsBetter;
+            for (int i = 0; i < windows.length; i++) {
+                windows[i] = new Window(order(largerIsBetter));
+            }
+        }
+    }
+
+    private final File directory;
+    private final LeaderboardMetadataCache metadataCache;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, Board> boards = new HashMap<String, Board>();
+    /** Boards changed since their last write was queued. */
+    private final Set<String> dirty = new HashSet<String>();
+
+    LocalLeaderboards(Context context, LeaderboardMetadataCache metadataCache) {
+        this.directory = PluginStorage.getDirectory(context, AREA);
+        this.metadataCache = metadataCache;
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                restoreAll();
+            }
+        });
+    }
+
+    /**
+     * Records a score submitted on this device in every time span.
+     *
+     * @param playerId the current player, or null when unknown
+     */
+    synchronized void recordSubmission(String leaderboardId, String playerId, long score) {
+        Board board = board(leaderboardId, null);
+        long now = System.currentTimeMillis();
+        for (int timeSpan : TIME_SPANS) {
+            record(window(board, timeSpan), new Score(playerId == null ? LOCAL_PLAYER : playerId, null, score, now, 0), board.largerIsBetter);
+        }
+        store(leaderboardId);
+    }
+
+    /**
+     * Records a page of public scores loaded from the leaderboard.
+     *
+     * @param scores scores as sent to JS by {@link LeaderboardScoreLoader#scoreToJson}
+     */
+    synchronized void recordPage(String leaderboardId, int timeSpan, boolean largerIsBetter, JSONArray scores) {
+        Board board = board(leaderboardId, largerIsBetter);
+        Window window = window(board, timeSpan);
+        for (int i = 0; i < scores.length(); i++) {
+            JSONObject score = scores.optJSONObject(i);
+            if (score == null || score.isNull("playerId")) {
+                continue;
+            }
+            record(window, new Score(score.optString("playerId"), score.optString("playerDisplayName", null),
+                    score.optLong("score"), score.optLong("timestamp"), score.optLong("rank")), board.largerIsBetter);
+        }
+        store(leaderboardId);
+    }
+
+    /**
+     * Returns the rank the score would have, the current player's own known
+     * score aside.
+     */
+    synchronized JSONObject rankToJson(String leaderboardId, int timeSpan, String playerId, long score) throws JSONException {
+        Board board = board(leaderboardId, null);
+        Window window = window(board, timeSpan);
+        Score own = window.byPlayer.get(playerId == null ? LOCAL_PLAYER : playerId);
+        Score probe = new Score(playerId == null ? LOCAL_PLAYER : playerId, null, score, System.currentTimeMillis(), 0);
+
+        int better = window.ranking.countBefore(probe);
+        int ownIndex = own == null ? -1 : window.ranking.countBefore(own);
+        if (own != null && ownIndex < better) {
+            better--;
+        }
+        Score closest = null;
+        if (better > 0) {
+            int index = better - 1;
+            closest = window.ranking.get(own != null && ownIndex <= index ? index + 1 : index);
+        }
+
+        JSONObject result = new JSONObject();
+        if (closest != null && closest.remoteRank > 0) {
+            result.put("rank", closest.remoteRank + 1);
+            result.put("estimated", false);
+        } else {
+            result.put("rank", better + 1);
+            result.put("estimated", better > 0 || !knowsTopScore(window));
+        }
+        result.put("knownScores", window.ranking.size());
+        return result;
+    }
+
+    /**
+     * Returns the best known scores in rank order.
+     */
+    synchronized JSONObject scoresToJson(String leaderboardId, int timeSpan, int maxResults) throws JSONException {
+        Board board = board(leaderboardId, null);
+        Window window = window(board, timeSpan);
+        JSONArray scores = new JSONArray();
+        long previousRank = 0;
+        for (Score score : window.ranking.first(maxResults)) {
+            long rank = score.remoteRank > 0 ? score.remoteRank : previousRank + 1;
+            JSONObject json = new JSONObject();
+            json.put("rank", rank);
+            json.put("estimated", score.remoteRank <= 0);
+            json.put("score", score.score);
+            json.put("timestamp", score.timestamp);
+            json.put("playerId", LOCAL_PLAYER.equals(score.playerId) ? JSONObject.NULL : score.playerId);
+            json.put("playerDisplayName", score.displayName == null ? JSONObject.NULL : score.displayName);
+            scores.put(json);
+            previousRank = rank;
+        }
+        JSONObject result = new JSONObject();
+        result.put("leaderboardId", leaderboardId);
+        result.put("scores", scores);
+        return result;
+    }
+
+    /**
+     * Keeps the better of the known score of the player and the new one, a
+     * remote score winning a tie as it carries the rank.
+     */
+    private static void record(Window window, Score score, boolean largerIsBetter) {
+        if (score.timestamp < window.startsAt && score.remoteRank <= 0) {
+            return;
+        }
+        Score known = window.byPlayer.get(score.playerId);
+        if (known != null) {
+            int compared = largerIsBetter ? Long.compare(score.score, known.score) : Long.compare(known.score, score.score);
+            if (compared < 0 || (compared == 0 && score.remoteRank <= 0)) {
+                return;
+            }
+            window.ranking.remove(known);
+        }
+        window.byPlayer.put(score.playerId, score);
+        window.ranking.add(score);
+        if (window.ranking.size() > MAX_SCORES) {
+            Score worst = window.ranking.get(window.ranking.size() - 1);
+            window.ranking.remove(worst);
+            window.byPlayer.remove(worst.playerId);
+        }
+    }
+
+    private static boolean knowsTopScore(Window window) {
+        Score top = window.ranking.get(0);
+        return top != null && top.remoteRank == 1;
+    }
+
+    /**
+     * Returns the window of the time span, emptied when its period is over.
+     */
+    private static Window window(Board board, int timeSpan) {
+        int index = timeSpan == LeaderboardVariant.TIME_SPAN_DAILY ? 0 : (timeSpan == LeaderboardVariant.TIME_SPAN_WEEKLY ? 1 : 2);
+        Window window = board.windows[index];
+        long startsAt = periodStart(timeSpan, System.currentTimeMillis());
+        if (startsAt != window.startsAt) {
+            window.ranking.clear();
+            window.byPlayer.clear();
+            window.startsAt = startsAt;
+        }
+        return window;
+    }
+
+    static long periodStart(int timeSpan, long now) {
+        if (timeSpan == LeaderboardVariant.TIME_SPAN_ALL_TIME) {
+            return 0;
+        }
+        Calendar calendar = Calendar.getInstance(RESET_TIME_ZONE);
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (timeSpan == LeaderboardVariant.TIME_SPAN_WEEKLY) {
+            calendar.add(Calendar.DAY_OF_MONTH, Calendar.SUNDAY - calendar.get(Calendar.DAY_OF_WEEK));
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    private static Comparator<Score> order(final boolean largerIsBetter) {
+        return new Comparator<Score>() {
+            @Override
+            public int compare(Score a, Score b) {
+                int compared = largerIsBetter ? Long.compare(b.score, a.score) : Long.compare(a.score, b.score);
+                if (compared == 0) {
+                    // The score reached first ranks first
+                    compared = Long.compare(a.timestamp, b.timestamp);
+                }
+                return compared != 0 ? compared : a.playerId.compareTo(b.playerId);
+            }
+        };
+    }
+
+    /**
+     * Returns the board, rebuilt when a load tells that its scores are ordered
+     * the other way.
+     *
+     * @param largerIsBetter the order reported by a load, or null to take it
+     *                       from the leaderboard metadata
+     */
+    private Board board(String leaderboardId, Boolean largerIsBetter) {
+        if (largerIsBetter == null) {
+            largerIsBetter = metadataCache.largerIsBetter(leaderboardId);
+        }
+        Board board = boards.get(leaderboardId);
+        if (board == null || (largerIsBetter != null && board.largerIsBetter != largerIsBetter)) {
+            board = new Board(largerIsBetter == null || largerIsBetter);
+            boards.put(leaderboardId, board);
+        }
+        return board;
+    }
+
+    /**
+     * Reads the stored boards on the disk executor. A board already used in
+     * memory keeps its scores and gets the stored ones of the same periods.
+     */
+    private void restoreAll() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String leaderboardId = PluginStorage.keyFor(file.getName(), FILE_EXTENSION);
+            if (leaderboardId == null) {
+                continue;
+            }
+            Board restored = restore(leaderboardId, file);
+            if (restored == null) {
+                continue;
+            }
+            synchronized (this) {
+                Board board = boards.get(leaderboardId);
+                if (board == null) {
+                    boards.put(leaderboardId, restored);
+                    continue;
+                }
+                if (board.largerIsBetter != restored.largerIsBetter) {
+                    continue;
+                }
+                for (int i = 0; i < TIME_SPANS.length; i++) {
+                    Window window = window(board, TIME_SPANS[i]);
+                    if (restored.windows[i].startsAt != window.startsAt) {
+                        continue;
+                    }
+                    for (Score score : restored.windows[i].byPlayer.values()) {
+                        record(window, score, board.largerIsBetter);
+                    }
+                }
+                store(leaderboardId);
+            }
+        }
+    }
+
+    private static Board restore(String leaderboardId, File file) {
+        try {
+            byte[] data = PluginStorage.readFully(file);
+            if (data == null) {
+                return null;
+            }
+            JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            Board board = new Board(json.getBoolean("largerIsBetter"));
+            JSONArray windows = json.getJSONArray("windows");
+            for (int i = 0; i < board.windows.length && i < windows.length(); i++) {
+                JSONObject windowJson = windows.getJSONObject(i);
+                Window window = board.windows[i];
+                window.startsAt = windowJson.getLong("startsAt");
+                JSONArray scores = windowJson.getJSONArray("scores");
+                for (int j = 0; j < scores.length(); j++) {
+                    JSONObject score = scores.getJSONObject(j);
+                    Score restored = new Score(score.getString("playerId"), score.optString("displayName", null),
+                            score.getLong("score"), score.getLong("timestamp"), score.getLong("remoteRank"));
+                    window.byPlayer.put(restored.playerId, restored);
+                    window.ranking.add(restored);
+                }
+            }
+            return board;
+        } catch (IOException e) {
+            Log.w(LOGTAG, "LocalLeaderboards: unable to read " + leaderboardId, e);
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "LocalLeaderboards: ignoring invalid copy of " + leaderboardId, e);
+        }
+        return null;
+    }
+
+    /**
+     * Queues the board to be written by the disk executor, once for a burst
+     * of changes.
+     */
+    private void store(final String leaderboardId) {
+        if (!dirty.add(leaderboardId)) {
+            return;
+        }
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(leaderboardId);
+            }
+        });
+    }
+
+    private void write(String leaderboardId) {
+        // Scores are immutable, the lock is only held to copy the references
+        boolean largerIsBetter;
+        long[] startsAt = new long[TIME_SPANS.length];
+        List<List<Score>> scoresByWindow = new ArrayList<List<Score>>(TIME_SPANS.length);
+        synchronized (this) {
+            dirty.remove(leaderboardId);
+            Board board = boards.get(leaderboardId);
+            if (board == null) {
+                return;
+            }
+            largerIsBetter = board.largerIsBetter;
+            for (int i = 0; i < board.windows.length; i++) {
+                startsAt[i] = board.windows[i].startsAt;
+                scoresByWindow.add(new ArrayList<Score>(board.windows[i].byPlayer.values()));
+            }
+        }
+        try {
+            JSONArray windows = new JSONArray();
+            for (int i = 0; i < startsAt.length; i++) {
+                JSONArray scores = new JSONArray();
+                for (Score score : scoresByWindow.get(i)) {
+                    JSONObject json = new JSONObject();
+                    json.put("playerId", score.playerId);
+                    json.put("displayName", score.displayName == null ? JSONObject.NULL : score.displayName);
+                    json.put("score", score.score);
+                    json.put("timestamp", score.timestamp);
+                    json.put("remoteRank", score.remoteRank);
+                    scores.put(json);
+                }
+                JSONObject windowJson = new JSONObject();
+                windowJson.put("startsAt", startsAt[i]);
+                windowJson.put("scores", scores);
+                windows.put(windowJson);
+            }
+            JSONObject json = new JSONObject();
+            json.put("largerIsBetter", largerIsBetter);
+            json.put("windows", windows);
+            PluginStorage.writeAtomically(fileFor(leaderboardId), json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "LocalLeaderboards: unable to store " + leaderboardId, e);
+        } catch (IOException e) {
+            Log.w(LOGTAG, "LocalLeaderboards: unable to store " + leaderboardId, e);
+        }
+    }
+
+    private File fileFor(String leaderboardId) {
+        return new File(directory, PluginStorage.fileNameFor(leaderboardId, FILE_EXTENSION));
+    }
+}
@@ -0,0 +1,437 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * On-disk copy of the last known data of every save, written whenever a save
+ * is loaded or committed. The save times are kept in memory so the sync
+ * scheduler can tell which copies are stale without reading them.
+ *
+ * The cache holds at most maxBytes of save data. The least recently used
+ * copies are evicted first, except pinned saves which are never evicted. The
+ * order of use survives restarts through the modification time of the files.
+ *
+ * Copies are kept per player and deleted when the player signs out.
+ */
+class LocalSnapshotCache {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final String AREA = "cache";
+    static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+    private static final String FILE_EXTENSION = ".sav";
+    private static final int FORMAT_MAGIC = 0x50475343; // "PGSC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 4;
+
+    private static class Entry {
+        final long saveTime;
+        final long sizeBytes;
+
+        Entry(long saveTime, long sizeBytes) {
+            this.saveTime = saveTime;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    private final Context context;
+    private String playerId;
+    private File directory;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    /** Least recently used first. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    private final Set<String> pinned = new HashSet<String>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long totalBytes;
+    private boolean restored;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long evictedBytes;
+
+    LocalSnapshotCache(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Switches to the copies of the player, called once signed in.
+     */
+    synchronized void setPlayer(String playerId) {
+        if (playerId.equals(this.playerId)) {
+            return;
+        }
+        this.playerId = playerId;
+        directory = PluginStorage.getPlayerDirectory(context, AREA, playerId);
+        reset();
+    }
+
+    /**
+     * Selects the copies of the player signed in last unless a player signed
+     * in since, so cached loads work before the connection completes.
+     */
+    synchronized void restorePlayer(String playerId) {
+        if (this.playerId == null) {
+            setPlayer(playerId);
+        }
+    }
+
+    /**
+     * Deletes the copies of the player signing out.
+     */
+    void clear() {
+        final File cleared;
+        synchronized (this) {
+            cleared = directory;
+            playerId = null;
+            directory = null;
+            reset();
+        }
+        if (cleared == null) {
+            return;
+        }
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = cleared.listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    if (!file.delete()) {
+                        Log.w(LOGTAG, "LocalSnapshotCache: unable to delete " + file);
+                    }
+                }
+            }
+        });
+    }
+
+    private void reset() {
+        entries.clear();
+        totalBytes = 0;
+        restored = false;
+    }
+
+    /**
+     * Sets the byte budget and the saves that are never evicted.
+     */
+    void configure(long maxBytes, Collection<String> pinned) {
+        synchronized (this) {
+            this.maxBytes = Math.max(0, maxBytes);
+            this.pinned.clear();
+            this.pinned.addAll(pinned);
+        }
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                evict();
+            }
+        });
+    }
+
+    /**
+     * Stores a copy of the save unless a newer one is already cached.
+     */
+    void put(final String saveName, final byte[] data, final long saveTime) {
+        final File directory;
+        synchronized (this) {
+            directory = this.directory;
+            if (directory == null) {
+                return;
+            }
+        }
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LocalSnapshotCache.this) {
+                    if (LocalSnapshotCache.this.directory != directory) {
+                        // Another player signed in meanwhile
+                        return;
+                    }
+                    restore();
+                    Entry cached = entries.get(saveName);
+                    if (cached != null && cached.saveTime > saveTime) {
+                        return;
+                    }
+                    replace(saveName, new Entry(saveTime, data.length));
+                }
+                try {
+                    PluginStorage.writeAtomically(fileFor(directory, saveName), encode(data, saveTime));
+                } catch (IOException e) {
+                    Log.w(LOGTAG, "LocalSnapshotCache: unable to cache " + saveName, e);
+                    synchronized (LocalSnapshotCache.this) {
+                        if (LocalSnapshotCache.this.directory == directory) {
+                            replace(saveName, null);
+                        }
+                    }
+                    return;
+                }
+                evict();
+            }
+        });
+    }
+
+    /**
+     * Answers a load from the cache when the cached copy is at least as recent
+     * as minSaveTime, counting a hit or a miss. Must not be called on the UI
+     * thread.
+     *
+     * @return the cached save or null on a miss
+     */
+    SnapshotLoader.LoadedSave lookup(String saveName, long minSaveTime) {
+        synchronized (this) {
+            restore();
+            Entry entry = entries.get(saveName);
+            if (entry == null || minSaveTime < 0 || entry.saveTime < minSaveTime) {
+                misses++;
+                return null;
+            }
+            // Most recently used
+            entries.remove(saveName);
+            entries.put(saveName, entry);
+        }
+        SnapshotLoader.LoadedSave save = get(saveName);
+        synchronized (this) {
+            if (save == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        if (save != null) {
+            touch(saveName);
+        }
+        return save;
+    }
+
+    /**
+     * Reads the cached copy, must not be called on the UI thread.
+     *
+     * @return the cached save or null if there is none
+     */
+    SnapshotLoader.LoadedSave get(String saveName) {
+        File cached;
+        synchronized (this) {
+            if (directory == null) {
+                return null;
+            }
+            cached = fileFor(directory, saveName);
+        }
+        try {
+            byte[] file = PluginStorage.readFully(cached);
+            if (file == null) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(file));
+            if (in.readInt() != FORMAT_MAGIC || in.readUnsignedByte() != FORMAT_VERSION) {
+                throw new IOException("Unknown cache format");
+            }
+            long saveTime = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new SnapshotLoader.LoadedSave(saveName, data, saveTime);
+        } catch (IOException e) {
+            Log.w(LOGTAG, "LocalSnapshotCache: ignoring unreadable copy of " + saveName, e);
+            return null;
+        }
+    }
+
+    void remove(final String saveName) {
+        final File directory;
+        synchronized (this) {
+            directory = this.directory;
+            if (directory == null) {
+                return;
+            }
+            replace(saveName, null);
+        }
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LocalSnapshotCache.this) {
+                    if (LocalSnapshotCache.this.directory == directory && entries.containsKey(saveName)) {
+                        // Cached again since
+                        return;
+                    }
+                }
+                fileFor(directory, saveName).delete();
+            }
+        });
+    }
+
+    /**
+     * Returns the save time of the cached copy, or -1.
+     */
+    synchronized long saveTimeOf(String saveName) {
+        restore();
+        Entry entry = entries.get(saveName);
+        return entry == null ? -1 : entry.saveTime;
+    }
+
+    synchronized List<String> names() {
+        restore();
+        return new ArrayList<String>(entries.keySet());
+    }
+
+    synchronized JSONObject statsToJson() throws JSONException {
+        restore();
+        long lookups = hits + misses;
+        JSONObject stats = new JSONObject();
+        stats.put("entries", entries.size());
+        stats.put("bytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("pinned", new JSONArray(pinned));
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", lookups == 0 ? 0 : (double) hits / lookups);
+        stats.put("evictions", evictions);
+        stats.put("evictedBytes", evictedBytes);
+        return stats;
+    }
+
+    /**
+     * Drops the least recently used copies that are not pinned until the cache
+     * fits in its budget. Runs on the disk thread.
+     */
+    private void evict() {
+        List<String> evicted = new ArrayList<String>();
+        File directory;
+        synchronized (this) {
+            directory = this.directory;
+            if (directory == null) {
+                return;
+            }
+            restore();
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (pinned.contains(entry.getKey())) {
+                    continue;
+                }
+                iterator.remove();
+                totalBytes -= entry.getValue().sizeBytes;
+                evictions++;
+                evictedBytes += entry.getValue().sizeBytes;
+                evicted.add(entry.getKey());
+            }
+        }
+        for (String saveName : evicted) {
+            fileFor(directory, saveName).delete();
+        }
+    }
+
+    /**
+     * Records the use in the file modification time so the order survives a
+     * restart.
+     */
+    private void touch(final String saveName) {
+        final File directory;
+        synchronized (this) {
+            directory = this.directory;
+            if (directory == null) {
+                return;
+            }
+        }
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                fileFor(directory, saveName).setLastModified(System.currentTimeMillis());
+            }
+        });
+    }
+
+    private void replace(String saveName, Entry entry) {
+        Entry previous = entries.remove(saveName);
+        if (previous != null) {
+            totalBytes -= previous.sizeBytes;
+        }
+        if (entry != null) {
+            entries.put(saveName, entry);
+            totalBytes += entry.sizeBytes;
+        }
+    }
+
+    private void restore() {
+        if (restored || directory == null) {
+            return;
+        }
+        restored = true;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return a.lastModified() == b.lastModified() ? 0 : (a.lastModified() < b.lastModified() ? -1 : 1);
+            }
+        });
+        for (File file : files) {
+            String fileName = file.getName();
+            if (!fileName.endsWith(FILE_EXTENSION)) {
+                continue;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new FileInputStream(file));
+                if (in.readInt() != FORMAT_MAGIC || in.readUnsignedByte() != FORMAT_VERSION) {
+                    continue;
+                }
+                String saveName = URLDecoder.decode(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()), "UTF-8");
+                replace(saveName, new Entry(in.readLong(), Math.max(0, file.length() - HEADER_SIZE)));
+            } catch (IOException e) {
+                Log.w(LOGTAG, "LocalSnapshotCache: ignoring " + fileName, e);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // Nothing to do
+                    }
+                }
+            }
+        }
+    }
+
+    private static File fileFor(File directory, String saveName) {
+        return new File(directory, PluginStorage.fileNameFor(saveName, FILE_EXTENSION));
+    }
+
+    private static byte[] encode(byte[] data, long saveTime) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + HEADER_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FORMAT_MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(saveTime);
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
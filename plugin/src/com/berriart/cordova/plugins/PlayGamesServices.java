@@ -20,8 +20,11 @@
 package com.berriart.cordova.plugins;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.berriart.cordova.plugins.GameHelper.GameHelperListener;
@@ -33,6 +36,7 @@ import com.google.android.gms.games.Games;
 import com.google.android.gms.games.GamesActivityResultCodes;
 import com.google.android.gms.games.GamesStatusCodes;
 import com.google.android.gms.games.Player;
+import com.google.android.gms.games.achievement.Achievement;
 import com.google.android.gms.games.achievement.Achievements;
 import com.google.android.gms.games.leaderboard.LeaderboardScore;
 import com.google.android.gms.games.leaderboard.LeaderboardVariant;
@@ -40,6 +44,7 @@ import com.google.android.gms.games.leaderboard.Leaderboards;
 import com.google.android.gms.games.leaderboard.ScoreSubmissionData;
 import com.google.android.gms.games.snapshot.Snapshot;
 import com.google.android.gms.games.snapshot.SnapshotContents;
+import com.google.android.gms.games.snapshot.SnapshotMetadata;
 import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
 import com.google.android.gms.games.snapshot.Snapshots;
 
@@ -47,15 +52,27 @@ import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PlayGamesServices extends CordovaPlugin implements GameHelperListener {
 
     private static final String LOGTAG = "CordovaPlayGamesService";
+    private static final long STOP_TIMEOUT = 5000;
 
     private static final String ACTION_AUTH = "auth";
     private static final String ACTION_SIGN_OUT = "signOut";
@@ -66,29 +83,107 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
     private static final String ACTION_GET_PLAYER_SCORE = "getPlayerScore";
     private static final String ACTION_SHOW_ALL_LEADERBOARDS = "showAllLeaderboards";
     private static final String ACTION_SHOW_LEADERBOARD = "showLeaderboard";
+    private static final String ACTION_LOAD_TOP_SCORES = "loadTopScores";
+    private static final String ACTION_LOAD_PLAYER_CENTERED_SCORES = "loadPlayerCenteredScores";
+    private static final String ACTION_LOAD_MORE_SCORES = "loadMoreScores";
+    private static final String ACTION_GET_LOCAL_RANK = "getLocalRank";
+    private static final String ACTION_LOAD_LOCAL_SCORES = "loadLocalScores";
+    private static final String ACTION_LOAD_LEADERBOARD_METADATA = "loadLeaderboardMetadata";
+    private static final String ACTION_GET_SCORE_SUBMISSION_STATS = "getScoreSubmissionStats";
 
     private static final String ACTION_UNLOCK_ACHIEVEMENT = "unlockAchievement";
     private static final String ACTION_UNLOCK_ACHIEVEMENT_NOW = "unlockAchievementNow";
     private static final String ACTION_INCREMENT_ACHIEVEMENT = "incrementAchievement";
     private static final String ACTION_INCREMENT_ACHIEVEMENT_NOW = "incrementAchievementNow";
     private static final String ACTION_SHOW_ACHIEVEMENTS = "showAchievements";
+    private static final String ACTION_LOAD_ACHIEVEMENTS = "loadAchievements";
+    private static final String ACTION_WATCH_ACHIEVEMENTS = "watchAchievements";
+    private static final String ACTION_UNWATCH_ACHIEVEMENTS = "unwatchAchievements";
     private static final String ACTION_SHOW_PLAYER = "showPlayer";
+    private static final String ACTION_INCREMENT_EVENT = "incrementEvent";
+    private static final String ACTION_GET_AVATAR_CACHE_STATS = "getAvatarCacheStats";
 
     private static final String ACTION_SAVE_GAME = "saveGame";
     private static final String ACTION_LOAD_GAME = "loadGame";
+    private static final String ACTION_LOAD_GAME_CHUNKED = "loadGameChunked";
+    private static final String ACTION_LOAD_GAMES = "loadGames";
     private static final String ACTION_DELETE_SAVE_GAME = "deleteSaveGame";
+    private static final String ACTION_LIST_SAVES = "listSaves";
+    private static final String ACTION_SET_PREFETCH_SAVES = "setPrefetchSaves";
+    private static final String ACTION_GET_PREFETCH_STATS = "getPrefetchStats";
+    private static final String ACTION_SET_SAVE_CACHE_OPTIONS = "setSaveCacheOptions";
+    private static final String ACTION_GET_SAVE_CACHE_STATS = "getSaveCacheStats";
+    private static final String ACTION_SET_CONFLICT_RESOLUTION = "setConflictResolution";
+    private static final String ACTION_RESOLVE_CONFLICT = "resolveConflict";
+    private static final String ACTION_GET_CONFLICT_STATS = "getConflictStats";
+    private static final String ACTION_BEGIN_SAVE_SESSION = "beginSaveSession";
+    private static final String ACTION_WRITE_SAVE_SESSION = "writeSaveSession";
+    private static final String ACTION_COMMIT_SAVE_SESSION = "commitSaveSession";
+    private static final String ACTION_CLOSE_SAVE_SESSION = "closeSaveSession";
+    private static final String ACTION_GET_SAVE_JOURNAL = "getSaveJournal";
+    private static final String ACTION_SET_SYNC_OPTIONS = "setSyncOptions";
+    private static final String ACTION_SYNC_NOW = "syncNow";
+    private static final String ACTION_GET_SYNC_STATUS = "getSyncStatus";
+    private static final String ACTION_SAVE_GAME_SHARDED = "saveGameSharded";
+    private static final String ACTION_LOAD_GAME_SHARDED = "loadGameSharded";
+
+    private static final String ACTION_PUT_SAVE_VALUE = "putSaveValue";
+    private static final String ACTION_GET_SAVE_VALUE = "getSaveValue";
+    private static final String ACTION_DELETE_SAVE_VALUE = "deleteSaveValue";
+    private static final String ACTION_FLUSH_SAVE_VALUES = "flushSaveValues";
+
+    private static final String PREFERENCES_NAME = "PlayGamesServices";
+    private static final String PREFERENCE_PREFETCH_SAVES = "PlayGamesPrefetchSaves";
+    private static final String PREFS_KEY_PREFETCH = "prefetchSaves";
+    private static final String PREFERENCE_SAVE_CACHE_BYTES = "PlayGamesSaveCacheBytes";
+    private static final String PREFS_KEY_SAVE_CACHE = "saveCache";
+    private static final String PREFERENCE_CONFLICT_STRATEGY = "PlayGamesConflictStrategy";
+    private static final String PREFERENCE_JOURNAL_SAVES = "PlayGamesJournalSaves";
+    private static final String PREFERENCE_SYNC_ENABLED = "PlayGamesSyncEnabled";
+    private static final String PREFERENCE_CHECKSUM_SAVES = "PlayGamesChecksumSaves";
+    private static final String PREFERENCE_SYNC_INTERVAL = "PlayGamesSyncInterval";
+    private static final String PREFERENCE_LEADERBOARD_CACHE_TTL = "PlayGamesLeaderboardCacheTtl";
+    private static final String PREFERENCE_LEADERBOARD_METADATA_MAX_AGE = "PlayGamesLeaderboardMetadataMaxAge";
+    private static final String PREFERENCE_ACHIEVEMENTS_MAX_AGE = "PlayGamesAchievementsMaxAge";
+    private static final String PREFERENCE_EVENT_FLUSH_INTERVAL = "PlayGamesEventFlushInterval";
+    private static final String PREFERENCE_AVATAR_CACHE_BYTES = "PlayGamesAvatarCacheBytes";
 
     private static final int ACTIVITY_CODE_SHOW_LEADERBOARD = 0;
     private static final int ACTIVITY_CODE_SHOW_ACHIEVEMENTS = 1;
 
-    private static final int LOAD_GAME_ERROR_FAILED = 0;
-    private static final int LOAD_GAME_ERROR_NOT_EXIST = 1;
-    private static final int LOAD_GAME_ERROR_NOT_SIGNED = 2;
+    static final int LOAD_GAME_ERROR_FAILED = 0;
+    static final int LOAD_GAME_ERROR_NOT_EXIST = 1;
+    static final int LOAD_GAME_ERROR_NOT_SIGNED = 2;
+    static final int LOAD_GAME_ERROR_CORRUPTED = 3;
 
     private GameHelper gameHelper;
+    private KeyValueSaveStore keyValueSaveStore;
+    private ShardedSnapshotIO shardedSnapshotIO;
+    private SnapshotMetadataIndex snapshotMetadataIndex;
+    private SnapshotConflictResolver conflictResolver;
+    private SnapshotLoader snapshotLoader;
+    private SnapshotSessionManager sessionManager;
+    private SaveJournal saveJournal;
+    private boolean journalSaves;
+    private SavePrefetcher savePrefetcher;
+    private LocalSnapshotCache snapshotCache;
+    private SyncScheduler syncScheduler;
+    private LeaderboardScoreLoader scoreLoader;
+    private LocalLeaderboards localLeaderboards;
+    private LeaderboardMetadataCache leaderboardMetadataCache;
+    private BestScoreTracker bestScoreTracker;
+    private AchievementCache achievementCache;
+    private EventCounters eventCounters;
+    private PlayerProfileCache playerProfileCache;
+    private AvatarCache avatarCache;
+    private final CoverImageProcessor coverImageProcessor = new CoverImageProcessor();
 
     private CallbackContext authCallbackContext;
+    private CallbackContext conflictCallbackContext;
+    private CallbackContext achievementsCallbackContext;
     private int googlePlayServicesReturnCode;
+    private int stops;
+    private final Handler stopHandler = new Handler(Looper.getMainLooper());
 
     @Override
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
@@ -103,6 +198,50 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
                 gameHelper.enableDebugLog(true);
             }
             gameHelper.setup(this);
+            keyValueSaveStore = new KeyValueSaveStore(cordova.getContext(), gameHelper);
+            leaderboardMetadataCache = new LeaderboardMetadataCache(cordova.getContext(), gameHelper);
+            localLeaderboards = new LocalLeaderboards(cordova.getContext(), leaderboardMetadataCache);
+            bestScoreTracker = new BestScoreTracker(cordova.getContext(), leaderboardMetadataCache);
+            avatarCache = new AvatarCache(cordova.getContext(), cordova.getThreadPool());
+            scoreLoader = new LeaderboardScoreLoader(gameHelper, localLeaderboards, avatarCache);
+            achievementCache = new AchievementCache(cordova.getContext(), gameHelper);
+            eventCounters = new EventCounters(cordova.getContext(), gameHelper);
+            playerProfileCache = new PlayerProfileCache(cordova.getContext(), avatarCache);
+            if (preferences != null) {
+                avatarCache.setMaxBytes(preferences.getInteger(PREFERENCE_AVATAR_CACHE_BYTES, (int) AvatarCache.DEFAULT_MAX_BYTES));
+                eventCounters.setFlushInterval(preferences.getInteger(PREFERENCE_EVENT_FLUSH_INTERVAL, (int) (EventCounters.DEFAULT_FLUSH_INTERVAL / 1000)) * 1000L);
+                achievementCache.setMaxAge(preferences.getInteger(PREFERENCE_ACHIEVEMENTS_MAX_AGE, (int) (AchievementCache.DEFAULT_MAX_AGE / 1000)) * 1000L);
+                leaderboardMetadataCache.setMaxAge(preferences.getInteger(PREFERENCE_LEADERBOARD_METADATA_MAX_AGE, (int) (LeaderboardMetadataCache.DEFAULT_MAX_AGE / 1000)) * 1000L);
+                scoreLoader.setTtl(preferences.getInteger(PREFERENCE_LEADERBOARD_CACHE_TTL, (int) (LeaderboardScoreLoader.DEFAULT_TTL / 1000)) * 1000L);
+            }
+            snapshotMetadataIndex = new SnapshotMetadataIndex(cordova.getContext(), gameHelper);
+            shardedSnapshotIO = new ShardedSnapshotIO(gameHelper, snapshotMetadataIndex, cordova.getThreadPool());
+            conflictResolver = new SnapshotConflictResolver(cordova.getContext(), gameHelper, cordova.getThreadPool());
+            if (preferences != null && SnapshotConflictResolver.isStrategy(preferences.getString(PREFERENCE_CONFLICT_STRATEGY, null))) {
+                conflictResolver.setStrategy(preferences.getString(PREFERENCE_CONFLICT_STRATEGY, null), null);
+            }
+            snapshotCache = new LocalSnapshotCache(cordova.getContext());
+            snapshotLoader = new SnapshotLoader(gameHelper, snapshotMetadataIndex, conflictResolver, snapshotCache, cordova.getThreadPool());
+            savePrefetcher = new SavePrefetcher(snapshotLoader);
+            saveJournal = new SaveJournal(cordova.getContext(), gameHelper, conflictResolver, snapshotMetadataIndex, snapshotCache,
+                    coverImageProcessor, cordova.getThreadPool());
+            sessionManager = new SnapshotSessionManager(gameHelper, conflictResolver, snapshotMetadataIndex, snapshotCache, saveJournal, coverImageProcessor);
+            journalSaves = preferences != null && preferences.getBoolean(PREFERENCE_JOURNAL_SAVES, false);
+            SnapshotFraming.setChecksumByDefault(preferences != null && preferences.getBoolean(PREFERENCE_CHECKSUM_SAVES, false));
+            syncScheduler = new SyncScheduler(new DeviceConditions.HandlerClock(), new DeviceConditions(cordova.getContext()), new SyncScheduler.SyncTask() {
+                @Override
+                public void run(SyncScheduler.Callback callback) {
+                    runSnapshotSync(callback);
+                }
+            });
+            if (preferences != null) {
+                syncScheduler.configure(preferences.getBoolean(PREFERENCE_SYNC_ENABLED, false),
+                        preferences.getInteger(PREFERENCE_SYNC_INTERVAL, (int) (SyncScheduler.DEFAULT_INTERVAL / 1000)) * 1000L,
+                        SyncScheduler.DEFAULT_MIN_BATTERY_PERCENT, SyncScheduler.DEFAULT_METERED_BYTES_PER_WINDOW);
+            }
+            configurePrefetcher();
+            configureSnapshotCache();
+            restoreLastPlayer();
         } else {
             Log.w(LOGTAG, String.format("GooglePlayServices not available. Error: '" +
                     GoogleApiAvailability.getInstance().getErrorString(googlePlayServicesReturnCode) +
@@ -115,6 +254,8 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
     @Override
     public void onStart() {
         super.onStart();
+        // A disconnect still waiting for the stop commits is skipped
+        stops++;
         gameHelper.onStart(cordova.getActivity());
     }
 
@@ -158,6 +299,20 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
             executeShowAllLeaderboards(callbackContext);
         } else if (ACTION_SHOW_LEADERBOARD.equals(action)) {
             executeShowLeaderboard(options, callbackContext);
+        } else if (ACTION_LOAD_TOP_SCORES.equals(action)) {
+            executeLoadScores(options, false, callbackContext);
+        } else if (ACTION_LOAD_PLAYER_CENTERED_SCORES.equals(action)) {
+            executeLoadScores(options, true, callbackContext);
+        } else if (ACTION_LOAD_MORE_SCORES.equals(action)) {
+            executeLoadMoreScores(options, callbackContext);
+        } else if (ACTION_GET_LOCAL_RANK.equals(action)) {
+            executeGetLocalRank(options, callbackContext);
+        } else if (ACTION_LOAD_LOCAL_SCORES.equals(action)) {
+            executeLoadLocalScores(options, callbackContext);
+        } else if (ACTION_LOAD_LEADERBOARD_METADATA.equals(action)) {
+            executeLoadLeaderboardMetadata(options, callbackContext);
+        } else if (ACTION_GET_SCORE_SUBMISSION_STATS.equals(action)) {
+            executeGetScoreSubmissionStats(callbackContext);
         } else if (ACTION_SHOW_ACHIEVEMENTS.equals(action)) {
             executeShowAchievements(callbackContext);
         } else if (ACTION_UNLOCK_ACHIEVEMENT.equals(action)) {
@@ -168,14 +323,72 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
             executeIncrementAchievement(options, callbackContext);
         } else if (ACTION_INCREMENT_ACHIEVEMENT_NOW.equals(action)) {
             executeIncrementAchievementNow(options, callbackContext);
+        } else if (ACTION_LOAD_ACHIEVEMENTS.equals(action)) {
+            executeLoadAchievements(options, callbackContext);
+        } else if (ACTION_WATCH_ACHIEVEMENTS.equals(action)) {
+            executeWatchAchievements(callbackContext);
+        } else if (ACTION_UNWATCH_ACHIEVEMENTS.equals(action)) {
+            executeUnwatchAchievements(callbackContext);
+        } else if (ACTION_GET_AVATAR_CACHE_STATS.equals(action)) {
+            executeGetAvatarCacheStats(callbackContext);
+        } else if (ACTION_INCREMENT_EVENT.equals(action)) {
+            executeIncrementEvent(options, callbackContext);
         } else if (ACTION_SHOW_PLAYER.equals(action)) {
             executeShowPlayer(callbackContext);
         } else if (ACTION_SAVE_GAME.equals(action)) {
             executeSaveGame(options, callbackContext);
         } else if (ACTION_LOAD_GAME.equals(action)) {
             executeLoadGame(options, callbackContext);
+        } else if (ACTION_LOAD_GAMES.equals(action)) {
+            executeLoadGames(options, callbackContext);
+        } else if (ACTION_LOAD_GAME_CHUNKED.equals(action)) {
+            executeLoadGameChunked(options, callbackContext);
         } else if (ACTION_DELETE_SAVE_GAME.equals(action)) {
             executeDeleteSaveGame(options, callbackContext);
+        } else if (ACTION_LIST_SAVES.equals(action)) {
+            executeListSaves(options, callbackContext);
+        } else if (ACTION_SET_PREFETCH_SAVES.equals(action)) {
+            executeSetPrefetchSaves(options, callbackContext);
+        } else if (ACTION_GET_PREFETCH_STATS.equals(action)) {
+            executeGetPrefetchStats(callbackContext);
+        } else if (ACTION_SET_SAVE_CACHE_OPTIONS.equals(action)) {
+            executeSetSaveCacheOptions(options, callbackContext);
+        } else if (ACTION_GET_SAVE_CACHE_STATS.equals(action)) {
+            executeGetSaveCacheStats(callbackContext);
+        } else if (ACTION_SET_CONFLICT_RESOLUTION.equals(action)) {
+            executeSetConflictResolution(options, callbackContext);
+        } else if (ACTION_RESOLVE_CONFLICT.equals(action)) {
+            executeResolveConflict(options, callbackContext);
+        } else if (ACTION_GET_CONFLICT_STATS.equals(action)) {
+            executeGetConflictStats(callbackContext);
+        } else if (ACTION_BEGIN_SAVE_SESSION.equals(action)) {
+            executeBeginSaveSession(options, callbackContext);
+        } else if (ACTION_WRITE_SAVE_SESSION.equals(action)) {
+            executeWriteSaveSession(options, callbackContext);
+        } else if (ACTION_COMMIT_SAVE_SESSION.equals(action)) {
+            executeCommitSaveSession(options, callbackContext);
+        } else if (ACTION_CLOSE_SAVE_SESSION.equals(action)) {
+            executeCloseSaveSession(options, callbackContext);
+        } else if (ACTION_GET_SAVE_JOURNAL.equals(action)) {
+            executeGetSaveJournal(callbackContext);
+        } else if (ACTION_SET_SYNC_OPTIONS.equals(action)) {
+            executeSetSyncOptions(options, callbackContext);
+        } else if (ACTION_SYNC_NOW.equals(action)) {
+            executeSyncNow(callbackContext);
+        } else if (ACTION_GET_SYNC_STATUS.equals(action)) {
+            executeGetSyncStatus(callbackContext);
+        } else if (ACTION_SAVE_GAME_SHARDED.equals(action)) {
+            executeSaveGameSharded(options, callbackContext);
+        } else if (ACTION_LOAD_GAME_SHARDED.equals(action)) {
+            executeLoadGameSharded(options, callbackContext);
+        } else if (ACTION_PUT_SAVE_VALUE.equals(action)) {
+            executePutSaveValue(options, callbackContext);
+        } else if (ACTION_GET_SAVE_VALUE.equals(action)) {
+            executeGetSaveValue(options, callbackContext);
+        } else if (ACTION_DELETE_SAVE_VALUE.equals(action)) {
+            executeDeleteSaveValue(options, callbackContext);
+        } else if (ACTION_FLUSH_SAVE_VALUES.equals(action)) {
+            executeFlushSaveValues(options, callbackContext);
         } else {
             return false; // Tried to execute an unknown method
         }
@@ -202,7 +415,21 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
         cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
+                eventCounters.flush();
+                eventCounters.stop();
+                eventCounters.clear();
+                // Closed while the client is still connected
+                sessionManager.discardAll();
                 gameHelper.signOut();
+                savePrefetcher.clear();
+                scoreLoader.releaseAll();
+                achievementCache.clear();
+                playerProfileCache.clear();
+                saveJournal.clear();
+                snapshotMetadataIndex.clear();
+                keyValueSaveStore.clear();
+                snapshotCache.clear();
+                syncScheduler.stop();
                 callbackContext.success();
             }
         });
@@ -234,7 +461,17 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
             public void run() {
                 try {
                     if (gameHelper.isSignedIn()) {
-                        Games.Leaderboards.submitScore(gameHelper.getApiClient(), options.getString("leaderboardId"), options.getLong("score"));
+                        String leaderboardId = options.getString("leaderboardId");
+                        long score = options.getLong("score");
+                        String playerId = Games.Players.getCurrentPlayerId(gameHelper.getApiClient());
+                        if (!options.optBoolean("force", false) && !bestScoreTracker.shouldSubmit(playerId, leaderboardId, score)) {
+                            // Not better than the best of any period, the server would ignore it
+                            callbackContext.success("executeSubmitScore: score not better than the best known, not submitted");
+                            return;
+                        }
+                        Games.Leaderboards.submitScore(gameHelper.getApiClient(), leaderboardId, score);
+                        bestScoreTracker.recordSubmitted(playerId, leaderboardId, score);
+                        localLeaderboards.recordSubmission(leaderboardId, playerId, score);
                         callbackContext.success("executeSubmitScore: score submited successfully");
                     } else {
                         callbackContext.error("executeSubmitScore: not yet signed in");
@@ -256,6 +493,7 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
                 try {
                     if (gameHelper.isSignedIn()) {
                         PendingResult<Leaderboards.SubmitScoreResult> result = Games.Leaderboards.submitScoreImmediate(gameHelper.getApiClient(), options.getString("leaderboardId"), options.getLong("score"));
+                        localLeaderboards.recordSubmission(options.getString("leaderboardId"), Games.Players.getCurrentPlayerId(gameHelper.getApiClient()), options.getLong("score"));
                         result.setResultCallback(new ResultCallback<Leaderboards.SubmitScoreResult>() {
                             @Override
                             public void onResult(Leaderboards.SubmitScoreResult submitScoreResult) {
@@ -263,6 +501,7 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
                                     ScoreSubmissionData scoreSubmissionData = submitScoreResult.getScoreData();
 
                                     if (scoreSubmissionData != null) {
+                                        recordScoreSubmission(scoreSubmissionData);
                                         try {
                                             ScoreSubmissionData.Result scoreResult = scoreSubmissionData.getScoreResult(LeaderboardVariant.TIME_SPAN_ALL_TIME);
                                             JSONObject result = new JSONObject();
@@ -296,6 +535,25 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
         });
     }
 
+    /**
+     * Records the bests of every time span and drops the cached leaderboard
+     * pages a new best score changes.
+     */
+    private void recordScoreSubmission(ScoreSubmissionData scoreSubmissionData) {
+        int[] timeSpans = {LeaderboardVariant.TIME_SPAN_DAILY, LeaderboardVariant.TIME_SPAN_WEEKLY, LeaderboardVariant.TIME_SPAN_ALL_TIME};
+        for (int timeSpan : timeSpans) {
+            ScoreSubmissionData.Result scoreResult = scoreSubmissionData.getScoreResult(timeSpan);
+            if (scoreResult == null) {
+                continue;
+            }
+            // The result holds the best of the time span, new or not
+            bestScoreTracker.recordBest(scoreSubmissionData.getPlayerId(), scoreSubmissionData.getLeaderboardId(), timeSpan, scoreResult.rawScore);
+            if (scoreResult.newBest) {
+                scoreLoader.invalidate(scoreSubmissionData.getLeaderboardId(), timeSpan, scoreResult.rawScore);
+            }
+        }
+    }
+
     private void executeGetPlayerScore(final JSONObject options, final CallbackContext callbackContext) throws JSONException {
         Log.d(LOGTAG, "executeGetPlayerScore");
 
@@ -312,6 +570,7 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
                                     LeaderboardScore score = playerScoreResult.getScore();
 
                                     if (score != null) {
+                                        bestScoreTracker.recordBest(Games.Players.getCurrentPlayerId(gameHelper.getApiClient()), options.optString("leaderboardId"), LeaderboardVariant.TIME_SPAN_ALL_TIME, score.getRawScore());
                                         try {
                                             JSONObject result = new JSONObject();
                                             result.put("playerScore", score.getRawScore());
@@ -340,6 +599,181 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
         });
     }
 
+    private void executeLoadScores(final JSONObject options, final boolean playerCentered, final CallbackContext callbackContext) {
+        final String method = playerCentered ? "executeLoadPlayerCenteredScores" : "executeLoadTopScores";
+        Log.d(LOGTAG, method);
+
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (gameHelper.isSignedIn()) {
+                        scoreLoader.load(options.getString("leaderboardId"), timeSpanOf(options), collectionOf(options),
+                                options.optInt("maxResults", LeaderboardScoreLoader.MAX_RESULTS), playerCentered,
+                                options.optBoolean("forceReload", false), options.optInt("pages", 1),
+                                scorePagesListener(method, callbackContext));
+                    } else {
+                        Log.w(LOGTAG, method + ": not yet signed in");
+                        callbackContext.error(method + ": not yet signed in");
+                    }
+                } catch (Exception e) {
+                    Log.w(LOGTAG, method + ": unexpected error", e);
+                    callbackContext.error(method + ": error while loading scores");
+                }
+            }
+        });
+    }
+
+    private void executeLoadMoreScores(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeLoadMoreScores");
+
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (gameHelper.isSignedIn()) {
+                        scoreLoader.loadMore(options.getString("pageToken"), options.optBoolean("previous", false),
+                                options.optInt("pages", 1), scorePagesListener("executeLoadMoreScores", callbackContext));
+                    } else {
+                        Log.w(LOGTAG, "executeLoadMoreScores: not yet signed in");
+                        callbackContext.error("executeLoadMoreScores: not yet signed in");
+                    }
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "executeLoadMoreScores: unexpected error", e);
+                    callbackContext.error("executeLoadMoreScores: error while loading scores");
+                }
+            }
+        });
+    }
+
+    /**
+     * Streams every page of scores to the success callback, the last message
+     * has done set and the page token to continue with.
+     */
+    private LeaderboardScoreLoader.Listener scorePagesListener(final String method, final CallbackContext callbackContext) {
+        return new LeaderboardScoreLoader.Listener() {
+            @Override
+            public void onPage(JSONObject page) {
+                PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, page);
+                pluginResult.setKeepCallback(true);
+                callbackContext.sendPluginResult(pluginResult);
+            }
+
+            @Override
+            public void onDone(String leaderboardId, String pageToken) {
+                try {
+                    JSONObject doneJson = new JSONObject();
+                    doneJson.put("leaderboardId", leaderboardId);
+                    doneJson.put("pageToken", pageToken == null ? JSONObject.NULL : pageToken);
+                    doneJson.put("done", true);
+                    callbackContext.success(doneJson);
+                } catch (JSONException e) {
+                    Log.w(LOGTAG, method + ": unexpected error", e);
+                    callbackContext.error(method + ": error while loading scores");
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                callbackContext.error(method + ": " + message);
+            }
+        };
+    }
+
+    private void executeGetLocalRank(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeGetLocalRank");
+
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String playerId = gameHelper.isSignedIn() ? Games.Players.getCurrentPlayerId(gameHelper.getApiClient()) : null;
+                    callbackContext.success(localLeaderboards.rankToJson(options.getString("leaderboardId"), timeSpanOf(options), playerId, options.getLong("score")));
+                } catch (JSONException e) {
+                    Log.w(LOGTAG, "executeGetLocalRank: unexpected error", e);
+                    callbackContext.error("executeGetLocalRank: error while ranking score");
+                }
+            }
+        });
+    }
+
+    private void executeLoadLocalScores(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeLoadLocalScores");
+
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callbackContext.success(localLeaderboards.scoresToJson(options.getString("leaderboardId"), timeSpanOf(options),
+                            options.optInt("maxResults", LeaderboardScoreLoader.MAX_RESULTS)));
+                } catch (JSONException e) {
+                    Log.w(LOGTAG, "executeLoadLocalScores: unexpected error", e);
+                    callbackContext.error("executeLoadLocalScores: error while reading scores");
+                }
+            }
+        });
+    }
+
+    private void executeLoadLeaderboardMetadata(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeLoadLeaderboardMetadata");
+
+        final String leaderboardId = options.has("leaderboardId") ? options.optString("leaderboardId") : null;
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!options.optBoolean("forceReload", false) && leaderboardMetadataCache.isFresh()) {
+                    sendLeaderboardMetadata(leaderboardId, callbackContext);
+                    return;
+                }
+                leaderboardMetadataCache.refresh(options.optBoolean("forceReload", false), new LeaderboardMetadataCache.Callback() {
+                    @Override
+                    public void onSuccess() {
+                        sendLeaderboardMetadata(leaderboardId, callbackContext);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        callbackContext.error("executeLoadLeaderboardMetadata: " + message);
+                    }
+                });
+            }
+        });
+    }
+
+    private void sendLeaderboardMetadata(String leaderboardId, CallbackContext callbackContext) {
+        try {
+            callbackContext.success(leaderboardMetadataCache.toJson(leaderboardId));
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeLoadLeaderboardMetadata: unexpected error", e);
+            callbackContext.error("executeLoadLeaderboardMetadata: error while reading leaderboards");
+        }
+    }
+
+    private void executeGetScoreSubmissionStats(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeGetScoreSubmissionStats");
+
+        try {
+            callbackContext.success(bestScoreTracker.statsToJson());
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeGetScoreSubmissionStats: unexpected error", e);
+            callbackContext.error("executeGetScoreSubmissionStats: error while reading stats");
+        }
+    }
+
+    private static int timeSpanOf(JSONObject options) {
+        String timeSpan = options.optString("timeSpan", "allTime");
+        if ("daily".equals(timeSpan)) {
+            return LeaderboardVariant.TIME_SPAN_DAILY;
+        } else if ("weekly".equals(timeSpan)) {
+            return LeaderboardVariant.TIME_SPAN_WEEKLY;
+        }
+        return LeaderboardVariant.TIME_SPAN_ALL_TIME;
+    }
+
+    private static int collectionOf(JSONObject options) {
+        return "social".equals(options.optString("collection", "public")) ? LeaderboardVariant.COLLECTION_SOCIAL : LeaderboardVariant.COLLECTION_PUBLIC;
+    }
+
     private void executeShowAllLeaderboards(final CallbackContext callbackContext) {
         Log.d(LOGTAG, "executeShowAllLeaderboards");
 
@@ -425,6 +859,7 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
                             @Override
                             public void onResult(Achievements.UpdateAchievementResult achievementResult) {
                                 if (achievementResult.getStatus().isSuccess()) {
+                                    achievementCache.update(achievementResult.getAchievementId(), Achievement.STATE_UNLOCKED, -1);
                                     try {
                                         JSONObject result = new JSONObject();
                                         result.put("achievementId", achievementResult.getAchievementId());
@@ -470,33 +905,62 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
             @Override
             public void run() {
                 if (gameHelper.isSignedIn()) {
-                    PendingResult<Achievements.UpdateAchievementResult> result = Games.Achievements.incrementImmediate(gameHelper.getApiClient(), options.optString("achievementId"), options.optInt("numSteps"));
+                    final String achievementId = options.optString("achievementId");
+                    final int numSteps = options.optInt("numSteps");
+                    // Answered at once from the cached steps, the server's answer only reconciles them
+                    final AchievementCache.Prediction prediction = options.optBoolean("optimistic", false)
+                            ? achievementCache.predictIncrement(achievementId, numSteps) : null;
+                    if (prediction != null) {
+                        sendIncrementResult(achievementId, prediction, true, prediction.unlocked(), callbackContext);
+                    }
+                    PendingResult<Achievements.UpdateAchievementResult> result = Games.Achievements.incrementImmediate(gameHelper.getApiClient(), achievementId, numSteps);
                     result.setResultCallback(new ResultCallback<Achievements.UpdateAchievementResult>() {
                             @Override
                             public void onResult(Achievements.UpdateAchievementResult achievementResult) {
-                                if (achievementResult.getStatus().isSuccess()) {
-                                    try {
-                                        JSONObject result = new JSONObject();
-                                        result.put("achievementId", achievementResult.getAchievementId());
-                                        callbackContext.success(result);
-                                    } catch (JSONException e) {
-                                        Log.w(LOGTAG, "executeIncrementAchievementNow: unexpected error", e);
-                                        callbackContext.error("executeIncrementAchievementNow: error while incrementing achievement");
+                                int statusCode = achievementResult.getStatus().getStatusCode();
+                                boolean unlocked = statusCode == GamesStatusCodes.STATUS_ACHIEVEMENT_UNLOCKED;
+                                boolean confirmed = achievementResult.getStatus().isSuccess() || unlocked;
+                                if (prediction != null) {
+                                    if (statusCode != GamesStatusCodes.STATUS_NETWORK_ERROR_OPERATION_DEFERRED) {
+                                        achievementCache.reconcile(prediction, confirmed, unlocked);
+                                    }
+                                } else if (confirmed) {
+                                    AchievementCache.Prediction applied = achievementCache.predictIncrement(achievementId, numSteps);
+                                    if (applied != null) {
+                                        achievementCache.reconcile(applied, true, unlocked);
                                     }
+                                    sendIncrementResult(achievementId, applied, false, unlocked, callbackContext);
                                 } else {
                                     callbackContext.error("executeIncrementAchievementNow error: " + achievementResult.getStatus().getStatusMessage());
                                 }
                             }
                         });
-                    callbackContext.success();
                 } else {
-                    Log.w(LOGTAG, "executeIncrementAchievement: not yet signed in");
-                    callbackContext.error("executeIncrementAchievement: not yet signed in");
+                    Log.w(LOGTAG, "executeIncrementAchievementNow: not yet signed in");
+                    callbackContext.error("executeIncrementAchievementNow: not yet signed in");
                 }
             }
         });
     }
 
+    private void sendIncrementResult(String achievementId, AchievementCache.Prediction progress, boolean optimistic,
+                                     boolean unlocked, CallbackContext callbackContext) {
+        try {
+            JSONObject result = new JSONObject();
+            result.put("achievementId", achievementId);
+            result.put("unlocked", unlocked);
+            result.put("optimistic", optimistic);
+            if (progress != null) {
+                result.put("currentSteps", progress.currentSteps);
+                result.put("totalSteps", progress.totalSteps);
+            }
+            callbackContext.success(result);
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeIncrementAchievementNow: unexpected error", e);
+            callbackContext.error("executeIncrementAchievementNow: error while incrementing achievement");
+        }
+    }
+
     private void executeShowAchievements(final CallbackContext callbackContext) {
         Log.d(LOGTAG, "executeShowAchievements");
 
@@ -523,6 +987,103 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
         });
     }
 
+    private void executeLoadAchievements(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeLoadAchievements");
+
+        final boolean forceReload = options != null && options.optBoolean("forceReload", false);
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!forceReload && achievementCache.isLoaded()) {
+                    // Answered from the cache, changes found by the reload go to the watcher
+                    sendAchievements(callbackContext);
+                    achievementCache.refreshIfStale();
+                    return;
+                }
+                achievementCache.refresh(forceReload, new AchievementCache.Callback() {
+                    @Override
+                    public void onSuccess() {
+                        sendAchievements(callbackContext);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        callbackContext.error("executeLoadAchievements: " + message);
+                    }
+                });
+            }
+        });
+    }
+
+    private void sendAchievements(CallbackContext callbackContext) {
+        try {
+            callbackContext.success(achievementCache.toJson());
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeLoadAchievements: unexpected error", e);
+            callbackContext.error("executeLoadAchievements: error while reading achievements");
+        }
+    }
+
+    private void executeWatchAchievements(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeWatchAchievements");
+
+        // The previous watcher is replaced, its callback is released
+        closeAchievementsWatcher();
+        achievementsCallbackContext = callbackContext;
+
+        // Changes are streamed to the success callback until unwatched
+        achievementCache.setListener(new AchievementCache.ChangeListener() {
+            @Override
+            public void onChanged(JSONArray changed, JSONArray removed, boolean corrected) {
+                try {
+                    JSONObject changes = new JSONObject();
+                    changes.put("changed", changed);
+                    changes.put("removed", removed);
+                    changes.put("corrected", corrected);
+                    PluginResult result = new PluginResult(PluginResult.Status.OK, changes);
+                    result.setKeepCallback(true);
+                    callbackContext.sendPluginResult(result);
+                } catch (JSONException e) {
+                    Log.w(LOGTAG, "executeWatchAchievements: unable to send changes", e);
+                }
+            }
+        });
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private void executeUnwatchAchievements(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeUnwatchAchievements");
+
+        achievementCache.setListener(null);
+        closeAchievementsWatcher();
+        callbackContext.success();
+    }
+
+    private void closeAchievementsWatcher() {
+        if (achievementsCallbackContext != null) {
+            PluginResult closing = new PluginResult(PluginResult.Status.NO_RESULT);
+            closing.setKeepCallback(false);
+            achievementsCallbackContext.sendPluginResult(closing);
+            achievementsCallbackContext = null;
+        }
+    }
+
+    private void executeIncrementEvent(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeIncrementEvent");
+
+        String eventId = options.optString("eventId", null);
+        long amount = options.optLong("amount", 1);
+        if (eventId == null || amount <= 0) {
+            callbackContext.error("executeIncrementEvent: eventId and a positive amount are required");
+            return;
+        }
+        // Counted in memory, sent to the server with the next flush
+        eventCounters.increment(eventId, amount);
+        callbackContext.success();
+    }
+
     private void executeShowPlayer(final CallbackContext callbackContext) {
         Log.d(LOGTAG, "executeShowPlayer");
 
@@ -533,17 +1094,18 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
                 try {
                     if (gameHelper.isSignedIn()) {
 
-                        Player player = Games.Players.getCurrentPlayer(gameHelper.getApiClient());
-
-                        JSONObject playerJson = new JSONObject();
-                        playerJson.put("displayName", player.getDisplayName());
-                        playerJson.put("playerId", player.getPlayerId());
-                        playerJson.put("title", player.getTitle());
-                        playerJson.put("iconImageUrl", player.getIconImageUrl());
-                        playerJson.put("hiResIconImageUrl", player.getHiResImageUrl());
+                        JSONObject playerJson = playerProfileCache.get(Games.Players.getCurrentPlayerId(gameHelper.getApiClient()));
+                        if (playerJson == null) {
+                            playerJson = playerProfileCache.update(Games.Players.getCurrentPlayer(gameHelper.getApiClient()));
+                        }
 
                         callbackContext.success(playerJson);
 
+                    } else if (playerProfileCache.get() != null) {
+                        // Cold start: the last known player, until the connection completes
+                        JSONObject playerJson = new JSONObject(playerProfileCache.get().toString());
+                        playerJson.put("cached", true);
+                        callbackContext.success(playerJson);
                     } else {
                         Log.w(LOGTAG, "executeShowPlayer: not yet signed in");
                         callbackContext.error("executeShowPlayer: not yet signed in");
@@ -557,53 +1119,126 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
         });
     }
 
+    private void executeGetAvatarCacheStats(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeGetAvatarCacheStats");
+
+        try {
+            callbackContext.success(avatarCache.statsToJson());
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeGetAvatarCacheStats: unexpected error", e);
+            callbackContext.error("executeGetAvatarCacheStats: error while reading stats");
+        }
+    }
+
+    /**
+     * Selects the local state of the player signed in last, so it is used
+     * before the connection completes. The profile is read off the UI thread.
+     */
+    private void restoreLastPlayer() {
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                JSONObject player = playerProfileCache.get();
+                String playerId = player == null ? null : player.optString("playerId", null);
+                if (playerId != null) {
+                    saveJournal.restorePlayer(playerId);
+                    snapshotMetadataIndex.restorePlayer(playerId);
+                    keyValueSaveStore.restorePlayer(playerId);
+                    snapshotCache.restorePlayer(playerId);
+                    achievementCache.restorePlayer(playerId);
+                    eventCounters.restorePlayer(playerId);
+                }
+            }
+        });
+    }
+
+    private void updatePlayerProfile() {
+        try {
+            Player player = Games.Players.getCurrentPlayer(gameHelper.getApiClient());
+            if (player != null) {
+                playerProfileCache.update(player);
+            }
+        } catch (Exception e) {
+            Log.w(LOGTAG, "updatePlayerProfile: unable to read player", e);
+        }
+    }
+
     private void executeSaveGame(final JSONObject options, final CallbackContext callbackContext) {
         Log.d(LOGTAG, "executeSaveGame");
 
+        if (SnapshotMetadataIndex.isInternal(options.optString("saveName"))) {
+            callbackContext.error("executeSaveGame: save names starting with " + SnapshotMetadataIndex.INTERNAL_PREFIX + " are reserved");
+            return;
+        }
+        if (options.optBoolean("journal", journalSaves)) {
+            executeJournaledSaveGame(options, callbackContext);
+            return;
+        }
+
         cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
+                SaveJournal.Hold heldJournal = null;
                 try {
                     if (gameHelper.isSignedIn()) {
-                        String saveName = options.getString("saveName");
-                        String saveData = options.getString("saveData");
-                        PendingResult<Snapshots.OpenSnapshotResult> result = Games.Snapshots.open(gameHelper.getApiClient(), saveName, true, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED);
-                        result.setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+                        final String saveName = options.getString("saveName");
+                        final String saveData = options.getString("saveData");
+                        final boolean delta = options.optBoolean("delta", false);
+                        final boolean checksum = options.optBoolean("checksum", SnapshotFraming.isChecksumByDefault());
+                        if (delta && checksum) {
+                            callbackContext.error("executeSaveGame: delta and checksum cannot be combined");
+                            return;
+                        }
+                        if (delta && sessionManager.hasSession(saveName)) {
+                            // The session holds the snapshot open, a second open would conflict with it
+                            callbackContext.error("executeSaveGame: delta cannot be used while a save session is open");
+                            return;
+                        }
+                        savePrefetcher.invalidate(saveName);
+                        // Decoded while the snapshot opens
+                        final Future<CoverImageProcessor.PreparedMetadata> metadata = prepareMetadata(options);
+                        if (sessionManager.hasSession(saveName)) {
+                            // Written into the open session, committed with it
+                            sessionManager.write(saveName, saveData.getBytes(StandardCharsets.UTF_8), metadata, sessionCallback("executeSaveGame", callbackContext));
+                            return;
+                        }
+                        // Newer than the journaled save, which must not be uploaded over it, dropped once committed
+                        final SaveJournal.Hold journalHold = saveJournal.hold(saveName);
+                        heldJournal = journalHold;
+                        conflictResolver.open(saveName, true, new ResultCallback<Snapshots.OpenSnapshotResult>() {
                             @Override
                             public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
                                 try {
                                     if (snapshotResult.getStatus().isSuccess()) {
-                                        Snapshot snapshot = snapshotResult.getSnapshot();
+                                        final Snapshot snapshot = snapshotResult.getSnapshot();
                                         if (snapshot != null && snapshot.getSnapshotContents() != null) {
-                                            SnapshotContents snapshotContents = snapshot.getSnapshotContents();
-                                            snapshotContents.writeBytes(saveData.getBytes(StandardCharsets.UTF_8));
-
-                                            PendingResult<Snapshots.CommitSnapshotResult> result = Games.Snapshots.commitAndClose(gameHelper.getApiClient(), snapshot, SnapshotMetadataChange.EMPTY_CHANGE);
-                                            result.setResultCallback(new ResultCallback<Snapshots.CommitSnapshotResult>() {
-                                                @Override
-                                                public void onResult(Snapshots.CommitSnapshotResult commitSnapshotResult) {
-                                                    if (commitSnapshotResult.getStatus().isSuccess()) {
-                                                        try {
-                                                            Long saveTime = commitSnapshotResult.getSnapshotMetadata().getLastModifiedTimestamp();
-                                                            JSONObject playerJson = new JSONObject();
-                                                            playerJson.put("saveTime", saveTime);
-                                                            callbackContext.success(playerJson);
-                                                        } catch (Exception e) {
-                                                            callbackContext.success();
-                                                        }
-                                                    } else {
-                                                        callbackContext.error("executeSaveGame: save not sent: " + commitSnapshotResult.getStatus().getStatusMessage());
+                                            final byte[] bytes = saveData.getBytes(StandardCharsets.UTF_8);
+                                            if (delta) {
+                                                // Chunking and hashing the payload happens off the UI thread
+                                                cordova.getThreadPool().execute(new Runnable() {
+                                                    @Override
+                                                    public void run() {
+                                                        writeDeltaSaveGame(saveName, bytes, snapshot, metadata, journalHold, callbackContext);
                                                     }
-                                                }
-                                            });
+                                                });
+                                            } else {
+                                                SnapshotContents snapshotContents = snapshot.getSnapshotContents();
+                                                SnapshotFraming.write(snapshotContents, bytes, checksum);
+                                                commitSaveGame(snapshot, bytes, metadata, journalHold, null, callbackContext);
+                                            }
                                         } else {
+                                            coverImageProcessor.discard(metadata);
+                                            saveJournal.release(journalHold, false);
                                             callbackContext.error("executeSaveGame: snapshot or snapshotContents is null");
                                         }
                                     } else {
+                                        coverImageProcessor.discard(metadata);
+                                        saveJournal.release(journalHold, false);
                                         callbackContext.error("executeSaveGame error: " + snapshotResult.getStatus().getStatusMessage());
                                     }
                                 } catch (Exception e) {
                                     Log.w(LOGTAG, "executeSaveGame: unexpected error", e);
+                                    saveJournal.release(journalHold, false);
                                     callbackContext.error("executeSaveGame: error while send save");
                                 }
                             }
@@ -614,12 +1249,147 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
                     }
                 } catch (Exception e) {
                     Log.w(LOGTAG, "executeSaveGame: unexpected error", e);
+                    saveJournal.release(heldJournal, false);
                     callbackContext.error("executeSaveGame: error while open snapshot");
                 }
             }
         });
     }
 
+    /**
+     * Acknowledges the save once it is in the local journal, the upload
+     * happens in the background (or after sign-in when signed out).
+     */
+    private void executeJournaledSaveGame(final JSONObject options, final CallbackContext callbackContext) {
+        try {
+            String saveName = options.getString("saveName");
+            byte[] saveData = options.getString("saveData").getBytes(StandardCharsets.UTF_8);
+            savePrefetcher.invalidate(saveName);
+            saveJournal.append(saveName, saveData, CoverImageProcessor.metadataOf(options), new SaveJournal.Callback() {
+                @Override
+                public void onSuccess(SaveJournal.Entry entry) {
+                    try {
+                        JSONObject result = new JSONObject();
+                        result.put("saveTime", entry.createdAt);
+                        result.put("journaled", true);
+                        callbackContext.success(result);
+                    } catch (JSONException e) {
+                        callbackContext.success();
+                    }
+                }
+
+                @Override
+                public void onError(String message) {
+                    callbackContext.error("executeSaveGame: " + message);
+                }
+            });
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeSaveGame: unexpected error", e);
+            callbackContext.error("executeSaveGame: saveName and saveData are required");
+        }
+    }
+
+    private void executeGetSaveJournal(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeGetSaveJournal");
+
+        try {
+            callbackContext.success(saveJournal.toJson());
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeGetSaveJournal: unexpected error", e);
+            callbackContext.error("executeGetSaveJournal: error while reading the journal");
+        }
+    }
+
+    private interface SaveGameCommitListener {
+        void onCommitted(long saveTime, JSONObject result) throws Exception;
+    }
+
+    private void commitSaveGame(final Snapshot snapshot, final byte[] data, final Future<CoverImageProcessor.PreparedMetadata> metadata,
+                                final SaveJournal.Hold journalHold, final SaveGameCommitListener listener, final CallbackContext callbackContext) {
+        if (metadata == null) {
+            commitSaveGame(snapshot, data, (CoverImageProcessor.PreparedMetadata) null, journalHold, listener, callbackContext);
+            return;
+        }
+        // The cover image may still be decoding
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                commitSaveGame(snapshot, data, CoverImageProcessor.await(metadata), journalHold, listener, callbackContext);
+            }
+        });
+    }
+
+    private void commitSaveGame(final Snapshot snapshot, final byte[] data, final CoverImageProcessor.PreparedMetadata metadata,
+                                final SaveJournal.Hold journalHold, final SaveGameCommitListener listener, final CallbackContext callbackContext) {
+        SnapshotMetadataChange change = metadata == null ? SnapshotMetadataChange.EMPTY_CHANGE : metadata.change;
+        PendingResult<Snapshots.CommitSnapshotResult> result = Games.Snapshots.commitAndClose(gameHelper.getApiClient(), snapshot, change);
+        result.setResultCallback(new ResultCallback<Snapshots.CommitSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.CommitSnapshotResult commitSnapshotResult) {
+                coverImageProcessor.release(metadata);
+                saveJournal.release(journalHold, commitSnapshotResult.getStatus().isSuccess());
+                if (commitSnapshotResult.getStatus().isSuccess()) {
+                    snapshotMetadataIndex.record(commitSnapshotResult.getSnapshotMetadata().freeze(), data.length);
+                    snapshotCache.put(commitSnapshotResult.getSnapshotMetadata().getUniqueName(), data, commitSnapshotResult.getSnapshotMetadata().getLastModifiedTimestamp());
+                    try {
+                        Long saveTime = commitSnapshotResult.getSnapshotMetadata().getLastModifiedTimestamp();
+                        JSONObject playerJson = new JSONObject();
+                        playerJson.put("saveTime", saveTime);
+                        if (listener != null) {
+                            listener.onCommitted(saveTime, playerJson);
+                        }
+                        callbackContext.success(playerJson);
+                    } catch (Exception e) {
+                        callbackContext.success();
+                    }
+                } else {
+                    callbackContext.error("executeSaveGame: save not sent: " + commitSnapshotResult.getStatus().getStatusMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts preparing the metadata change of the save on the thread pool, or
+     * returns null when the options have no metadata.
+     */
+    private Future<CoverImageProcessor.PreparedMetadata> prepareMetadata(JSONObject options) {
+        return CoverImageProcessor.hasMetadata(options)
+                ? coverImageProcessor.prepare(options, Games.Snapshots.getMaxCoverImageSize(gameHelper.getApiClient()), cordova.getThreadPool())
+                : null;
+    }
+
+    private void writeDeltaSaveGame(final String saveName, byte[] bytes, Snapshot snapshot, Future<CoverImageProcessor.PreparedMetadata> metadata,
+                                    SaveJournal.Hold journalHold, final CallbackContext callbackContext) {
+        try {
+            final File manifestDirectory = PluginStorage.getDirectory(cordova.getContext(), DeltaSaveFormat.MANIFEST_AREA);
+            DeltaSaveFormat.Manifest previous = DeltaSaveFormat.loadManifest(manifestDirectory, saveName);
+            // Forget the manifest until the commit succeeds, a failed commit leaves the remote layout unknown
+            DeltaSaveFormat.deleteManifest(manifestDirectory, saveName);
+
+            final DeltaSaveFormat.WriteResult writeResult = DeltaSaveFormat.write(snapshot.getSnapshotContents(),
+                    bytes, previous, snapshot.getMetadata().getLastModifiedTimestamp());
+
+            commitSaveGame(snapshot, bytes, metadata, journalHold, new SaveGameCommitListener() {
+                @Override
+                public void onCommitted(long saveTime, JSONObject result) throws Exception {
+                    result.put("bytesWritten", writeResult.bytesWritten);
+                    result.put("fullRewrite", writeResult.fullRewrite);
+                    try {
+                        DeltaSaveFormat.saveManifest(manifestDirectory, saveName, writeResult.manifest.withSnapshotTime(saveTime));
+                    } catch (IOException e) {
+                        Log.w(LOGTAG, "executeSaveGame: unable to store delta manifest", e);
+                    }
+                }
+            }, callbackContext);
+        } catch (Exception e) {
+            Log.w(LOGTAG, "executeSaveGame: unexpected error", e);
+            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+            saveJournal.release(journalHold, false);
+            callbackContext.error("executeSaveGame: error while send save");
+        }
+    }
+
 
     private void executeLoadGame(final JSONObject options, final CallbackContext callbackContext) {
         Log.d(LOGTAG, "executeLoadGame");
@@ -630,127 +1400,300 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
                 try {
                     if (gameHelper.isSignedIn()) {
                         String saveName = options.getString("saveName");
-                        PendingResult<Snapshots.OpenSnapshotResult> result = Games.Snapshots.open(gameHelper.getApiClient(), saveName, false, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED);
-                        result.setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+                        SnapshotLoader.Callback loadCallback = new SnapshotLoader.Callback() {
                             @Override
-                            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
-                                try {
-                                    if (snapshotResult.getStatus().isSuccess()) {
-                                        Snapshot snapshot = snapshotResult.getSnapshot();
-                                        if (snapshot != null && snapshot.getSnapshotContents() != null) {
-                                            SnapshotContents snapshotContents = snapshot.getSnapshotContents();
-                                            byte[] snapshotData = snapshotContents.readFully();
-                                            String saveData = (snapshotData == null || snapshotData.length == 0) ? "" : new String(snapshotData, StandardCharsets.UTF_8);
-                                            Long saveTime = snapshot.getMetadata().getLastModifiedTimestamp();
-
-                                            JSONObject playerJson = new JSONObject();
-                                            playerJson.put("saveData", saveData);
-                                            playerJson.put("saveTime", saveTime);
-
-                                            callbackContext.success(playerJson);
-                                        } else {
-                                            try {
-                                                JSONObject errorJson = new JSONObject();
-                                                errorJson.put("status", LOAD_GAME_ERROR_NOT_EXIST);
-                                                errorJson.put("message", "executeLoadGame: snapshot or snapshotContents is null");
-                                                callbackContext.error(errorJson);
-                                            } catch (Exception e2) {
-                                                callbackContext.error("executeLoadGame: snapshot or snapshotContents is null");
-                                            }
-                                        }
-                                    } else {
-                                        try {
-                                            JSONObject errorJson = new JSONObject();
-                                            if (snapshotResult.getStatus().getStatusCode() == GamesStatusCodes.STATUS_SNAPSHOT_NOT_FOUND) {
-                                                errorJson.put("status", LOAD_GAME_ERROR_NOT_EXIST);
-                                            } else {
-                                                errorJson.put("status", LOAD_GAME_ERROR_FAILED);
-                                            }
-                                            errorJson.put("message", "executeLoadGame error: " + snapshotResult.getStatus().getStatusMessage());
-                                            callbackContext.error(errorJson);
-                                        } catch (Exception e2) {
-                                            callbackContext.error("executeLoadGame error: " + snapshotResult.getStatus().getStatusMessage());
-                                        }
-                                    }
-                                } catch (Exception e) {
-                                    Log.w(LOGTAG, "executeLoadGame: unexpected error", e);
+                            public void onResult(SnapshotLoader.LoadResult loadResult) {
+                                if (loadResult.isSuccess()) {
                                     try {
-                                        JSONObject errorJson = new JSONObject();
-                                        errorJson.put("status", LOAD_GAME_ERROR_FAILED);
-                                        errorJson.put("message", "executeLoadGame: error while read snapshot");
-                                        callbackContext.error(errorJson);
-                                    } catch (Exception e2) {
-                                        callbackContext.error("executeLoadGame: error while read snapshot");
+                                        callbackContext.success(loadedSaveToJson(loadResult.save));
+                                    } catch (Exception e) {
+                                        Log.w(LOGTAG, "executeLoadGame: unexpected error", e);
+                                        sendLoadGameError(callbackContext, LOAD_GAME_ERROR_FAILED, "executeLoadGame: error while read snapshot");
                                     }
+                                } else {
+                                    sendLoadGameError(callbackContext, loadResult.status, "executeLoadGame error: " + loadResult.message);
                                 }
                             }
-                        });
+                        };
+                        SnapshotLoader.LoadedSave pending = sessionManager.pendingSave(saveName);
+                        SaveJournal.Entry journaled = saveJournal.pendingEntry(saveName);
+                        if (pending != null) {
+                            // Not committed yet, but it is what the game saved last
+                            loadCallback.onResult(SnapshotLoader.LoadResult.success(pending));
+                        } else if (journaled != null) {
+                            // Not uploaded yet, newer than the snapshot
+                            loadCallback.onResult(SnapshotLoader.LoadResult.success(new SnapshotLoader.LoadedSave(saveName, journaled.data, journaled.createdAt)));
+                        } else if (options.optBoolean("cached", false)) {
+                            loadGameFromCache(saveName, loadCallback, callbackContext);
+                        } else if (!savePrefetcher.take(saveName, loadCallback)) {
+                            snapshotLoader.load(saveName, loadCallback);
+                        }
                     } else {
                         Log.w(LOGTAG, "executeLoadGame: not yet signed in");
-                        try {
-                            JSONObject errorJson = new JSONObject();
-                            errorJson.put("status", LOAD_GAME_ERROR_NOT_SIGNED);
-                            errorJson.put("message", "executeLoadGame: not yet signed in");
-                            callbackContext.error(errorJson);
-                        } catch (Exception e2) {
-                            callbackContext.error("executeLoadGame: not yet signed in");
-                        }
+                        sendLoadGameError(callbackContext, LOAD_GAME_ERROR_NOT_SIGNED, "executeLoadGame: not yet signed in");
                     }
                 } catch (Exception e) {
                     Log.w(LOGTAG, "executeLoadGame: unexpected error", e);
+                    sendLoadGameError(callbackContext, LOAD_GAME_ERROR_FAILED, "executeLoadGame: error while opening snapshot");
+                }
+            }
+        });
+    }
+
+    /**
+     * Answers from the local cache when its copy is as recent as the snapshot
+     * known to the metadata index, otherwise loads the snapshot.
+     */
+    private void loadGameFromCache(final String saveName, final SnapshotLoader.Callback loadCallback, final CallbackContext callbackContext) {
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                SnapshotLoader.LoadedSave cached = snapshotCache.lookup(saveName, snapshotMetadataIndex.lastModifiedOf(saveName));
+                if (cached != null) {
                     try {
-                        JSONObject errorJson = new JSONObject();
-                        errorJson.put("status", LOAD_GAME_ERROR_FAILED);
-                        errorJson.put("message", "executeLoadGame: error while opening snapshot");
-                        callbackContext.error(errorJson);
-                    } catch (Exception e2) {
-                        callbackContext.error("executeLoadGame: error while opening snapshot");
+                        JSONObject result = loadedSaveToJson(cached);
+                        result.put("cached", true);
+                        callbackContext.success(result);
+                        return;
+                    } catch (JSONException e) {
+                        Log.w(LOGTAG, "executeLoadGame: unable to send cached save", e);
                     }
                 }
+                cordova.getActivity().runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!savePrefetcher.take(saveName, loadCallback)) {
+                            snapshotLoader.load(saveName, loadCallback);
+                        }
+                    }
+                });
             }
         });
     }
 
-    private void executeDeleteSaveGame(final JSONObject options, final CallbackContext callbackContext) {
-        Log.d(LOGTAG, "executeDeleteSaveGame");
+    private void executeLoadGames(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeLoadGames");
 
         cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
                 try {
                     if (gameHelper.isSignedIn()) {
-                        String saveName = options.getString("saveName");
-                        PendingResult<Snapshots.OpenSnapshotResult> result = Games.Snapshots.open(gameHelper.getApiClient(), saveName, false, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED);
-                        result.setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+                        JSONArray saveNames = options.getJSONArray("saveNames");
+                        List<String> names = new ArrayList<String>();
+                        for (int i = 0; i < saveNames.length(); i++) {
+                            names.add(saveNames.getString(i));
+                        }
+                        int parallelism = options.optInt("parallelism", SnapshotLoader.DEFAULT_PARALLELISM);
+
+                        snapshotLoader.loadAll(names, parallelism, new SnapshotLoader.BulkCallback() {
                             @Override
-                            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                            public void onResults(List<SnapshotLoader.LoadResult> results) {
                                 try {
-                                    if (snapshotResult.getStatus().isSuccess()) {
-                                        Snapshot snapshot = snapshotResult.getSnapshot();
-                                        if (snapshot != null) {
-                                            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
-                                            PendingResult<Snapshots.DeleteSnapshotResult> result = Games.Snapshots.delete(gameHelper.getApiClient(), snapshot.getMetadata());
-                                            result.setResultCallback(new ResultCallback<Snapshots.DeleteSnapshotResult>() {
-                                                 @Override
-                                                 public void onResult(Snapshots.DeleteSnapshotResult snapshotResult) {
-                                                     if (snapshotResult.getStatus().isSuccess()) {
-                                                         callbackContext.success();
-                                                     } else {
-                                                         callbackContext.error("executeDeleteSaveGame error: " + snapshotResult.getStatus().getStatusMessage());
-                                                     }
-                                                 }
-                                             });
+                                    JSONArray saves = new JSONArray();
+                                    for (SnapshotLoader.LoadResult loadResult : results) {
+                                        JSONObject saveJson;
+                                        if (loadResult.isSuccess()) {
+                                            saveJson = loadedSaveToJson(loadResult.save);
                                         } else {
-                                            callbackContext.error("executeDeleteSaveGame: snapshot is null");
+                                            saveJson = new JSONObject();
+                                            saveJson.put("status", loadResult.status);
+                                            saveJson.put("message", loadResult.message);
                                         }
-                                    } else {
-                                        callbackContext.error("executeDeleteSaveGame error: " + snapshotResult.getStatus().getStatusMessage());
+                                        saveJson.put("saveName", loadResult.saveName);
+                                        saves.put(saveJson);
                                     }
+                                    JSONObject result = new JSONObject();
+                                    result.put("saves", saves);
+                                    callbackContext.success(result);
+                                } catch (Exception e) {
+                                    Log.w(LOGTAG, "executeLoadGames: unexpected error", e);
+                                    sendLoadGameError(callbackContext, LOAD_GAME_ERROR_FAILED, "executeLoadGames: error while read snapshots");
+                                }
+                            }
+                        });
+                    } else {
+                        Log.w(LOGTAG, "executeLoadGames: not yet signed in");
+                        sendLoadGameError(callbackContext, LOAD_GAME_ERROR_NOT_SIGNED, "executeLoadGames: not yet signed in");
+                    }
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "executeLoadGames: unexpected error", e);
+                    sendLoadGameError(callbackContext, LOAD_GAME_ERROR_FAILED, "executeLoadGames: error while opening snapshots");
+                }
+            }
+        });
+    }
+
+    private JSONObject loadedSaveToJson(SnapshotLoader.LoadedSave save) throws JSONException {
+        JSONObject playerJson = new JSONObject();
+        playerJson.put("saveData", save.data.length == 0 ? "" : new String(save.data, StandardCharsets.UTF_8));
+        playerJson.put("saveTime", save.saveTime);
+        if (save.recoveredFromCache) {
+            playerJson.put("recoveredFromCache", true);
+        }
+        return playerJson;
+    }
+
+    private void executeLoadGameChunked(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeLoadGameChunked");
+
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (gameHelper.isSignedIn()) {
+                        final String saveName = options.getString("saveName");
+                        final int chunkSize = options.optInt("chunkSize", SnapshotChunkReader.DEFAULT_CHUNK_SIZE);
+                        conflictResolver.open(saveName, false, new ResultCallback<Snapshots.OpenSnapshotResult>() {
+                            @Override
+                            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                                if (snapshotResult.getStatus().isSuccess()) {
+                                    final Snapshot snapshot = snapshotResult.getSnapshot();
+                                    if (snapshot != null && snapshot.getSnapshotContents() != null) {
+                                        // Reading happens off the UI thread, chunk by chunk
+                                        cordova.getThreadPool().execute(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                streamSnapshotChunks(saveName, snapshot, chunkSize, callbackContext);
+                                            }
+                                        });
+                                    } else {
+                                        sendLoadGameError(callbackContext, LOAD_GAME_ERROR_NOT_EXIST, "executeLoadGameChunked: snapshot or snapshotContents is null");
+                                    }
+                                } else if (snapshotResult.getStatus().getStatusCode() == GamesStatusCodes.STATUS_SNAPSHOT_NOT_FOUND) {
+                                    sendLoadGameError(callbackContext, LOAD_GAME_ERROR_NOT_EXIST, "executeLoadGameChunked error: " + snapshotResult.getStatus().getStatusMessage());
+                                } else {
+                                    sendLoadGameError(callbackContext, LOAD_GAME_ERROR_FAILED, "executeLoadGameChunked error: " + snapshotResult.getStatus().getStatusMessage());
+                                }
+                            }
+                        });
+                    } else {
+                        Log.w(LOGTAG, "executeLoadGameChunked: not yet signed in");
+                        sendLoadGameError(callbackContext, LOAD_GAME_ERROR_NOT_SIGNED, "executeLoadGameChunked: not yet signed in");
+                    }
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "executeLoadGameChunked: unexpected error", e);
+                    sendLoadGameError(callbackContext, LOAD_GAME_ERROR_FAILED, "executeLoadGameChunked: error while opening snapshot");
+                }
+            }
+        });
+    }
+
+    private void streamSnapshotChunks(final String saveName, final Snapshot snapshot, int chunkSize, final CallbackContext callbackContext) {
+        InputStream stream = null;
+        try {
+            final Long saveTime = snapshot.getMetadata().getLastModifiedTimestamp();
+            final SnapshotFraming.PayloadStream payload = SnapshotFraming.openStream(snapshot.getSnapshotContents());
+            stream = payload;
+            // The save data length, as reported once done, not the framed size of the snapshot
+            final long totalBytes = payload.length;
+
+            long bytesRead = new SnapshotChunkReader(chunkSize).read(stream, new SnapshotChunkReader.Listener() {
+                @Override
+                public void onChunk(int index, long offset, String data) throws JSONException {
+                    JSONObject chunkJson = new JSONObject();
+                    chunkJson.put("saveName", saveName);
+                    chunkJson.put("chunkIndex", index);
+                    chunkJson.put("offset", offset);
+                    chunkJson.put("totalBytes", totalBytes);
+                    chunkJson.put("saveTime", saveTime);
+                    chunkJson.put("chunkData", data);
+                    chunkJson.put("done", false);
+
+                    PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, chunkJson);
+                    pluginResult.setKeepCallback(true);
+                    callbackContext.sendPluginResult(pluginResult);
+                }
+            });
+
+            snapshotMetadataIndex.record(snapshot.getMetadata().freeze(), bytesRead);
+
+            JSONObject doneJson = new JSONObject();
+            doneJson.put("saveName", saveName);
+            doneJson.put("totalBytes", bytesRead);
+            doneJson.put("saveTime", saveTime);
+            doneJson.put("done", true);
+            callbackContext.success(doneJson);
+        } catch (ChecksummedSaveFormat.CorruptSaveException e) {
+            // Chunks may already have been delivered, the cached copy is not substituted here
+            Log.w(LOGTAG, "executeLoadGameChunked: corrupted save", e);
+            sendLoadGameError(callbackContext, LOAD_GAME_ERROR_CORRUPTED, "executeLoadGameChunked: corrupted save: " + e.getMessage());
+        } catch (Exception e) {
+            Log.w(LOGTAG, "executeLoadGameChunked: unexpected error", e);
+            sendLoadGameError(callbackContext, LOAD_GAME_ERROR_FAILED, "executeLoadGameChunked: error while read snapshot");
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "executeLoadGameChunked: unable to close snapshot stream", e);
+                }
+            }
+            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+        }
+    }
+
+    private void sendLoadGameError(CallbackContext callbackContext, int status, String message) {
+        try {
+            JSONObject errorJson = new JSONObject();
+            errorJson.put("status", status);
+            errorJson.put("message", message);
+            callbackContext.error(errorJson);
+        } catch (Exception e) {
+            callbackContext.error(message);
+        }
+    }
+
+    private void executeDeleteSaveGame(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeDeleteSaveGame");
+
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (gameHelper.isSignedIn()) {
+                        final JSONArray saveNames = options.optJSONArray("saveNames");
+                        final boolean bulk = saveNames != null;
+                        final List<String> names = new ArrayList<String>();
+                        if (bulk) {
+                            for (int i = 0; i < saveNames.length(); i++) {
+                                names.add(saveNames.getString(i));
+                            }
+                        } else {
+                            names.add(options.getString("saveName"));
+                        }
+                        for (String name : names) {
+                            savePrefetcher.invalidate(name);
+                        }
+
+                        // The metadata index is enough to delete, no snapshot contents are downloaded
+                        Map<String, SnapshotMetadata> indexedMetadata = resolveDeleteMetadata(names);
+                        if (indexedMetadata != null) {
+                            deleteSnapshots(names, indexedMetadata, bulk, callbackContext);
+                            return;
+                        }
+                        snapshotMetadataIndex.refresh(false, new SnapshotMetadataIndex.Callback() {
+                            @Override
+                            public void onSuccess() {
+                                try {
+                                    Map<String, SnapshotMetadata> metadataByName = new HashMap<String, SnapshotMetadata>();
+                                    for (String name : names) {
+                                        SnapshotMetadata metadata = snapshotMetadataIndex.metadataFor(name);
+                                        if (metadata != null) {
+                                            metadataByName.put(name, metadata);
+                                        }
+                                    }
+                                    deleteSnapshots(names, metadataByName, bulk, callbackContext);
                                 } catch (Exception e) {
                                     Log.w(LOGTAG, "executeDeleteSaveGame: unexpected error", e);
                                     callbackContext.error("executeDeleteSaveGame: error while deleting snapshot");
                                 }
                             }
+
+                            @Override
+                            public void onError(String message) {
+                                callbackContext.error("executeDeleteSaveGame " + message);
+                            }
                         });
                     } else {
                         Log.w(LOGTAG, "executeDeleteSaveGame: not yet signed in");
@@ -758,12 +1701,723 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
                     }
                 } catch (Exception e) {
                     Log.w(LOGTAG, "executeDeleteSaveGame: unexpected error", e);
-                    callbackContext.error("executeDeleteSaveGame: error while opening snapshot");
+                    callbackContext.error("executeDeleteSaveGame: error while loading snapshots");
                 }
             }
         });
     }
 
+    /**
+     * Returns the metadata of all the names from the index, or null if any of them is not indexed.
+     */
+    private Map<String, SnapshotMetadata> resolveDeleteMetadata(List<String> names) {
+        Map<String, SnapshotMetadata> metadataByName = new HashMap<String, SnapshotMetadata>();
+        for (String name : names) {
+            SnapshotMetadata metadata = snapshotMetadataIndex.metadataFor(name);
+            if (metadata == null) {
+                return null;
+            }
+            metadataByName.put(name, metadata);
+        }
+        return metadataByName;
+    }
+
+    private void deleteSnapshots(final List<String> names, Map<String, SnapshotMetadata> metadataByName, final boolean bulk, final CallbackContext callbackContext) throws JSONException {
+        final JSONArray deleted = new JSONArray();
+        final JSONArray failed = new JSONArray();
+        final AtomicInteger remaining = new AtomicInteger(names.size());
+
+        for (final String name : names) {
+            SnapshotMetadata metadata = metadataByName.get(name);
+            if (metadata == null) {
+                synchronized (failed) {
+                    if (saveJournal.pendingEntry(name) != null || sessionManager.hasSession(name)) {
+                        // Not uploaded yet, only kept locally
+                        discardLocalSave(name);
+                        deleted.put(name);
+                    } else {
+                        failed.put(new JSONObject().put("saveName", name).put("message", "snapshot not found"));
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    sendDeleteResult(bulk, deleted, failed, callbackContext);
+                }
+                continue;
+            }
+
+            PendingResult<Snapshots.DeleteSnapshotResult> result = Games.Snapshots.delete(gameHelper.getApiClient(), metadata);
+            result.setResultCallback(new ResultCallback<Snapshots.DeleteSnapshotResult>() {
+                @Override
+                public void onResult(Snapshots.DeleteSnapshotResult snapshotResult) {
+                    synchronized (failed) {
+                        if (snapshotResult.getStatus().isSuccess()) {
+                            snapshotMetadataIndex.remove(name);
+                            discardLocalSave(name);
+                            // A sharded save leaves its shards behind otherwise
+                            shardedSnapshotIO.deleteShardsOf(name);
+                            deleted.put(name);
+                        } else {
+                            try {
+                                failed.put(new JSONObject().put("saveName", name).put("message", snapshotResult.getStatus().getStatusMessage()));
+                            } catch (JSONException e) {
+                                failed.put(name);
+                            }
+                        }
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        sendDeleteResult(bulk, deleted, failed, callbackContext);
+                    }
+                }
+            });
+        }
+
+        if (names.isEmpty()) {
+            sendDeleteResult(bulk, deleted, failed, callbackContext);
+        }
+    }
+
+    /**
+     * Forgets every local copy of a deleted save, so it is neither loaded nor
+     * uploaded again.
+     */
+    private void discardLocalSave(String name) {
+        snapshotCache.remove(name);
+        saveJournal.discard(name);
+        sessionManager.discard(name);
+    }
+
+    private void sendDeleteResult(boolean bulk, JSONArray deleted, JSONArray failed, CallbackContext callbackContext) {
+        if (bulk) {
+            try {
+                JSONObject result = new JSONObject();
+                result.put("deleted", deleted);
+                result.put("failed", failed);
+                callbackContext.success(result);
+            } catch (JSONException e) {
+                callbackContext.error("executeDeleteSaveGame: error while deleting snapshots");
+            }
+        } else if (deleted.length() > 0) {
+            callbackContext.success();
+        } else {
+            JSONObject failure = failed.optJSONObject(0);
+            callbackContext.error("executeDeleteSaveGame error: " + (failure != null ? failure.optString("message") : "snapshot not deleted"));
+        }
+    }
+
+    private void executeListSaves(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeListSaves");
+
+        final boolean forceReload = options != null && options.optBoolean("forceReload", false);
+        final long maxAge = options != null ? options.optLong("maxAge", SnapshotMetadataIndex.DEFAULT_MAX_AGE) : SnapshotMetadataIndex.DEFAULT_MAX_AGE;
+        final boolean cachedOnly = options != null && options.optBoolean("cachedOnly", false);
+
+        try {
+            if (cachedOnly || (!forceReload && snapshotMetadataIndex.isFresh(maxAge))) {
+                callbackContext.success(snapshotMetadataIndex.toJson());
+                return;
+            }
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeListSaves: unexpected error", e);
+        }
+
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                snapshotMetadataIndex.refresh(forceReload, new SnapshotMetadataIndex.Callback() {
+                    @Override
+                    public void onSuccess() {
+                        try {
+                            callbackContext.success(snapshotMetadataIndex.toJson());
+                        } catch (JSONException e) {
+                            Log.w(LOGTAG, "executeListSaves: unexpected error", e);
+                            callbackContext.error("executeListSaves: error while listing saves");
+                        }
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        callbackContext.error("executeListSaves: " + message);
+                    }
+                });
+            }
+        });
+    }
+
+    private void executeSetPrefetchSaves(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeSetPrefetchSaves");
+
+        try {
+            JSONObject prefetch = new JSONObject();
+            prefetch.put("saveNames", options.optJSONArray("saveNames") != null ? options.getJSONArray("saveNames") : new JSONArray());
+            prefetch.put("maxEntries", options.optInt("maxEntries", SavePrefetcher.DEFAULT_MAX_ENTRIES));
+            prefetch.put("maxBytes", options.optLong("maxBytes", SavePrefetcher.DEFAULT_MAX_BYTES));
+
+            cordova.getContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+                    .putString(PREFS_KEY_PREFETCH, prefetch.toString())
+                    .apply();
+            configurePrefetcher();
+
+            if (gameHelper.isSignedIn()) {
+                savePrefetcher.prefetch();
+            }
+            callbackContext.success();
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeSetPrefetchSaves: unexpected error", e);
+            callbackContext.error("executeSetPrefetchSaves: error while storing prefetch configuration");
+        }
+    }
+
+    private void executeGetPrefetchStats(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeGetPrefetchStats");
+
+        try {
+            callbackContext.success(savePrefetcher.statsToJson());
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeGetPrefetchStats: unexpected error", e);
+            callbackContext.error("executeGetPrefetchStats: error while reading stats");
+        }
+    }
+
+    /**
+     * The saves to prefetch come from setPrefetchSaves or, until it is called,
+     * from the PlayGamesPrefetchSaves preference (comma separated saveNames).
+     */
+    private void configurePrefetcher() {
+        List<String> names = new ArrayList<String>();
+        int maxEntries = SavePrefetcher.DEFAULT_MAX_ENTRIES;
+        long maxBytes = SavePrefetcher.DEFAULT_MAX_BYTES;
+
+        String stored = cordova.getContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).getString(PREFS_KEY_PREFETCH, null);
+        if (stored != null) {
+            try {
+                JSONObject prefetch = new JSONObject(stored);
+                JSONArray saveNames = prefetch.getJSONArray("saveNames");
+                for (int i = 0; i < saveNames.length(); i++) {
+                    names.add(saveNames.getString(i));
+                }
+                maxEntries = prefetch.optInt("maxEntries", maxEntries);
+                maxBytes = prefetch.optLong("maxBytes", maxBytes);
+            } catch (JSONException e) {
+                Log.w(LOGTAG, "configurePrefetcher: ignoring invalid stored configuration", e);
+            }
+        } else if (preferences != null) {
+            for (String name : preferences.getString(PREFERENCE_PREFETCH_SAVES, "").split(",")) {
+                if (name.trim().length() > 0) {
+                    names.add(name.trim());
+                }
+            }
+        }
+
+        savePrefetcher.configure(names, maxEntries, maxBytes);
+    }
+
+    private void executeSetSaveCacheOptions(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeSetSaveCacheOptions");
+
+        try {
+            JSONObject cache = new JSONObject();
+            cache.put("maxBytes", options.optLong("maxBytes", LocalSnapshotCache.DEFAULT_MAX_BYTES));
+            cache.put("pinned", options.optJSONArray("pinned") != null ? options.getJSONArray("pinned") : new JSONArray());
+
+            cordova.getContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+                    .putString(PREFS_KEY_SAVE_CACHE, cache.toString())
+                    .apply();
+            configureSnapshotCache();
+            callbackContext.success();
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeSetSaveCacheOptions: unexpected error", e);
+            callbackContext.error("executeSetSaveCacheOptions: error while storing cache configuration");
+        }
+    }
+
+    private void executeGetSaveCacheStats(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeGetSaveCacheStats");
+
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callbackContext.success(snapshotCache.statsToJson());
+                } catch (JSONException e) {
+                    Log.w(LOGTAG, "executeGetSaveCacheStats: unexpected error", e);
+                    callbackContext.error("executeGetSaveCacheStats: error while reading stats");
+                }
+            }
+        });
+    }
+
+    /**
+     * The cache budget comes from setSaveCacheOptions or, until it is called,
+     * from the PlayGamesSaveCacheBytes preference.
+     */
+    private void configureSnapshotCache() {
+        List<String> pinned = new ArrayList<String>();
+        long maxBytes = LocalSnapshotCache.DEFAULT_MAX_BYTES;
+
+        String stored = cordova.getContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).getString(PREFS_KEY_SAVE_CACHE, null);
+        if (stored != null) {
+            try {
+                JSONObject cache = new JSONObject(stored);
+                JSONArray saveNames = cache.getJSONArray("pinned");
+                for (int i = 0; i < saveNames.length(); i++) {
+                    pinned.add(saveNames.getString(i));
+                }
+                maxBytes = cache.optLong("maxBytes", maxBytes);
+            } catch (JSONException e) {
+                Log.w(LOGTAG, "configureSnapshotCache: ignoring invalid stored configuration", e);
+            }
+        } else if (preferences != null) {
+            maxBytes = preferences.getInteger(PREFERENCE_SAVE_CACHE_BYTES, (int) maxBytes);
+        }
+
+        snapshotCache.configure(maxBytes, pinned);
+    }
+
+    private void executeSetConflictResolution(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeSetConflictResolution");
+
+        String strategy = options.optString("strategy", SnapshotConflictResolver.STRATEGY_MOST_RECENTLY_MODIFIED);
+        if (!SnapshotConflictResolver.isStrategy(strategy)) {
+            callbackContext.error("executeSetConflictResolution: unknown strategy " + strategy);
+            return;
+        }
+
+        // The previous listener stops receiving conflicts, its callback is released
+        if (conflictCallbackContext != null) {
+            PluginResult closing = new PluginResult(PluginResult.Status.NO_RESULT);
+            closing.setKeepCallback(false);
+            conflictCallbackContext.sendPluginResult(closing);
+            conflictCallbackContext = null;
+        }
+
+        if (!SnapshotConflictResolver.STRATEGY_JS.equals(strategy)) {
+            conflictResolver.setStrategy(strategy, null);
+            callbackContext.success();
+            return;
+        }
+
+        // Conflicts are streamed to the success callback until the strategy changes
+        conflictCallbackContext = callbackContext;
+        conflictResolver.setStrategy(strategy, new SnapshotConflictResolver.ConflictListener() {
+            @Override
+            public void onConflict(SnapshotConflictResolver.Conflict conflict) throws JSONException {
+                PluginResult result = new PluginResult(PluginResult.Status.OK, conflict.toJson());
+                result.setKeepCallback(true);
+                callbackContext.sendPluginResult(result);
+            }
+        });
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private void executeResolveConflict(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeResolveConflict");
+
+        try {
+            String conflictId = options.getString("conflictId");
+            byte[] saveData = options.getString("saveData").getBytes(StandardCharsets.UTF_8);
+            if (conflictResolver.completeMerge(conflictId, saveData)) {
+                callbackContext.success();
+            } else {
+                callbackContext.error("executeResolveConflict: unknown or expired conflictId");
+            }
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeResolveConflict: unexpected error", e);
+            callbackContext.error("executeResolveConflict: conflictId and saveData are required");
+        }
+    }
+
+    private void executeGetConflictStats(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeGetConflictStats");
+
+        try {
+            callbackContext.success(conflictResolver.statsToJson());
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeGetConflictStats: unexpected error", e);
+            callbackContext.error("executeGetConflictStats: error while reading stats");
+        }
+    }
+
+    private void executeBeginSaveSession(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeBeginSaveSession");
+
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (gameHelper.isSignedIn()) {
+                        String saveName = options.getString("saveName");
+                        if (SnapshotMetadataIndex.isInternal(saveName)) {
+                            callbackContext.error("executeBeginSaveSession: save names starting with " + SnapshotMetadataIndex.INTERNAL_PREFIX + " are reserved");
+                            return;
+                        }
+                        long idleTimeout = options.optLong("idleTimeout", SnapshotSessionManager.DEFAULT_IDLE_TIMEOUT);
+                        savePrefetcher.invalidate(saveName);
+                        sessionManager.begin(saveName, idleTimeout, sessionCallback("executeBeginSaveSession", callbackContext));
+                    } else {
+                        Log.w(LOGTAG, "executeBeginSaveSession: not yet signed in");
+                        callbackContext.error("executeBeginSaveSession: not yet signed in");
+                    }
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "executeBeginSaveSession: unexpected error", e);
+                    callbackContext.error("executeBeginSaveSession: error while open snapshot");
+                }
+            }
+        });
+    }
+
+    private void executeWriteSaveSession(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeWriteSaveSession");
+
+        try {
+            String saveName = options.getString("saveName");
+            byte[] saveData = options.getString("saveData").getBytes(StandardCharsets.UTF_8);
+            savePrefetcher.invalidate(saveName);
+            sessionManager.write(saveName, saveData, gameHelper.isSignedIn() ? prepareMetadata(options) : null,
+                    sessionCallback("executeWriteSaveSession", callbackContext));
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeWriteSaveSession: unexpected error", e);
+            callbackContext.error("executeWriteSaveSession: saveName and saveData are required");
+        }
+    }
+
+    private void executeCommitSaveSession(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeCommitSaveSession");
+
+        try {
+            sessionManager.commit(options.getString("saveName"), sessionCallback("executeCommitSaveSession", callbackContext));
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeCommitSaveSession: unexpected error", e);
+            callbackContext.error("executeCommitSaveSession: saveName is required");
+        }
+    }
+
+    private void executeCloseSaveSession(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeCloseSaveSession");
+
+        try {
+            sessionManager.close(options.getString("saveName"), sessionCallback("executeCloseSaveSession", callbackContext));
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeCloseSaveSession: unexpected error", e);
+            callbackContext.error("executeCloseSaveSession: saveName is required");
+        }
+    }
+
+    private SnapshotSessionManager.Callback sessionCallback(final String action, final CallbackContext callbackContext) {
+        return new SnapshotSessionManager.Callback() {
+            @Override
+            public void onSuccess(JSONObject result) {
+                callbackContext.success(result);
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.w(LOGTAG, action + ": " + message);
+                callbackContext.error(action + ": " + message);
+            }
+        };
+    }
+
+    private void executeSetSyncOptions(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeSetSyncOptions");
+
+        syncScheduler.configure(options.optBoolean("enabled", true),
+                options.optLong("interval", SyncScheduler.DEFAULT_INTERVAL / 1000) * 1000L,
+                options.optInt("minBatteryPercent", SyncScheduler.DEFAULT_MIN_BATTERY_PERCENT),
+                options.optLong("meteredBytesPerHour", SyncScheduler.DEFAULT_METERED_BYTES_PER_WINDOW));
+        callbackContext.success();
+    }
+
+    private void executeSyncNow(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeSyncNow");
+
+        syncScheduler.syncNow(new SyncScheduler.Callback() {
+            @Override
+            public void onFinished(long bytesTransferred, String error) {
+                if (error != null) {
+                    callbackContext.error("executeSyncNow: " + error);
+                    return;
+                }
+                try {
+                    JSONObject result = new JSONObject();
+                    result.put("bytesTransferred", bytesTransferred);
+                    callbackContext.success(result);
+                } catch (JSONException e) {
+                    callbackContext.success();
+                }
+            }
+        });
+    }
+
+    private void executeGetSyncStatus(final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeGetSyncStatus");
+
+        try {
+            callbackContext.success(syncScheduler.statusToJson());
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeGetSyncStatus: unexpected error", e);
+            callbackContext.error("executeGetSyncStatus: error while reading status");
+        }
+    }
+
+    /**
+     * Uploads the journal, then refreshes the metadata index and reloads every
+     * cached save that was modified elsewhere since it was cached.
+     */
+    private void runSnapshotSync(final SyncScheduler.Callback callback) {
+        if (!gameHelper.isSignedIn()) {
+            callback.onFinished(0, "not yet signed in");
+            return;
+        }
+        saveJournal.replay();
+        snapshotMetadataIndex.refresh(true, new SnapshotMetadataIndex.Callback() {
+            @Override
+            public void onSuccess() {
+                // The cache is read from disk the first time
+                cordova.getThreadPool().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<String> stale = new ArrayList<String>();
+                        for (String name : snapshotCache.names()) {
+                            if (saveJournal.pendingEntry(name) != null || sessionManager.hasSession(name)) {
+                                continue;
+                            }
+                            long remoteTime = snapshotMetadataIndex.lastModifiedOf(name);
+                            if (remoteTime < 0) {
+                                // Deleted from another device
+                                snapshotCache.remove(name);
+                            } else if (remoteTime > snapshotCache.saveTimeOf(name)) {
+                                savePrefetcher.invalidate(name);
+                                stale.add(name);
+                            }
+                        }
+                        snapshotLoader.loadAll(stale, SnapshotLoader.DEFAULT_PARALLELISM, new SnapshotLoader.BulkCallback() {
+                            @Override
+                            public void onResults(List<SnapshotLoader.LoadResult> results) {
+                                long bytes = 0;
+                                String error = null;
+                                for (SnapshotLoader.LoadResult result : results) {
+                                    if (result.isSuccess()) {
+                                        bytes += result.save.data.length;
+                                    } else if (result.status != LOAD_GAME_ERROR_NOT_EXIST) {
+                                        error = result.saveName + ": " + result.message;
+                                    }
+                                }
+                                callback.onFinished(bytes, error);
+                            }
+                        });
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String message) {
+                callback.onFinished(0, message);
+            }
+        });
+    }
+
+    private void executeSaveGameSharded(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeSaveGameSharded");
+
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (gameHelper.isSignedIn()) {
+                        String saveName = options.getString("saveName");
+                        if (SnapshotMetadataIndex.isInternal(saveName)) {
+                            callbackContext.error("executeSaveGameSharded: save names starting with " + SnapshotMetadataIndex.INTERNAL_PREFIX + " are reserved");
+                            return;
+                        }
+                        byte[] saveData = options.getString("saveData").getBytes(StandardCharsets.UTF_8);
+                        savePrefetcher.invalidate(saveName);
+                        shardedSnapshotIO.save(saveName, saveData, options.optInt("shardSize", 0),
+                                options.optInt("parallelism", ShardedSnapshotIO.DEFAULT_PARALLELISM), new ShardedSnapshotIO.Callback() {
+                                    @Override
+                                    public void onSuccess(JSONObject result) {
+                                        callbackContext.success(result);
+                                    }
+
+                                    @Override
+                                    public void onError(int status, String message) {
+                                        callbackContext.error("executeSaveGameSharded: " + message);
+                                    }
+                                });
+                    } else {
+                        Log.w(LOGTAG, "executeSaveGameSharded: not yet signed in");
+                        callbackContext.error("executeSaveGameSharded: not yet signed in");
+                    }
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "executeSaveGameSharded: unexpected error", e);
+                    callbackContext.error("executeSaveGameSharded: error while open snapshot");
+                }
+            }
+        });
+    }
+
+    private void executeLoadGameSharded(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeLoadGameSharded");
+
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (gameHelper.isSignedIn()) {
+                        String saveName = options.getString("saveName");
+                        shardedSnapshotIO.load(saveName, options.optInt("parallelism", ShardedSnapshotIO.DEFAULT_PARALLELISM), new ShardedSnapshotIO.Callback() {
+                            @Override
+                            public void onSuccess(JSONObject result) {
+                                callbackContext.success(result);
+                            }
+
+                            @Override
+                            public void onError(int status, String message) {
+                                sendLoadGameError(callbackContext, status, "executeLoadGameSharded: " + message);
+                            }
+                        });
+                    } else {
+                        Log.w(LOGTAG, "executeLoadGameSharded: not yet signed in");
+                        sendLoadGameError(callbackContext, LOAD_GAME_ERROR_NOT_SIGNED, "executeLoadGameSharded: not yet signed in");
+                    }
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "executeLoadGameSharded: unexpected error", e);
+                    sendLoadGameError(callbackContext, LOAD_GAME_ERROR_FAILED, "executeLoadGameSharded: error while opening snapshot");
+                }
+            }
+        });
+    }
+
+    private void executePutSaveValue(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executePutSaveValue");
+
+        try {
+            final String namespace = options.getString("namespace");
+            Map<String, String> updates = new HashMap<String, String>();
+            JSONObject values = options.optJSONObject("values");
+            if (values != null) {
+                Iterator<String> keys = values.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    updates.put(key, values.getString(key));
+                }
+            } else {
+                updates.put(options.getString("key"), options.getString("value"));
+            }
+
+            keyValueSaveStore.update(namespace, updates, new KeyValueSaveStore.Callback() {
+                @Override
+                public void onSuccess(KeyValueSaveStore.Namespace ns) {
+                    callbackContext.success();
+                }
+
+                @Override
+                public void onError(String message) {
+                    callbackContext.error("executePutSaveValue: " + message);
+                }
+            });
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executePutSaveValue: unexpected error", e);
+            callbackContext.error("executePutSaveValue: error while storing value");
+        }
+    }
+
+    private void executeGetSaveValue(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeGetSaveValue");
+
+        try {
+            final String namespace = options.getString("namespace");
+            final String key = options.optString("key", null);
+
+            keyValueSaveStore.load(namespace, new KeyValueSaveStore.Callback() {
+                @Override
+                public void onSuccess(KeyValueSaveStore.Namespace ns) {
+                    try {
+                        JSONObject result = new JSONObject();
+                        result.put("namespace", namespace);
+                        synchronized (keyValueSaveStore) {
+                            if (key != null) {
+                                String value = ns.values.get(key);
+                                result.put("key", key);
+                                result.put("exists", value != null);
+                                result.put("value", value == null ? JSONObject.NULL : value);
+                            } else {
+                                result.put("values", new JSONObject(ns.values));
+                            }
+                        }
+                        callbackContext.success(result);
+                    } catch (JSONException e) {
+                        Log.w(LOGTAG, "executeGetSaveValue: unexpected error", e);
+                        callbackContext.error("executeGetSaveValue: error while reading value");
+                    }
+                }
+
+                @Override
+                public void onError(String message) {
+                    callbackContext.error("executeGetSaveValue: " + message);
+                }
+            });
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeGetSaveValue: unexpected error", e);
+            callbackContext.error("executeGetSaveValue: error while reading value");
+        }
+    }
+
+    private void executeDeleteSaveValue(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeDeleteSaveValue");
+
+        try {
+            final String namespace = options.getString("namespace");
+            Map<String, String> updates = new HashMap<String, String>();
+            JSONArray keys = options.optJSONArray("keys");
+            if (keys != null) {
+                for (int i = 0; i < keys.length(); i++) {
+                    updates.put(keys.getString(i), null);
+                }
+            } else {
+                updates.put(options.getString("key"), null);
+            }
+
+            keyValueSaveStore.update(namespace, updates, new KeyValueSaveStore.Callback() {
+                @Override
+                public void onSuccess(KeyValueSaveStore.Namespace ns) {
+                    callbackContext.success();
+                }
+
+                @Override
+                public void onError(String message) {
+                    callbackContext.error("executeDeleteSaveValue: " + message);
+                }
+            });
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeDeleteSaveValue: unexpected error", e);
+            callbackContext.error("executeDeleteSaveValue: error while deleting value");
+        }
+    }
+
+    private void executeFlushSaveValues(final JSONObject options, final CallbackContext callbackContext) {
+        Log.d(LOGTAG, "executeFlushSaveValues");
+
+        try {
+            final String namespace = options.getString("namespace");
+            keyValueSaveStore.flush(namespace, new KeyValueSaveStore.Callback() {
+                @Override
+                public void onSuccess(KeyValueSaveStore.Namespace ns) {
+                    callbackContext.success();
+                }
+
+                @Override
+                public void onError(String message) {
+                    callbackContext.error("executeFlushSaveValues: " + message);
+                }
+            });
+        } catch (JSONException e) {
+            Log.w(LOGTAG, "executeFlushSaveValues: unexpected error", e);
+            callbackContext.error("executeFlushSaveValues: error while flushing values");
+        }
+    }
+
     @Override
     public void onSignInFailed() {
         authCallbackContext.error("SIGN IN FAILED");
@@ -771,7 +2425,26 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
 
     @Override
     public void onSignInSucceeded() {
-        authCallbackContext.success("SIGN IN SUCCESS");
+        updatePlayerProfile();
+        String playerId = Games.Players.getCurrentPlayerId(gameHelper.getApiClient());
+        if (playerId != null) {
+            saveJournal.setPlayer(playerId);
+            snapshotMetadataIndex.setPlayer(playerId);
+            keyValueSaveStore.setPlayer(playerId);
+            snapshotCache.setPlayer(playerId);
+            achievementCache.setPlayer(playerId);
+            eventCounters.setPlayer(playerId);
+        }
+        saveJournal.replay();
+        savePrefetcher.prefetch();
+        leaderboardMetadataCache.refreshIfStale();
+        achievementCache.refreshIfStale();
+        eventCounters.start();
+        syncScheduler.start();
+        keyValueSaveStore.resumePendingFlushes();
+        if (authCallbackContext != null) {
+            authCallbackContext.success("SIGN IN SUCCESS");
+        }
     }
 
     @Override
@@ -794,7 +2467,35 @@ public class PlayGamesServices extends CordovaPlugin implements GameHelperListen
     public void onStop() {
         super.onStop();
         if (gameHelper != null) {
-            gameHelper.onStop();
+            final int stop = ++stops;
+            eventCounters.flush();
+            eventCounters.stop();
+            syncScheduler.stop();
+            // The client disconnects once the key-value flushes finished and
+            // the session commits are issued, or after STOP_TIMEOUT
+            final Runnable disconnect = new Runnable() {
+                @Override
+                public void run() {
+                    if (stop == stops) {
+                        stops++;
+                        gameHelper.onStop();
+                    }
+                }
+            };
+            keyValueSaveStore.flushAll(new Runnable() {
+                @Override
+                public void run() {
+                    // Waiting for the session writes happens off the UI thread
+                    cordova.getThreadPool().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            sessionManager.commitAll();
+                            cordova.getActivity().runOnUiThread(disconnect);
+                        }
+                    });
+                }
+            });
+            stopHandler.postDelayed(disconnect, STOP_TIMEOUT);
         }
     }
 }
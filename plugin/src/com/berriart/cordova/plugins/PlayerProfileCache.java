@@ -0,0 +1,170 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.games.Player;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Locally persisted profile of the signed in player, serialized once per
+ * change so showPlayer is answered from memory, and answered on a cold start
+ * before the connection completes. Cleared on sign-out; replaced when another
+ * player signs in.
+ *
+ * The avatars are pinned in the {@link AvatarCache}, and their local URIs are
+ * added to the profile once downloaded.
+ */
+class PlayerProfileCache {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    private static final String AREA = "index";
+    private static final String FILE_NAME = "player.json";
+
+    private static final String[][] AVATAR_FIELDS = {{"iconImageUrl", "iconImageUri"}, {"hiResIconImageUrl", "hiResIconImageUri"}};
+
+    private final AvatarCache avatarCache;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final File file;
+    private JSONObject player;
+    private boolean restored;
+
+    PlayerProfileCache(Context context, AvatarCache avatarCache) {
+        this.avatarCache = avatarCache;
+        this.file = new File(PluginStorage.getDirectory(context, AREA), FILE_NAME);
+        avatarCache.setListener(new AvatarCache.Listener() {
+            @Override
+            public void onCached(String url, String localUri) {
+                onAvatarCached(url, localUri);
+            }
+        });
+    }
+
+    /**
+     * Returns the last known profile, or null. The object is shared and must
+     * not be modified.
+     */
+    synchronized JSONObject get() {
+        restore();
+        return player;
+    }
+
+    /**
+     * Returns the profile if it belongs to the player, or null.
+     */
+    synchronized JSONObject get(String playerId) {
+        restore();
+        return player != null && player.optString("playerId").equals(playerId) ? player : null;
+    }
+
+    /**
+     * Serializes the profile, persisting it when it changed.
+     */
+    JSONObject update(Player current) throws JSONException {
+        JSONObject playerJson = new JSONObject();
+        playerJson.put("displayName", current.getDisplayName());
+        playerJson.put("playerId", current.getPlayerId());
+        playerJson.put("title", current.getTitle());
+        playerJson.put("iconImageUrl", current.getIconImageUrl());
+        playerJson.put("hiResIconImageUrl", current.getHiResImageUrl());
+        avatarCache.pin(Arrays.asList(current.getIconImageUrl(), current.getHiResImageUrl()));
+        for (String[] field : AVATAR_FIELDS) {
+            String localUri = avatarCache.localUri(playerJson.optString(field[0], null));
+            playerJson.put(field[1], localUri == null ? JSONObject.NULL : localUri);
+        }
+        synchronized (this) {
+            restore();
+            if (player != null && player.toString().equals(playerJson.toString())) {
+                return player;
+            }
+            player = playerJson;
+        }
+        persist();
+        return playerJson;
+    }
+
+    void clear() {
+        avatarCache.pin(Collections.<String>emptyList());
+        synchronized (this) {
+            restored = true;
+            player = null;
+        }
+        persist();
+    }
+
+    private void onAvatarCached(String url, String localUri) {
+        synchronized (this) {
+            restore();
+            if (player == null) {
+                return;
+            }
+            JSONObject playerJson = null;
+            try {
+                for (String[] field : AVATAR_FIELDS) {
+                    if (url.equals(player.optString(field[0], null)) && !localUri.equals(player.optString(field[1], null))) {
+                        // The cached object is shared, it is replaced instead of modified
+                        if (playerJson == null) {
+                            playerJson = new JSONObject(player.toString());
+                        }
+                        playerJson.put(field[1], localUri);
+                    }
+                }
+            } catch (JSONException e) {
+                Log.w(LOGTAG, "PlayerProfileCache: unable to add avatar", e);
+                return;
+            }
+            if (playerJson == null) {
+                return;
+            }
+            player = playerJson;
+        }
+        persist();
+    }
+
+    private void restore() {
+        if (restored) {
+            return;
+        }
+        restored = true;
+        try {
+            byte[] data = PluginStorage.readFully(file);
+            if (data != null) {
+                player = new JSONObject(new String(data, StandardCharsets.UTF_8)).optJSONObject("player");
+            }
+            if (player != null) {
+                // The profile keeps answering with the local URIs until the next sign-in
+                avatarCache.pin(Arrays.asList(player.optString(AVATAR_FIELDS[0][0], null), player.optString(AVATAR_FIELDS[1][0], null)));
+            }
+        } catch (Exception e) {
+            Log.w(LOGTAG, "PlayerProfileCache: ignoring unreadable profile", e);
+            player = null;
+        }
+    }
+
+    private void persist() {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JSONObject json = new JSONObject();
+                    synchronized (PlayerProfileCache.this) {
+                        json.put("player", player == null ? JSONObject.NULL : player);
+                    }
+                    PluginStorage.writeAtomically(file, json.toString().getBytes(StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "PlayerProfileCache: unable to persist profile", e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,141 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Small helpers around the private directory where the plugin keeps its local
+ * state (save indexes, caches, journals...).
+ */
+class PluginStorage {
+
+    private static final String ROOT_DIRECTORY = "play-games-services";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private PluginStorage() {
+    }
+
+    /**
+     * Returns (and creates if needed) a sub directory of the plugin storage.
+     */
+    static File getDirectory(Context context, String area) {
+        File directory = new File(new File(context.getFilesDir(), ROOT_DIRECTORY), area);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create plugin directory " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Returns (and creates if needed) the directory of an area holding the
+     * state of one player, so it is never served to another player.
+     */
+    static File getPlayerDirectory(Context context, String area, String playerId) {
+        return getDirectory(context, area + File.separator + fileNameFor(playerId, ""));
+    }
+
+    /**
+     * Maps an arbitrary key (eg. a saveName) to a safe file name.
+     */
+    static String fileNameFor(String key, String extension) {
+        try {
+            return URLEncoder.encode(key, "UTF-8").replace("*", "%2A") + extension;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Maps a key of any length (eg. an image URL) to a file name of fixed
+     * length. The key cannot be recovered from the name.
+     */
+    static String hashedFileNameFor(String key, String extension) {
+        try {
+            return sha256(key.getBytes("UTF-8")) + extension;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the lowercase hex SHA-256 of the data.
+     */
+    static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the key a file name was made for by {@link #fileNameFor}, or
+     * null when the name has another extension.
+     */
+    static String keyFor(String fileName, String extension) {
+        if (!fileName.endsWith(extension)) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(fileName.substring(0, fileName.length() - extension.length()), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the file through a temporary sibling which is synced to disk and
+     * then renamed, so readers see either the old or the new content.
+     */
+    static void writeAtomically(File file, byte[] data) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Returns the file contents or null when the file does not exist.
+     */
+    static byte[] readFully(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
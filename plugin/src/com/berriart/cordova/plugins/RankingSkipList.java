@@ -0,0 +1,191 @@
+package com.berriart.cordova.plugins;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Skip list keeping its elements sorted and answering the position of an
+ * element, or of the element at a position, in O(log n). Every link stores
+ * how many elements it skips, so positions are summed while searching.
+ *
+ * Elements comparing as equal are considered the same element.
+ */
+class RankingSkipList<T> {
+
+    private static final int MAX_LEVEL = 24;
+    /** One in four nodes of a level is promoted to the next one. */
+    private static final int PROMOTION_ODDS = 4;
+
+    private static class Node<T> {
+        final T value;
+        final Node<T>[] next;
+        /** Number of positions the link of every level moves forward. */
+        final int[] span;
+
+        @SuppressWarnings("unchecked")
+        Node(T value, int level) {
+            this.value = value;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+    }
+
+    private final Comparator<? super T> comparator;
+    private final Node<T> head = new Node<T>(null, MAX_LEVEL);
+    private final Random random = new Random();
+    private int level = 1;
+    private int size;
+
+    RankingSkipList(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Inserts the element, replacing an equal one.
+     */
+    @SuppressWarnings("unchecked")
+    void add(T value) {
+        remove(value);
+
+        Node<T>[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node<T> node = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (node.next[i] != null && comparator.compare(node.next[i].value, value) < 0) {
+                rank[i] += node.span[i];
+                node = node.next[i];
+            }
+            update[i] = node;
+        }
+
+        int nodeLevel = randomLevel();
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = size;
+            }
+            level = nodeLevel;
+        }
+
+        Node<T> inserted = new Node<T>(value, nodeLevel);
+        for (int i = 0; i < nodeLevel; i++) {
+            inserted.next[i] = update[i].next[i];
+            update[i].next[i] = inserted;
+            inserted.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+        size++;
+    }
+
+    /**
+     * Removes the element equal to value.
+     *
+     * @return whether there was one
+     */
+    @SuppressWarnings("unchecked")
+    boolean remove(T value) {
+        Node<T>[] update = new Node[MAX_LEVEL];
+        Node<T> node = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (node.next[i] != null && comparator.compare(node.next[i].value, value) < 0) {
+                node = node.next[i];
+            }
+            update[i] = node;
+        }
+
+        Node<T> removed = node.next[0];
+        if (removed == null || comparator.compare(removed.value, value) != 0) {
+            return false;
+        }
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == removed) {
+                update[i].span[i] += removed.span[i] - 1;
+                update[i].next[i] = removed.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns the number of elements ordered before value, whether or not it
+     * is in the list.
+     */
+    int countBefore(T value) {
+        int rank = 0;
+        Node<T> node = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (node.next[i] != null && comparator.compare(node.next[i].value, value) < 0) {
+                rank += node.span[i];
+                node = node.next[i];
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the element at the zero-based position, or null.
+     */
+    T get(int index) {
+        if (index < 0 || index >= size) {
+            return null;
+        }
+        int target = index + 1;
+        int traversed = 0;
+        Node<T> node = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (node.next[i] != null && traversed + node.span[i] <= target) {
+                traversed += node.span[i];
+                node = node.next[i];
+            }
+            if (traversed == target) {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first elements in order.
+     */
+    List<T> first(int count) {
+        List<T> values = new ArrayList<T>(Math.min(count, size));
+        for (Node<T> node = head.next[0]; node != null && values.size() < count; node = node.next[0]) {
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    void clear() {
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            head.next[i] = null;
+            head.span[i] = 0;
+        }
+        level = 1;
+        size = 0;
+    }
+
+    private int randomLevel() {
+        int nodeLevel = 1;
+        while (nodeLevel < MAX_LEVEL && random.nextInt(PROMOTION_ODDS) == 0) {
+            nodeLevel++;
+        }
+        return nodeLevel;
+    }
+}
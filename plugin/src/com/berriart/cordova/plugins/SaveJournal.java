@@ -0,0 +1,503 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+import com.google.android.gms.games.snapshot.Snapshots;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Crash-safe journal of saves waiting to be uploaded. A save is acknowledged
+ * as soon as it is durably written to disk and uploaded in the background.
+ * Only the latest save of every name is kept; entries left behind by a
+ * previous run are replayed once the client connects.
+ *
+ * The journal is kept per player. Entries of a player who signed out stay on
+ * disk and are replayed on their next sign-in. A save written directly holds
+ * the journaled one of the same name back and supersedes it once committed.
+ */
+class SaveJournal {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final String AREA = "journal";
+    private static final String FILE_EXTENSION = ".jnl";
+    private static final int FORMAT_MAGIC = 0x5047534A; // "PGSJ"
+    private static final int FORMAT_VERSION = 2;
+
+    interface Callback {
+        void onSuccess(Entry entry);
+
+        void onError(String message);
+    }
+
+    static class Entry {
+        final String saveName;
+        final long sequence;
+        final long createdAt;
+        final byte[] data;
+        /** The metadata options of the save, or null. */
+        final JSONObject metadata;
+
+        Entry(String saveName, long sequence, long createdAt, byte[] data, JSONObject metadata) {
+            this.saveName = saveName;
+            this.sequence = sequence;
+            this.createdAt = createdAt;
+            this.data = data;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * Keeps the entry of a save from being uploaded while the save is written
+     * directly, see {@link #hold(String)}.
+     */
+    static class Hold {
+        final String saveName;
+        /** Set once the save is journaled again, the entry is then newer than the direct save. */
+        boolean appended;
+
+        Hold(String saveName) {
+            this.saveName = saveName;
+        }
+    }
+
+    private final GameHelper gameHelper;
+    private final SnapshotConflictResolver conflictResolver;
+    private final SnapshotMetadataIndex index;
+    private final LocalSnapshotCache cache;
+    private final CoverImageProcessor coverImageProcessor;
+    private final ExecutorService executor;
+    private final Context context;
+    private String playerId;
+    private File directory;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, Entry> pending = new TreeMap<String, Entry>();
+    private final Set<String> uploading = new HashSet<String>();
+    private final List<Hold> holds = new ArrayList<Hold>();
+    private long lastSequence;
+
+    SaveJournal(Context context, GameHelper gameHelper, SnapshotConflictResolver conflictResolver, SnapshotMetadataIndex index, LocalSnapshotCache cache,
+                CoverImageProcessor coverImageProcessor, ExecutorService executor) {
+        this.context = context;
+        this.gameHelper = gameHelper;
+        this.conflictResolver = conflictResolver;
+        this.index = index;
+        this.cache = cache;
+        this.coverImageProcessor = coverImageProcessor;
+        this.executor = executor;
+    }
+
+    /**
+     * Switches to the journal of the player, called once signed in.
+     */
+    void setPlayer(final String playerId) {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                select(playerId, true);
+            }
+        });
+    }
+
+    /**
+     * Selects the journal of the player signed in last unless a player
+     * signed in since, so the saves made before the connection completes are
+     * journaled for them.
+     */
+    void restorePlayer(final String playerId) {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                select(playerId, false);
+            }
+        });
+    }
+
+    /**
+     * Forgets the journal of the player signing out. Their entries stay on
+     * disk for their next sign-in.
+     */
+    synchronized void clear() {
+        playerId = null;
+        directory = null;
+        pending.clear();
+    }
+
+    /**
+     * Drops the entry of the save, called once the save is deleted. Entries
+     * appended before are dropped too, later ones are kept.
+     */
+    void discard(final String saveName) {
+        synchronized (this) {
+            pending.remove(saveName);
+        }
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file;
+                synchronized (SaveJournal.this) {
+                    pending.remove(saveName);
+                    if (directory == null) {
+                        return;
+                    }
+                    file = fileFor(saveName);
+                }
+                if (file.isFile() && !file.delete()) {
+                    Log.w(LOGTAG, "SaveJournal: unable to delete the journal entry of " + saveName);
+                }
+            }
+        });
+    }
+
+    /**
+     * Holds the entry of the save back while the save is written directly.
+     * Every hold must be released once the direct save is committed or has
+     * failed.
+     */
+    synchronized Hold hold(String saveName) {
+        Hold hold = new Hold(saveName);
+        holds.add(hold);
+        return hold;
+    }
+
+    /**
+     * Releases a hold. Once the direct save is committed, the entry journaled
+     * before it is dropped; if it failed, the entry stays in the journal and
+     * is uploaded again.
+     */
+    void release(final Hold hold, final boolean committed) {
+        if (hold == null) {
+            return;
+        }
+        synchronized (this) {
+            holds.remove(hold);
+        }
+        // On the disk thread so it cannot interleave with an append of the same save
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file;
+                synchronized (SaveJournal.this) {
+                    if (!committed || hold.appended || directory == null || !pending.containsKey(hold.saveName)) {
+                        file = null;
+                    } else {
+                        pending.remove(hold.saveName);
+                        file = fileFor(hold.saveName);
+                    }
+                }
+                if (file == null) {
+                    upload(hold.saveName);
+                } else if (file.isFile() && !file.delete()) {
+                    Log.w(LOGTAG, "SaveJournal: unable to delete the journal entry of " + hold.saveName);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the save to the journal and calls back once it is on disk, then
+     * uploads it.
+     *
+     * @param metadata the metadata options committed with the save, or null
+     */
+    void append(final String saveName, final byte[] data, final JSONObject metadata, final Callback callback) {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry;
+                File file;
+                synchronized (SaveJournal.this) {
+                    if (directory == null) {
+                        callback.onError("no player to journal the save for");
+                        return;
+                    }
+                    entry = new Entry(saveName, ++lastSequence, System.currentTimeMillis(), data, metadata);
+                    file = fileFor(saveName);
+                    for (Hold hold : holds) {
+                        if (hold.saveName.equals(saveName)) {
+                            hold.appended = true;
+                        }
+                    }
+                }
+                try {
+                    PluginStorage.writeAtomically(file, encode(entry));
+                } catch (IOException e) {
+                    Log.w(LOGTAG, "SaveJournal: unable to write " + saveName, e);
+                    callback.onError("unable to write the save journal");
+                    return;
+                }
+                synchronized (SaveJournal.this) {
+                    pending.put(saveName, entry);
+                }
+                callback.onSuccess(entry);
+                upload(saveName);
+            }
+        });
+    }
+
+    /**
+     * Returns the save not uploaded yet, or null.
+     */
+    synchronized Entry pendingEntry(String saveName) {
+        return pending.get(saveName);
+    }
+
+    /**
+     * Uploads every entry still in the journal, called once the client connects.
+     */
+    void replay() {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<String> names;
+                synchronized (SaveJournal.this) {
+                    names = new ArrayList<String>(pending.keySet());
+                }
+                for (String saveName : names) {
+                    upload(saveName);
+                }
+            }
+        });
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+        JSONArray saves = new JSONArray();
+        for (Entry entry : pending.values()) {
+            JSONObject json = new JSONObject();
+            json.put("saveName", entry.saveName);
+            json.put("saveTime", entry.createdAt);
+            json.put("sizeBytes", entry.data.length);
+            json.put("uploading", uploading.contains(entry.saveName));
+            saves.put(json);
+        }
+        JSONObject result = new JSONObject();
+        result.put("pending", saves);
+        return result;
+    }
+
+    private void upload(final String saveName) {
+        final Entry entry;
+        synchronized (this) {
+            entry = pending.get(saveName);
+            if (entry == null || uploading.contains(saveName) || isHeld(saveName) || !gameHelper.isSignedIn()) {
+                return;
+            }
+            uploading.add(saveName);
+        }
+
+        // The journal holds plain data, the delta layout of the snapshot is rewritten
+        DeltaSaveFormat.deleteManifest(PluginStorage.getDirectory(context, DeltaSaveFormat.MANIFEST_AREA), saveName);
+        // Decoded while the snapshot opens
+        final Future<CoverImageProcessor.PreparedMetadata> metadata = entry.metadata == null ? null
+                : coverImageProcessor.prepare(entry.metadata, Games.Snapshots.getMaxCoverImageSize(gameHelper.getApiClient()), executor);
+        conflictResolver.open(saveName, true, new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                final Snapshot snapshot = snapshotResult.getSnapshot();
+                if (!snapshotResult.getStatus().isSuccess() || snapshot == null || snapshot.getSnapshotContents() == null) {
+                    coverImageProcessor.discard(metadata);
+                    finishUpload(entry, "error while opening snapshot: " + snapshotResult.getStatus().getStatusMessage());
+                    return;
+                }
+                if (!SnapshotFraming.write(snapshot.getSnapshotContents(), entry.data)) {
+                    Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+                    coverImageProcessor.discard(metadata);
+                    finishUpload(entry, "unable to write snapshot contents");
+                    return;
+                }
+                // The metadata may still be preparing
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        commit(entry, snapshot, CoverImageProcessor.await(metadata));
+                    }
+                });
+            }
+        });
+    }
+
+    private void commit(final Entry entry, Snapshot snapshot, final CoverImageProcessor.PreparedMetadata metadata) {
+        synchronized (this) {
+            if (pending.get(entry.saveName) != entry) {
+                // Superseded while uploading, the newer save must not be overwritten
+                Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+                coverImageProcessor.release(metadata);
+                finishUpload(entry, null);
+                return;
+            }
+            if (isHeld(entry.saveName)) {
+                // A direct save started meanwhile, kept until it is committed or fails
+                Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+                coverImageProcessor.release(metadata);
+                finishUpload(entry, "held by a direct save");
+                return;
+            }
+        }
+        Games.Snapshots.commitAndClose(gameHelper.getApiClient(), snapshot, metadata == null ? SnapshotMetadataChange.EMPTY_CHANGE : metadata.change)
+                .setResultCallback(new ResultCallback<Snapshots.CommitSnapshotResult>() {
+                    @Override
+                    public void onResult(Snapshots.CommitSnapshotResult commitSnapshotResult) {
+                        coverImageProcessor.release(metadata);
+                        if (commitSnapshotResult.getStatus().isSuccess()) {
+                            index.record(commitSnapshotResult.getSnapshotMetadata().freeze(), entry.data.length);
+                            cache.put(entry.saveName, entry.data, commitSnapshotResult.getSnapshotMetadata().getLastModifiedTimestamp());
+                            finishUpload(entry, null);
+                        } else {
+                            finishUpload(entry, "save not sent: " + commitSnapshotResult.getStatus().getStatusMessage());
+                        }
+                    }
+                });
+    }
+
+    private void finishUpload(final Entry entry, final String error) {
+        // On the disk thread so it cannot interleave with an append of the same save
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean superseded;
+                File file = null;
+                synchronized (SaveJournal.this) {
+                    uploading.remove(entry.saveName);
+                    superseded = pending.get(entry.saveName) != entry;
+                    if (error == null && !superseded) {
+                        pending.remove(entry.saveName);
+                        file = fileFor(entry.saveName);
+                    }
+                }
+                if (error != null) {
+                    // Kept in the journal, retried on the next save or sign-in
+                    Log.w(LOGTAG, "SaveJournal: upload of " + entry.saveName + " failed: " + error);
+                } else if (superseded) {
+                    upload(entry.saveName);
+                } else if (!file.delete()) {
+                    Log.w(LOGTAG, "SaveJournal: unable to delete the journal entry of " + entry.saveName);
+                }
+            }
+        });
+    }
+
+    private synchronized boolean isHeld(String saveName) {
+        for (Hold hold : holds) {
+            if (hold.saveName.equals(saveName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void select(String playerId, boolean replace) {
+        synchronized (this) {
+            if (playerId.equals(this.playerId) || !replace && this.playerId != null) {
+                return;
+            }
+            this.playerId = playerId;
+            directory = PluginStorage.getPlayerDirectory(context, AREA, playerId);
+            pending.clear();
+        }
+        restore(directory);
+    }
+
+    private void restore(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(FILE_EXTENSION)) {
+                continue;
+            }
+            try {
+                Entry entry = decode(PluginStorage.readFully(file));
+                synchronized (this) {
+                    if (this.directory != directory) {
+                        // The player signed out meanwhile
+                        return;
+                    }
+                    pending.put(entry.saveName, entry);
+                    lastSequence = Math.max(lastSequence, entry.sequence);
+                }
+            } catch (IOException e) {
+                Log.w(LOGTAG, "SaveJournal: ignoring unreadable entry " + file.getName(), e);
+            }
+        }
+    }
+
+    private File fileFor(String saveName) {
+        return new File(directory, PluginStorage.fileNameFor(saveName, FILE_EXTENSION));
+    }
+
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.data.length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FORMAT_MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(entry.sequence);
+        out.writeLong(entry.createdAt);
+        out.writeUTF(entry.saveName);
+        out.writeInt(entry.data.length);
+        out.write(entry.data);
+        // The cover image may not fit in writeUTF
+        byte[] metadata = entry.metadata == null ? new byte[0] : entry.metadata.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(metadata.length);
+        out.write(metadata);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(byte[] data) throws IOException {
+        if (data == null) {
+            throw new IOException("Missing journal entry");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != FORMAT_MAGIC) {
+            throw new IOException("Unknown journal format");
+        }
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IOException("Unknown journal format version " + version);
+        }
+        long sequence = in.readLong();
+        long createdAt = in.readLong();
+        String saveName = in.readUTF();
+        byte[] saveData = new byte[in.readInt()];
+        in.readFully(saveData);
+        JSONObject metadata = null;
+        if (version >= 2) {
+            byte[] metadataBytes = new byte[in.readInt()];
+            in.readFully(metadataBytes);
+            if (metadataBytes.length > 0) {
+                try {
+                    metadata = new JSONObject(new String(metadataBytes, StandardCharsets.UTF_8));
+                } catch (JSONException e) {
+                    throw new IOException("Unreadable journal metadata", e);
+                }
+            }
+        }
+        return new Entry(saveName, sequence, createdAt, saveData, metadata);
+    }
+}
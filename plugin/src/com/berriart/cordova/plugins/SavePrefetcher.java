@@ -0,0 +1,227 @@
+package com.berriart.cordova.plugins;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads a configured list of saves in the background as soon as the client
+ * connects and keeps the results in a small bounded buffer. The next loadGame
+ * of one of those saves is answered from the buffer, or attached to the load
+ * still in flight, instead of opening the snapshot again.
+ */
+class SavePrefetcher {
+
+    static final int DEFAULT_MAX_ENTRIES = 4;
+    static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    static final long MAX_AGE = 5 * 60 * 1000;
+
+    private static class Entry {
+        final SnapshotLoader.LoadResult result;
+        final long loadedAt;
+        final long sizeBytes;
+
+        Entry(SnapshotLoader.LoadResult result, long loadedAt) {
+            this.result = result;
+            this.loadedAt = loadedAt;
+            this.sizeBytes = result.isSuccess() ? result.save.data.length : 0;
+        }
+    }
+
+    /** A prefetch being loaded, and the loads waiting for it. */
+    private static class InFlight {
+        final int generation;
+        final List<SnapshotLoader.Callback> waiters = new ArrayList<SnapshotLoader.Callback>();
+
+        InFlight(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    private final SnapshotLoader loader;
+    private final LinkedHashMap<String, Entry> buffer = new LinkedHashMap<String, Entry>();
+    private final Map<String, InFlight> inFlight = new HashMap<String, InFlight>();
+    private final Map<String, Integer> generations = new HashMap<String, Integer>();
+    private List<String> saveNames = new ArrayList<String>();
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bufferedBytes;
+
+    private long prefetched;
+    private long hits;
+    private long inFlightHits;
+    private long misses;
+    private long evicted;
+    private long discarded;
+
+    SavePrefetcher(SnapshotLoader loader) {
+        this.loader = loader;
+    }
+
+    synchronized void configure(List<String> saveNames, int maxEntries, long maxBytes) {
+        this.saveNames = new ArrayList<String>(saveNames);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxBytes = Math.max(0, maxBytes);
+        trim();
+    }
+
+    synchronized List<String> getSaveNames() {
+        return new ArrayList<String>(saveNames);
+    }
+
+    /**
+     * Starts loading every configured save that is not already buffered or
+     * being loaded.
+     */
+    void prefetch() {
+        Map<String, InFlight> toLoad = new LinkedHashMap<String, InFlight>();
+        synchronized (this) {
+            for (String saveName : saveNames) {
+                if (buffer.containsKey(saveName) || inFlight.containsKey(saveName)) {
+                    continue;
+                }
+                InFlight load = new InFlight(generationOf(saveName));
+                inFlight.put(saveName, load);
+                toLoad.put(saveName, load);
+            }
+        }
+
+        for (Map.Entry<String, InFlight> load : toLoad.entrySet()) {
+            final String saveName = load.getKey();
+            final InFlight prefetch = load.getValue();
+            loader.load(saveName, new SnapshotLoader.Callback() {
+                @Override
+                public void onResult(SnapshotLoader.LoadResult result) {
+                    onPrefetched(saveName, prefetch, result);
+                }
+            });
+        }
+    }
+
+    /**
+     * Answers a load from the prefetch buffer.
+     *
+     * @return false if the save was not prefetched, the caller must load it
+     */
+    boolean take(String saveName, SnapshotLoader.Callback callback) {
+        SnapshotLoader.LoadResult result = null;
+        synchronized (this) {
+            InFlight load = inFlight.get(saveName);
+            if (load != null && load.generation == generationOf(saveName)) {
+                inFlightHits++;
+                load.waiters.add(callback);
+                return true;
+            }
+            if (load != null) {
+                // Started before the save changed, its result is stale
+                inFlight.remove(saveName);
+                discarded++;
+            }
+            Entry entry = buffer.remove(saveName);
+            if (entry != null) {
+                bufferedBytes -= entry.sizeBytes;
+                if (SystemClock.elapsedRealtime() - entry.loadedAt <= MAX_AGE) {
+                    hits++;
+                    result = entry.result;
+                } else {
+                    discarded++;
+                }
+            }
+            if (result == null) {
+                misses++;
+                return false;
+            }
+        }
+        callback.onResult(result);
+        return true;
+    }
+
+    /**
+     * Drops any prefetched copy of the save, it is about to change.
+     */
+    synchronized void invalidate(String saveName) {
+        generations.put(saveName, generationOf(saveName) + 1);
+        Entry entry = buffer.remove(saveName);
+        if (entry != null) {
+            bufferedBytes -= entry.sizeBytes;
+            discarded++;
+        }
+    }
+
+    /**
+     * Drops every prefetched save and in-flight prefetch, called on sign-out
+     * so none of them is handed to the next player.
+     */
+    synchronized void clear() {
+        Set<String> known = new HashSet<String>(generations.keySet());
+        known.addAll(inFlight.keySet());
+        known.addAll(buffer.keySet());
+        for (String saveName : known) {
+            generations.put(saveName, generationOf(saveName) + 1);
+        }
+        inFlight.clear();
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    synchronized JSONObject statsToJson() throws JSONException {
+        long lookups = hits + inFlightHits + misses;
+        JSONObject stats = new JSONObject();
+        stats.put("prefetched", prefetched);
+        stats.put("hits", hits);
+        stats.put("inFlightHits", inFlightHits);
+        stats.put("misses", misses);
+        stats.put("hitRate", lookups == 0 ? 0 : (double) (hits + inFlightHits) / lookups);
+        stats.put("evicted", evicted);
+        stats.put("discarded", discarded);
+        stats.put("bufferedEntries", buffer.size());
+        stats.put("bufferedBytes", bufferedBytes);
+        return stats;
+    }
+
+    private void onPrefetched(String saveName, InFlight load, SnapshotLoader.LoadResult result) {
+        List<SnapshotLoader.Callback> waiters;
+        synchronized (this) {
+            if (inFlight.get(saveName) == load) {
+                inFlight.remove(saveName);
+            }
+            waiters = new ArrayList<SnapshotLoader.Callback>(load.waiters);
+            prefetched++;
+            boolean cacheable = result.isSuccess() || result.status == PlayGamesServices.LOAD_GAME_ERROR_NOT_EXIST;
+            if (waiters.isEmpty() && cacheable && load.generation == generationOf(saveName)) {
+                Entry entry = new Entry(result, SystemClock.elapsedRealtime());
+                buffer.put(saveName, entry);
+                bufferedBytes += entry.sizeBytes;
+                trim();
+            }
+        }
+        for (SnapshotLoader.Callback waiter : waiters) {
+            waiter.onResult(result);
+        }
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> iterator = buffer.entrySet().iterator();
+        while (iterator.hasNext() && (buffer.size() > maxEntries || bufferedBytes > maxBytes)) {
+            Entry entry = iterator.next().getValue();
+            bufferedBytes -= entry.sizeBytes;
+            iterator.remove();
+            evicted++;
+        }
+    }
+
+    private int generationOf(String saveName) {
+        Integer generation = generations.get(saveName);
+        return generation == null ? 0 : generation;
+    }
+}
@@ -0,0 +1,454 @@
+package com.berriart.cordova.plugins;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.GamesStatusCodes;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.SnapshotMetadata;
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+import com.google.android.gms.games.snapshot.Snapshots;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Splits a logical save across several snapshots so it can grow past the
+ * maximum data size of a single snapshot.
+ *
+ * The snapshot named after the save holds a JSON manifest listing the shards
+ * and their SHA-256 hashes. Shards are written into one of two alternating
+ * slots and the manifest is committed last, so a reader never sees a manifest
+ * pointing to half written shards. Once the manifest is committed, the shards
+ * past the new shard count are deleted from both slots, so a save that shrank
+ * leaves none behind. Shards are uploaded, downloaded and deleted
+ * concurrently, up to the configured parallelism.
+ *
+ * Shards are named with the internal prefix of the metadata index so they are
+ * not listed as save slots, and they are deleted through their indexed
+ * metadata without downloading them.
+ */
+class ShardedSnapshotIO {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final int DEFAULT_PARALLELISM = 4;
+
+    static final String SHARD_PREFIX = SnapshotMetadataIndex.INTERNAL_PREFIX + "shard~";
+
+    private static final String MANIFEST_FORMAT = "pgs-shards";
+    private static final int MANIFEST_VERSION = 1;
+
+    interface Callback {
+        void onSuccess(JSONObject result);
+
+        void onError(int status, String message);
+    }
+
+    private final GameHelper gameHelper;
+    private final SnapshotMetadataIndex index;
+    private final ExecutorService executor;
+
+    ShardedSnapshotIO(GameHelper gameHelper, SnapshotMetadataIndex index, ExecutorService executor) {
+        this.gameHelper = gameHelper;
+        this.index = index;
+        this.executor = executor;
+    }
+
+    static String shardName(String saveName, int slot, int index) {
+        return SHARD_PREFIX + saveName + "_s" + slot + "_" + index;
+    }
+
+    /**
+     * Tells whether the snapshot is one of the shards of the save, in either slot.
+     */
+    static boolean isShardOf(String name, String saveName) {
+        String prefix = SHARD_PREFIX + saveName + "_s";
+        return name.startsWith(prefix) && name.substring(prefix.length()).matches("[01]_\\d+");
+    }
+
+    /**
+     * Deletes every indexed shard of the save, called once its manifest is
+     * deleted.
+     */
+    void deleteShardsOf(String saveName) {
+        List<String> shards = new ArrayList<String>();
+        for (String name : index.namesStartingWith(SHARD_PREFIX + saveName + "_s")) {
+            if (isShardOf(name, saveName)) {
+                shards.add(name);
+            }
+        }
+        if (!shards.isEmpty()) {
+            deleteShards(shards, DEFAULT_PARALLELISM);
+        }
+    }
+
+    void save(final String saveName, final byte[] data, final int requestedShardSize, final int parallelism, final Callback callback) {
+        PendingResult<Snapshots.OpenSnapshotResult> result = Games.Snapshots.open(gameHelper.getApiClient(), saveName, true, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED);
+        result.setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                final Snapshot manifestSnapshot = snapshotResult.getSnapshot();
+                if (!snapshotResult.getStatus().isSuccess() || manifestSnapshot == null || manifestSnapshot.getSnapshotContents() == null) {
+                    callback.onError(PlayGamesServices.LOAD_GAME_ERROR_FAILED, "error while opening manifest: " + snapshotResult.getStatus().getStatusMessage());
+                    return;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            int slot = 0;
+                            JSONObject current = parseManifest(SnapshotFraming.read(manifestSnapshot.getSnapshotContents()));
+                            if (current != null) {
+                                slot = 1 - current.optInt("slot", 1);
+                            }
+
+                            int maxDataSize = SnapshotFraming.maxPayloadSize(Games.Snapshots.getMaxDataSize(gameHelper.getApiClient()));
+                            int shardSize = requestedShardSize > 0 ? Math.min(requestedShardSize, maxDataSize) : maxDataSize;
+                            int shardCount = Math.max(1, (data.length + shardSize - 1) / shardSize);
+
+                            final JSONObject manifest = new JSONObject();
+                            manifest.put("format", MANIFEST_FORMAT);
+                            manifest.put("version", MANIFEST_VERSION);
+                            manifest.put("slot", slot);
+                            manifest.put("totalBytes", data.length);
+
+                            final JSONArray shards = new JSONArray();
+                            final byte[][] shardData = new byte[shardCount][];
+                            final String[] shardNames = new String[shardCount];
+                            for (int i = 0; i < shardCount; i++) {
+                                int from = i * shardSize;
+                                shardData[i] = Arrays.copyOfRange(data, from, Math.min(data.length, from + shardSize));
+                                shardNames[i] = shardName(saveName, slot, i);
+
+                                JSONObject shard = new JSONObject();
+                                shard.put("name", shardNames[i]);
+                                shard.put("size", shardData[i].length);
+                                shard.put("sha256", PluginStorage.sha256(shardData[i]));
+                                shards.put(shard);
+                            }
+                            manifest.put("shards", shards);
+
+                            // Shards past the new count: the previous save's, in the other slot, and the leftovers
+                            // of the save before it in this slot, which never held more than the previous save
+                            final List<String> staleShards = new ArrayList<String>();
+                            JSONArray previousShards = current == null ? null : current.optJSONArray("shards");
+                            for (int i = shardCount; previousShards != null && i < previousShards.length(); i++) {
+                                staleShards.add(previousShards.getJSONObject(i).getString("name"));
+                                staleShards.add(shardName(saveName, slot, i));
+                            }
+
+                            runConcurrently(shardCount, parallelism, new ShardTask() {
+                                @Override
+                                public void run(int index, ShardDone done) {
+                                    writeShard(shardNames[index], shardData[index], done);
+                                }
+                            }, new ShardDone() {
+                                @Override
+                                public void onDone(String error) {
+                                    if (error != null) {
+                                        Games.Snapshots.discardAndClose(gameHelper.getApiClient(), manifestSnapshot);
+                                        callback.onError(PlayGamesServices.LOAD_GAME_ERROR_FAILED, error);
+                                    } else {
+                                        commitManifest(manifestSnapshot, manifest, staleShards, parallelism, callback);
+                                    }
+                                }
+                            });
+                        } catch (Exception e) {
+                            Log.w(LOGTAG, "ShardedSnapshotIO: unable to save " + saveName, e);
+                            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), manifestSnapshot);
+                            callback.onError(PlayGamesServices.LOAD_GAME_ERROR_FAILED, "error while splitting save");
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    void load(final String saveName, final int parallelism, final Callback callback) {
+        PendingResult<Snapshots.OpenSnapshotResult> result = Games.Snapshots.open(gameHelper.getApiClient(), saveName, false, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED);
+        result.setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                final Snapshot manifestSnapshot = snapshotResult.getSnapshot();
+                if (!snapshotResult.getStatus().isSuccess() || manifestSnapshot == null || manifestSnapshot.getSnapshotContents() == null) {
+                    int status = snapshotResult.getStatus().getStatusCode() == GamesStatusCodes.STATUS_SNAPSHOT_NOT_FOUND || snapshotResult.getStatus().isSuccess()
+                            ? PlayGamesServices.LOAD_GAME_ERROR_NOT_EXIST
+                            : PlayGamesServices.LOAD_GAME_ERROR_FAILED;
+                    callback.onError(status, "error while opening manifest: " + snapshotResult.getStatus().getStatusMessage());
+                    return;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            final JSONObject manifest = parseManifest(SnapshotFraming.read(manifestSnapshot.getSnapshotContents()));
+                            final long saveTime = manifestSnapshot.getMetadata().getLastModifiedTimestamp();
+                            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), manifestSnapshot);
+                            if (manifest == null) {
+                                callback.onError(PlayGamesServices.LOAD_GAME_ERROR_NOT_EXIST, "snapshot is not a sharded save");
+                                return;
+                            }
+
+                            final JSONArray shards = manifest.getJSONArray("shards");
+                            final byte[][] shardData = new byte[shards.length()][];
+                            runConcurrently(shards.length(), parallelism, new ShardTask() {
+                                @Override
+                                public void run(int index, ShardDone done) {
+                                    readShard(shards.optJSONObject(index), index, shardData, done);
+                                }
+                            }, new ShardDone() {
+                                @Override
+                                public void onDone(String error) {
+                                    if (error != null) {
+                                        callback.onError(PlayGamesServices.LOAD_GAME_ERROR_FAILED, error);
+                                        return;
+                                    }
+                                    try {
+                                        byte[] data = new byte[manifest.getInt("totalBytes")];
+                                        int offset = 0;
+                                        for (byte[] shard : shardData) {
+                                            System.arraycopy(shard, 0, data, offset, shard.length);
+                                            offset += shard.length;
+                                        }
+                                        JSONObject loadResult = new JSONObject();
+                                        loadResult.put("saveData", new String(data, StandardCharsets.UTF_8));
+                                        loadResult.put("saveTime", saveTime);
+                                        loadResult.put("shards", shardData.length);
+                                        callback.onSuccess(loadResult);
+                                    } catch (Exception e) {
+                                        Log.w(LOGTAG, "ShardedSnapshotIO: unable to reassemble " + saveName, e);
+                                        callback.onError(PlayGamesServices.LOAD_GAME_ERROR_FAILED, "error while reassembling shards");
+                                    }
+                                }
+                            });
+                        } catch (Exception e) {
+                            Log.w(LOGTAG, "ShardedSnapshotIO: unable to load " + saveName, e);
+                            callback.onError(PlayGamesServices.LOAD_GAME_ERROR_FAILED, "error while reading manifest");
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private interface ShardDone {
+        void onDone(String error);
+    }
+
+    private interface ShardTask {
+        void run(int index, ShardDone done);
+    }
+
+    /**
+     * Runs count tasks keeping at most parallelism of them in flight. Once a
+     * task failed the remaining ones are skipped, and the completion is called
+     * after the tasks in flight finished, with the first error if any.
+     */
+    private static void runConcurrently(int count, int parallelism, final ShardTask task, final ShardDone completion) {
+        final AtomicReference<String> firstError = new AtomicReference<String>();
+        SnapshotLoader.runConcurrently(count, parallelism, new SnapshotLoader.Task() {
+            @Override
+            public void run(int index, final Runnable done) {
+                if (firstError.get() != null) {
+                    done.run();
+                    return;
+                }
+                task.run(index, new ShardDone() {
+                    @Override
+                    public void onDone(String error) {
+                        if (error != null) {
+                            firstError.compareAndSet(null, error);
+                        }
+                        done.run();
+                    }
+                });
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                completion.onDone(firstError.get());
+            }
+        });
+    }
+
+    private void writeShard(final String name, final byte[] data, final ShardDone done) {
+        PendingResult<Snapshots.OpenSnapshotResult> result = Games.Snapshots.open(gameHelper.getApiClient(), name, true, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED);
+        result.setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                Snapshot snapshot = snapshotResult.getSnapshot();
+                if (!snapshotResult.getStatus().isSuccess() || snapshot == null || snapshot.getSnapshotContents() == null) {
+                    done.onDone("error while opening shard: " + snapshotResult.getStatus().getStatusMessage());
+                    return;
+                }
+                SnapshotFraming.write(snapshot.getSnapshotContents(), data);
+                PendingResult<Snapshots.CommitSnapshotResult> commitResult = Games.Snapshots.commitAndClose(gameHelper.getApiClient(), snapshot, SnapshotMetadataChange.EMPTY_CHANGE);
+                commitResult.setResultCallback(new ResultCallback<Snapshots.CommitSnapshotResult>() {
+                    @Override
+                    public void onResult(Snapshots.CommitSnapshotResult commitSnapshotResult) {
+                        if (!commitSnapshotResult.getStatus().isSuccess()) {
+                            done.onDone("shard not sent: " + commitSnapshotResult.getStatus().getStatusMessage());
+                            return;
+                        }
+                        // Indexed so it can be deleted without opening it
+                        index.record(commitSnapshotResult.getSnapshotMetadata().freeze(), data.length);
+                        done.onDone(null);
+                    }
+                });
+            }
+        });
+    }
+
+    private void readShard(final JSONObject shard, final int index, final byte[][] shardData, final ShardDone done) {
+        if (shard == null) {
+            done.onDone("invalid shard entry " + index);
+            return;
+        }
+        PendingResult<Snapshots.OpenSnapshotResult> result = Games.Snapshots.open(gameHelper.getApiClient(), shard.optString("name"), false, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED);
+        result.setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                final Snapshot snapshot = snapshotResult.getSnapshot();
+                if (!snapshotResult.getStatus().isSuccess() || snapshot == null || snapshot.getSnapshotContents() == null) {
+                    done.onDone("error while opening shard " + index + ": " + snapshotResult.getStatus().getStatusMessage());
+                    return;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            byte[] data = SnapshotFraming.read(snapshot.getSnapshotContents());
+                            if (data == null || data.length != shard.optInt("size", -1) || !PluginStorage.sha256(data).equals(shard.optString("sha256"))) {
+                                done.onDone("shard " + index + " does not match the manifest");
+                                return;
+                            }
+                            shardData[index] = data;
+                            done.onDone(null);
+                        } catch (Exception e) {
+                            Log.w(LOGTAG, "ShardedSnapshotIO: unable to read shard " + index, e);
+                            done.onDone("error while reading shard " + index);
+                        } finally {
+                            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void commitManifest(Snapshot manifestSnapshot, JSONObject manifest, final List<String> staleShards, final int parallelism,
+                                final Callback callback) {
+        final int shardCount = manifest.optJSONArray("shards").length();
+        SnapshotFraming.write(manifestSnapshot.getSnapshotContents(), manifest.toString().getBytes(StandardCharsets.UTF_8));
+        PendingResult<Snapshots.CommitSnapshotResult> result = Games.Snapshots.commitAndClose(gameHelper.getApiClient(), manifestSnapshot, SnapshotMetadataChange.EMPTY_CHANGE);
+        result.setResultCallback(new ResultCallback<Snapshots.CommitSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.CommitSnapshotResult commitSnapshotResult) {
+                if (!commitSnapshotResult.getStatus().isSuccess()) {
+                    callback.onError(PlayGamesServices.LOAD_GAME_ERROR_FAILED, "manifest not sent: " + commitSnapshotResult.getStatus().getStatusMessage());
+                    return;
+                }
+                try {
+                    JSONObject saveResult = new JSONObject();
+                    saveResult.put("saveTime", commitSnapshotResult.getSnapshotMetadata().getLastModifiedTimestamp());
+                    saveResult.put("shards", shardCount);
+                    callback.onSuccess(saveResult);
+                } catch (JSONException e) {
+                    callback.onSuccess(new JSONObject());
+                }
+                deleteShards(staleShards, parallelism);
+            }
+        });
+    }
+
+    /**
+     * Deletes the shards through their indexed metadata, refreshing the index
+     * once if some of them are not in it. Shards that are still not indexed
+     * were never written or are already deleted.
+     */
+    private void deleteShards(final List<String> names, final int parallelism) {
+        for (String name : names) {
+            if (index.metadataFor(name) == null) {
+                index.refresh(false, new SnapshotMetadataIndex.Callback() {
+                    @Override
+                    public void onSuccess() {
+                        deleteIndexedShards(names, parallelism);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        Log.w(LOGTAG, "ShardedSnapshotIO: " + message);
+                        deleteIndexedShards(names, parallelism);
+                    }
+                });
+                return;
+            }
+        }
+        deleteIndexedShards(names, parallelism);
+    }
+
+    private void deleteIndexedShards(final List<String> names, int parallelism) {
+        SnapshotLoader.runConcurrently(names.size(), parallelism, new SnapshotLoader.Task() {
+            @Override
+            public void run(int index, final Runnable done) {
+                deleteShard(names.get(index), new ShardDone() {
+                    @Override
+                    public void onDone(String error) {
+                        if (error != null) {
+                            Log.w(LOGTAG, "ShardedSnapshotIO: " + error);
+                        }
+                        done.run();
+                    }
+                });
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                Log.d(LOGTAG, "ShardedSnapshotIO: " + names.size() + " shards checked");
+            }
+        });
+    }
+
+    private void deleteShard(final String name, final ShardDone done) {
+        SnapshotMetadata metadata = index.metadataFor(name);
+        if (metadata == null) {
+            done.onDone(null);
+            return;
+        }
+        PendingResult<Snapshots.DeleteSnapshotResult> deleteResult = Games.Snapshots.delete(gameHelper.getApiClient(), metadata);
+        deleteResult.setResultCallback(new ResultCallback<Snapshots.DeleteSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.DeleteSnapshotResult deleteSnapshotResult) {
+                if (!deleteSnapshotResult.getStatus().isSuccess()) {
+                    done.onDone("stale shard " + name + " not deleted: " + deleteSnapshotResult.getStatus().getStatusMessage());
+                    return;
+                }
+                index.remove(name);
+                done.onDone(null);
+            }
+        });
+    }
+
+    private static JSONObject parseManifest(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        try {
+            JSONObject manifest = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            return MANIFEST_FORMAT.equals(manifest.optString("format")) ? manifest : null;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.berriart.cordova.plugins;
+
+import android.os.ParcelFileDescriptor;
+
+import com.google.android.gms.games.snapshot.SnapshotContents;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads snapshot contents in fixed-size chunks so large saves never have to be
+ * held in memory as a whole. Chunks are decoded as UTF-8 and a multi-byte
+ * character split across a chunk boundary is carried over to the next chunk.
+ */
+class SnapshotChunkReader {
+
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    static final int MIN_CHUNK_SIZE = 1024;
+
+    interface Listener {
+        /**
+         * Called once per decoded chunk, in order.
+         *
+         * @param index  zero based chunk index
+         * @param offset byte offset of the chunk inside the snapshot data
+         * @param data   decoded chunk text
+         */
+        void onChunk(int index, long offset, String data) throws Exception;
+    }
+
+    private final int chunkSize;
+
+    SnapshotChunkReader(int chunkSize) {
+        this.chunkSize = Math.max(chunkSize, MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Opens a stream over the snapshot file descriptor positioned at the
+     * beginning of the data. Closing the stream does not close the snapshot.
+     */
+    static FileInputStream openStream(SnapshotContents snapshotContents) throws IOException {
+        ParcelFileDescriptor descriptor = snapshotContents.getParcelFileDescriptor();
+        FileInputStream stream = new FileInputStream(descriptor.getFileDescriptor());
+        stream.getChannel().position(0);
+        return stream;
+    }
+
+    static long sizeOf(SnapshotContents snapshotContents) {
+        return snapshotContents.getParcelFileDescriptor().getStatSize();
+    }
+
+    /**
+     * Reads the whole stream, calling the listener for every chunk. At least
+     * one chunk is always delivered, even for empty data.
+     *
+     * @return the number of bytes read
+     */
+    long read(InputStream in, Listener listener) throws Exception {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(chunkSize);
+        CharBuffer chars = CharBuffer.allocate(chunkSize);
+
+        long totalRead = 0;
+        long chunkOffset = 0;
+        int index = 0;
+        boolean endOfStream = false;
+
+        while (!endOfStream) {
+            int read = in.read(bytes.array(), bytes.position(), bytes.remaining());
+            if (read < 0) {
+                endOfStream = true;
+            } else {
+                bytes.position(bytes.position() + read);
+                totalRead += read;
+                if (bytes.hasRemaining()) {
+                    continue;
+                }
+            }
+
+            bytes.flip();
+            decoder.decode(bytes, chars, endOfStream);
+            if (endOfStream) {
+                decoder.flush(chars);
+            }
+            // Bytes of an incomplete trailing character stay in the buffer
+            long pending = bytes.remaining();
+            bytes.compact();
+
+            chars.flip();
+            if (chars.hasRemaining() || (endOfStream && index == 0)) {
+                listener.onChunk(index++, chunkOffset, chars.toString());
+                chunkOffset = totalRead - pending;
+            }
+            chars.clear();
+        }
+
+        return totalRead;
+    }
+}
@@ -0,0 +1,438 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.GamesStatusCodes;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.SnapshotContents;
+import com.google.android.gms.games.snapshot.SnapshotMetadata;
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+import com.google.android.gms.games.snapshot.Snapshots;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Opens snapshots with the configured conflict resolution strategy.
+ *
+ * The built-in strategies map to a Play Games resolution policy. The merge
+ * strategies open with {@link Snapshots#RESOLUTION_POLICY_MANUAL}, merge both
+ * versions off the UI thread and call {@link Snapshots#resolveConflict} until
+ * the open comes back without a conflict. A merge that fails falls back to the
+ * most recently modified version.
+ *
+ * A write replaces the resolved data as is, it is the latest intent of the
+ * caller.
+ */
+class SnapshotConflictResolver {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final String STRATEGY_MOST_RECENTLY_MODIFIED = "mostRecentlyModified";
+    static final String STRATEGY_LONGEST_PLAYTIME = "longestPlaytime";
+    static final String STRATEGY_MAX_PER_FIELD = "maxPerField";
+    static final String STRATEGY_UNION = "union";
+    static final String STRATEGY_JS = "js";
+
+    static final int MAX_RESOLVE_ROUNDS = 10;
+    static final long JS_MERGE_TIMEOUT = 30 * 1000;
+
+    /** Both versions of a conflicting snapshot, with the delta and checksum framing removed. */
+    static class Conflict {
+        final String saveName;
+        final String conflictId;
+        final byte[] data;
+        final SnapshotMetadata metadata;
+        final byte[] conflictingData;
+        final SnapshotMetadata conflictingMetadata;
+
+        Conflict(String saveName, String conflictId, byte[] data, SnapshotMetadata metadata, byte[] conflictingData, SnapshotMetadata conflictingMetadata) {
+            this.saveName = saveName;
+            this.conflictId = conflictId;
+            this.data = data;
+            this.metadata = metadata;
+            this.conflictingData = conflictingData;
+            this.conflictingMetadata = conflictingMetadata;
+        }
+
+        boolean conflictingIsNewer() {
+            return conflictingMetadata.getLastModifiedTimestamp() > metadata.getLastModifiedTimestamp();
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("conflictId", conflictId);
+            json.put("saveName", saveName);
+            json.put("saveData", new String(data, StandardCharsets.UTF_8));
+            json.put("saveTime", metadata.getLastModifiedTimestamp());
+            json.put("conflictingSaveData", new String(conflictingData, StandardCharsets.UTF_8));
+            json.put("conflictingSaveTime", conflictingMetadata.getLastModifiedTimestamp());
+            return json;
+        }
+    }
+
+    interface MergeCallback {
+        void onMerged(byte[] merged);
+
+        void onFailed(String message);
+    }
+
+    interface MergeStrategy {
+        void merge(Conflict conflict, MergeCallback callback);
+    }
+
+    /** Receives the conflicts of the js strategy, they are answered through {@link #completeMerge}. */
+    interface ConflictListener {
+        void onConflict(Conflict conflict) throws JSONException;
+    }
+
+    private final Context context;
+    private final GameHelper gameHelper;
+    private final ExecutorService executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, MergeCallback> pendingMerges = new HashMap<String, MergeCallback>();
+    private String strategy = STRATEGY_MOST_RECENTLY_MODIFIED;
+    private ConflictListener conflictListener;
+
+    private long conflicts;
+    private long resolved;
+    private long fallbacks;
+    private long failed;
+    private long rounds;
+    private long totalLatency;
+    private long maxLatency;
+
+    SnapshotConflictResolver(Context context, GameHelper gameHelper, ExecutorService executor) {
+        this.context = context;
+        this.gameHelper = gameHelper;
+        this.executor = executor;
+    }
+
+    static boolean isStrategy(String strategy) {
+        return STRATEGY_MOST_RECENTLY_MODIFIED.equals(strategy) || STRATEGY_LONGEST_PLAYTIME.equals(strategy)
+                || STRATEGY_MAX_PER_FIELD.equals(strategy) || STRATEGY_UNION.equals(strategy) || STRATEGY_JS.equals(strategy);
+    }
+
+    synchronized void setStrategy(String strategy, ConflictListener conflictListener) {
+        this.strategy = strategy;
+        this.conflictListener = conflictListener;
+    }
+
+    synchronized String getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Opens the snapshot, the callback gets a result that is either clean or an
+     * error (a conflict still pending after {@link #MAX_RESOLVE_ROUNDS}).
+     */
+    void open(final String saveName, boolean create, final ResultCallback<Snapshots.OpenSnapshotResult> callback) {
+        final String current = getStrategy();
+        if (STRATEGY_MOST_RECENTLY_MODIFIED.equals(current)) {
+            Games.Snapshots.open(gameHelper.getApiClient(), saveName, create, Snapshots.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED).setResultCallback(callback);
+            return;
+        }
+        if (STRATEGY_LONGEST_PLAYTIME.equals(current)) {
+            Games.Snapshots.open(gameHelper.getApiClient(), saveName, create, Snapshots.RESOLUTION_POLICY_LONGEST_PLAYTIME).setResultCallback(callback);
+            return;
+        }
+
+        final long startedAt = SystemClock.elapsedRealtime();
+        Games.Snapshots.open(gameHelper.getApiClient(), saveName, create, Snapshots.RESOLUTION_POLICY_MANUAL).setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.OpenSnapshotResult result) {
+                handleOpenResult(saveName, current, result, 0, startedAt, callback);
+            }
+        });
+    }
+
+    /**
+     * Answers a conflict sent to the js listener.
+     *
+     * @return false if the conflict is unknown or already timed out
+     */
+    boolean completeMerge(String conflictId, byte[] merged) {
+        final MergeCallback callback;
+        synchronized (this) {
+            callback = pendingMerges.remove(conflictId);
+        }
+        if (callback == null) {
+            return false;
+        }
+        callback.onMerged(merged);
+        return true;
+    }
+
+    synchronized JSONObject statsToJson() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("strategy", strategy);
+        stats.put("conflicts", conflicts);
+        stats.put("resolved", resolved);
+        stats.put("fallbacks", fallbacks);
+        stats.put("failed", failed);
+        stats.put("rounds", rounds);
+        stats.put("averageLatencyMs", resolved == 0 ? 0 : totalLatency / resolved);
+        stats.put("maxLatencyMs", maxLatency);
+        return stats;
+    }
+
+    private void handleOpenResult(final String saveName, final String strategy, final Snapshots.OpenSnapshotResult result, final int round,
+                                  final long startedAt, final ResultCallback<Snapshots.OpenSnapshotResult> callback) {
+        if (result.getStatus().getStatusCode() != GamesStatusCodes.STATUS_SNAPSHOT_CONFLICT) {
+            if (round > 0) {
+                synchronized (this) {
+                    long latency = SystemClock.elapsedRealtime() - startedAt;
+                    resolved++;
+                    totalLatency += latency;
+                    maxLatency = Math.max(maxLatency, latency);
+                }
+                // The stored delta layout no longer matches the merged snapshot
+                DeltaSaveFormat.deleteManifest(PluginStorage.getDirectory(context, DeltaSaveFormat.MANIFEST_AREA), saveName);
+            }
+            callback.onResult(result);
+            return;
+        }
+
+        synchronized (this) {
+            if (round == 0) {
+                conflicts++;
+            }
+            rounds++;
+            if (round >= MAX_RESOLVE_ROUNDS) {
+                failed++;
+            }
+        }
+        if (round >= MAX_RESOLVE_ROUNDS) {
+            Log.w(LOGTAG, "SnapshotConflictResolver: giving up on " + saveName + " after " + round + " rounds");
+            callback.onResult(result);
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                resolve(saveName, strategy, result, round, startedAt, callback);
+            }
+        });
+    }
+
+    private void resolve(final String saveName, final String strategy, final Snapshots.OpenSnapshotResult result, final int round,
+                         final long startedAt, final ResultCallback<Snapshots.OpenSnapshotResult> callback) {
+        final Snapshot snapshot = result.getSnapshot();
+        final Snapshot conflictingSnapshot = result.getConflictingSnapshot();
+        final Conflict conflict;
+        try {
+            conflict = new Conflict(saveName, result.getConflictId(),
+                    readSaveData(snapshot), snapshot.getMetadata().freeze(),
+                    readSaveData(conflictingSnapshot), conflictingSnapshot.getMetadata().freeze());
+        } catch (Exception e) {
+            Log.w(LOGTAG, "SnapshotConflictResolver: unable to read conflicting versions of " + saveName, e);
+            fallBack(saveName, strategy, result, round, startedAt, callback);
+            return;
+        }
+
+        strategyFor(strategy).merge(conflict, new MergeCallback() {
+            @Override
+            public void onMerged(byte[] merged) {
+                SnapshotMetadata newer = conflict.conflictingIsNewer() ? conflict.conflictingMetadata : conflict.metadata;
+                SnapshotMetadataChange change = new SnapshotMetadataChange.Builder()
+                        .fromMetadata(newer)
+                        .setPlayedTimeMillis(Math.max(conflict.metadata.getPlayedTime(), conflict.conflictingMetadata.getPlayedTime()))
+                        .setProgressValue(Math.max(conflict.metadata.getProgressValue(), conflict.conflictingMetadata.getProgressValue()))
+                        .build();
+                SnapshotContents contents = result.getResolutionSnapshotContents();
+                if (contents == null || !SnapshotFraming.write(contents, merged)) {
+                    Log.w(LOGTAG, "SnapshotConflictResolver: unable to write merged data of " + saveName);
+                    fallBack(saveName, strategy, result, round, startedAt, callback);
+                    return;
+                }
+                Games.Snapshots.resolveConflict(gameHelper.getApiClient(), conflict.conflictId, conflict.metadata.getSnapshotId(), change, contents)
+                        .setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+                            @Override
+                            public void onResult(Snapshots.OpenSnapshotResult next) {
+                                handleOpenResult(saveName, strategy, next, round + 1, startedAt, callback);
+                            }
+                        });
+            }
+
+            @Override
+            public void onFailed(String message) {
+                Log.w(LOGTAG, "SnapshotConflictResolver: merge of " + saveName + " failed: " + message);
+                fallBack(saveName, strategy, result, round, startedAt, callback);
+            }
+        });
+    }
+
+    /**
+     * Keeps the most recently modified version, as RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED would.
+     */
+    private void fallBack(final String saveName, final String strategy, Snapshots.OpenSnapshotResult result, final int round,
+                          final long startedAt, final ResultCallback<Snapshots.OpenSnapshotResult> callback) {
+        synchronized (this) {
+            fallbacks++;
+        }
+        Snapshot snapshot = result.getSnapshot();
+        Snapshot conflictingSnapshot = result.getConflictingSnapshot();
+        Snapshot newer = conflictingSnapshot.getMetadata().getLastModifiedTimestamp() > snapshot.getMetadata().getLastModifiedTimestamp()
+                ? conflictingSnapshot : snapshot;
+        Games.Snapshots.resolveConflict(gameHelper.getApiClient(), result.getConflictId(), newer)
+                .setResultCallback(new ResultCallback<Snapshots.OpenSnapshotResult>() {
+                    @Override
+                    public void onResult(Snapshots.OpenSnapshotResult next) {
+                        handleOpenResult(saveName, strategy, next, round + 1, startedAt, callback);
+                    }
+                });
+    }
+
+    private MergeStrategy strategyFor(String strategy) {
+        if (STRATEGY_JS.equals(strategy)) {
+            return jsMerge;
+        }
+        return new JsonMerge(STRATEGY_UNION.equals(strategy));
+    }
+
+    private final MergeStrategy jsMerge = new MergeStrategy() {
+        @Override
+        public void merge(final Conflict conflict, final MergeCallback callback) {
+            ConflictListener listener;
+            synchronized (SnapshotConflictResolver.this) {
+                listener = conflictListener;
+                if (listener != null) {
+                    pendingMerges.put(conflict.conflictId, new MergeCallback() {
+                        @Override
+                        public void onMerged(final byte[] merged) {
+                            // Answered from the bridge thread, resolve like the built-in merges do
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onMerged(merged);
+                                }
+                            });
+                        }
+
+                        @Override
+                        public void onFailed(String message) {
+                            callback.onFailed(message);
+                        }
+                    });
+                }
+            }
+            if (listener == null) {
+                callback.onFailed("no conflict listener registered");
+                return;
+            }
+
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    MergeCallback pending;
+                    synchronized (SnapshotConflictResolver.this) {
+                        pending = pendingMerges.remove(conflict.conflictId);
+                    }
+                    if (pending != null) {
+                        pending.onFailed("timed out waiting for the merged data");
+                    }
+                }
+            }, JS_MERGE_TIMEOUT);
+
+            try {
+                listener.onConflict(conflict);
+            } catch (JSONException e) {
+                MergeCallback pending;
+                synchronized (SnapshotConflictResolver.this) {
+                    pending = pendingMerges.remove(conflict.conflictId);
+                }
+                if (pending != null) {
+                    pending.onFailed("unable to send the conflict");
+                }
+            }
+        }
+    };
+
+    /**
+     * Merges two JSON saves key by key. Objects are merged recursively and
+     * values only present on one side are kept. Otherwise maxPerField keeps
+     * the larger of two numbers, union keeps the elements of both arrays, and
+     * the most recently modified version wins everything else.
+     */
+    static class JsonMerge implements MergeStrategy {
+        private final boolean union;
+
+        JsonMerge(boolean union) {
+            this.union = union;
+        }
+
+        @Override
+        public void merge(Conflict conflict, MergeCallback callback) {
+            try {
+                byte[] newer = conflict.conflictingIsNewer() ? conflict.conflictingData : conflict.data;
+                byte[] older = conflict.conflictingIsNewer() ? conflict.data : conflict.conflictingData;
+                Object merged = mergeValues(parse(newer), parse(older));
+                callback.onMerged(merged.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (JSONException e) {
+                callback.onFailed("save data is not JSON: " + e.getMessage());
+            }
+        }
+
+        private static Object parse(byte[] data) throws JSONException {
+            return new JSONTokener(new String(data, StandardCharsets.UTF_8)).nextValue();
+        }
+
+        Object mergeValues(Object newer, Object older) throws JSONException {
+            if (newer instanceof JSONObject && older instanceof JSONObject) {
+                JSONObject newerObject = (JSONObject) newer;
+                JSONObject olderObject = (JSONObject) older;
+                JSONObject merged = new JSONObject();
+                Iterator<String> keys = olderObject.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    merged.put(key, olderObject.get(key));
+                }
+                keys = newerObject.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    merged.put(key, olderObject.has(key) ? mergeValues(newerObject.get(key), olderObject.get(key)) : newerObject.get(key));
+                }
+                return merged;
+            }
+            if (union && newer instanceof JSONArray && older instanceof JSONArray) {
+                JSONArray merged = new JSONArray();
+                Set<String> seen = new HashSet<String>();
+                for (JSONArray array : new JSONArray[]{(JSONArray) newer, (JSONArray) older}) {
+                    for (int i = 0; i < array.length(); i++) {
+                        Object value = array.get(i);
+                        if (seen.add(String.valueOf(value))) {
+                            merged.put(value);
+                        }
+                    }
+                }
+                return merged;
+            }
+            if (!union && newer instanceof Number && older instanceof Number) {
+                return ((Number) older).doubleValue() > ((Number) newer).doubleValue() ? older : newer;
+            }
+            return newer;
+        }
+    }
+
+    private static byte[] readSaveData(Snapshot snapshot) throws Exception {
+        byte[] data = SnapshotFraming.read(snapshot.getSnapshotContents());
+        return data == null ? new byte[0] : data;
+    }
+}
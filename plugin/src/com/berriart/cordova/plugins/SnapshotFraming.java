@@ -0,0 +1,86 @@
+package com.berriart.cordova.plugins;
+
+import com.google.android.gms.games.snapshot.SnapshotContents;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Single entry point for the data of every snapshot the plugin writes or
+ * reads (saves, sessions, journal uploads, merged conflicts, shards and their
+ * manifests, key-value namespaces), so the framing is applied and verified
+ * the same way everywhere.
+ *
+ * Writes are wrapped in a {@link ChecksummedSaveFormat} frame when checksums
+ * are enabled; reads verify such frames and decode the delta layout, plain
+ * data being returned as is.
+ */
+class SnapshotFraming {
+
+    /** Save data streamed from a snapshot, with its length once the framing is removed. */
+    static class PayloadStream extends FilterInputStream {
+        /** Length of the save data, or -1 when it is not known. */
+        final long length;
+
+        PayloadStream(InputStream in, long length) {
+            super(in);
+            this.length = length;
+        }
+    }
+
+    private static volatile boolean checksumByDefault;
+
+    private SnapshotFraming() {
+    }
+
+    /**
+     * Sets whether writes without an explicit choice are checksummed, from the
+     * PlayGamesChecksumSaves preference.
+     */
+    static void setChecksumByDefault(boolean checksum) {
+        checksumByDefault = checksum;
+    }
+
+    static boolean isChecksumByDefault() {
+        return checksumByDefault;
+    }
+
+    static boolean write(SnapshotContents contents, byte[] data) {
+        return write(contents, data, checksumByDefault);
+    }
+
+    static boolean write(SnapshotContents contents, byte[] data, boolean checksum) {
+        return contents.writeBytes(checksum ? ChecksummedSaveFormat.wrap(data) : data);
+    }
+
+    /**
+     * Returns the largest save data that still fits in maxDataSize bytes once
+     * framed by {@link #write(SnapshotContents, byte[])}.
+     */
+    static int maxPayloadSize(int maxDataSize) {
+        if (!checksumByDefault) {
+            return maxDataSize;
+        }
+        int blocks = (maxDataSize + ChecksummedSaveFormat.DEFAULT_BLOCK_SIZE - 1) / ChecksummedSaveFormat.DEFAULT_BLOCK_SIZE;
+        return maxDataSize - ChecksummedSaveFormat.HEADER_SIZE - blocks * 4;
+    }
+
+    /**
+     * Returns the save data of the snapshot, or null when it has none.
+     *
+     * @throws ChecksummedSaveFormat.CorruptSaveException when a checksummed
+     *                                                    frame does not verify
+     */
+    static byte[] read(SnapshotContents contents) throws IOException {
+        return ChecksummedSaveFormat.unwrap(DeltaSaveFormat.unwrap(contents.readFully()));
+    }
+
+    /**
+     * Streams the save data of the snapshot, verifying checksummed blocks as
+     * they are read.
+     */
+    static PayloadStream openStream(SnapshotContents contents) throws IOException {
+        return ChecksummedSaveFormat.unwrap(DeltaSaveFormat.unwrap(SnapshotChunkReader.openStream(contents)));
+    }
+}
@@ -0,0 +1,229 @@
+package com.berriart.cordova.plugins;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.GamesStatusCodes;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.Snapshots;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens snapshots and reads their save data off the UI thread. Snapshots are
+ * always discarded once read, and every load is recorded in the metadata
+ * index and the local snapshot cache.
+ */
+class SnapshotLoader {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final int DEFAULT_PARALLELISM = 3;
+
+    static class LoadedSave {
+        final String saveName;
+        final byte[] data;
+        final long saveTime;
+        final boolean recoveredFromCache;
+
+        LoadedSave(String saveName, byte[] data, long saveTime) {
+            this(saveName, data, saveTime, false);
+        }
+
+        LoadedSave(String saveName, byte[] data, long saveTime, boolean recoveredFromCache) {
+            this.saveName = saveName;
+            this.data = data;
+            this.saveTime = saveTime;
+            this.recoveredFromCache = recoveredFromCache;
+        }
+    }
+
+    /** Outcome of a load: either a save or an error status (LOAD_GAME_ERROR_*). */
+    static class LoadResult {
+        final String saveName;
+        final LoadedSave save;
+        final int status;
+        final String message;
+
+        private LoadResult(String saveName, LoadedSave save, int status, String message) {
+            this.saveName = saveName;
+            this.save = save;
+            this.status = status;
+            this.message = message;
+        }
+
+        static LoadResult success(LoadedSave save) {
+            return new LoadResult(save.saveName, save, -1, null);
+        }
+
+        static LoadResult error(String saveName, int status, String message) {
+            return new LoadResult(saveName, null, status, message);
+        }
+
+        boolean isSuccess() {
+            return save != null;
+        }
+    }
+
+    interface Callback {
+        void onResult(LoadResult result);
+    }
+
+    interface BulkCallback {
+        /** Called once with the results in the order of the requested names. */
+        void onResults(List<LoadResult> results);
+    }
+
+    private final GameHelper gameHelper;
+    private final SnapshotMetadataIndex index;
+    private final SnapshotConflictResolver conflictResolver;
+    private final LocalSnapshotCache cache;
+    private final ExecutorService executor;
+
+    SnapshotLoader(GameHelper gameHelper, SnapshotMetadataIndex index, SnapshotConflictResolver conflictResolver, LocalSnapshotCache cache, ExecutorService executor) {
+        this.gameHelper = gameHelper;
+        this.index = index;
+        this.conflictResolver = conflictResolver;
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    void load(final String saveName, final Callback callback) {
+        if (!gameHelper.isSignedIn()) {
+            callback.onResult(LoadResult.error(saveName, PlayGamesServices.LOAD_GAME_ERROR_NOT_SIGNED, "not yet signed in"));
+            return;
+        }
+        conflictResolver.open(saveName, false, new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                if (!snapshotResult.getStatus().isSuccess()) {
+                    int status = snapshotResult.getStatus().getStatusCode() == GamesStatusCodes.STATUS_SNAPSHOT_NOT_FOUND
+                            ? PlayGamesServices.LOAD_GAME_ERROR_NOT_EXIST
+                            : PlayGamesServices.LOAD_GAME_ERROR_FAILED;
+                    callback.onResult(LoadResult.error(saveName, status, snapshotResult.getStatus().getStatusMessage()));
+                    return;
+                }
+
+                final Snapshot snapshot = snapshotResult.getSnapshot();
+                if (snapshot == null || snapshot.getSnapshotContents() == null) {
+                    callback.onResult(LoadResult.error(saveName, PlayGamesServices.LOAD_GAME_ERROR_NOT_EXIST, "snapshot or snapshotContents is null"));
+                    return;
+                }
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        LoadResult loadResult;
+                        try {
+                            byte[] data = SnapshotFraming.read(snapshot.getSnapshotContents());
+                            if (data == null) {
+                                data = new byte[0];
+                            }
+                            long saveTime = snapshot.getMetadata().getLastModifiedTimestamp();
+                            index.record(snapshot.getMetadata().freeze(), data.length);
+                            cache.put(saveName, data, saveTime);
+                            loadResult = LoadResult.success(new LoadedSave(saveName, data, saveTime));
+                        } catch (ChecksummedSaveFormat.CorruptSaveException e) {
+                            Log.w(LOGTAG, "SnapshotLoader: " + saveName + " is corrupted", e);
+                            loadResult = recoverFromCache(saveName, e.getMessage());
+                        } catch (Exception e) {
+                            Log.w(LOGTAG, "SnapshotLoader: unable to read " + saveName, e);
+                            loadResult = LoadResult.error(saveName, PlayGamesServices.LOAD_GAME_ERROR_FAILED, "error while read snapshot");
+                        } finally {
+                            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+                        }
+                        callback.onResult(loadResult);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Answers a corrupted load with the locally cached copy when there is one.
+     */
+    private LoadResult recoverFromCache(String saveName, String message) {
+        LoadedSave cached = cache.get(saveName);
+        if (cached == null) {
+            return LoadResult.error(saveName, PlayGamesServices.LOAD_GAME_ERROR_CORRUPTED, "corrupted save: " + message);
+        }
+        return LoadResult.success(new LoadedSave(saveName, cached.data, cached.saveTime, true));
+    }
+
+    /**
+     * Loads several saves keeping at most parallelism snapshots open at once.
+     */
+    void loadAll(final List<String> saveNames, int parallelism, final BulkCallback callback) {
+        final List<LoadResult> results = new ArrayList<LoadResult>(saveNames.size());
+        for (int i = 0; i < saveNames.size(); i++) {
+            results.add(null);
+        }
+        runConcurrently(saveNames.size(), parallelism, new Task() {
+            @Override
+            public void run(final int index, final Runnable done) {
+                load(saveNames.get(index), new Callback() {
+                    @Override
+                    public void onResult(LoadResult result) {
+                        synchronized (results) {
+                            results.set(index, result);
+                        }
+                        done.run();
+                    }
+                });
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                callback.onResults(results);
+            }
+        });
+    }
+
+    interface Task {
+        /** Starts the task of the index, calling done once it finished. */
+        void run(int index, Runnable done);
+    }
+
+    /**
+     * Runs count tasks keeping at most parallelism of them in flight, then
+     * calls the completion once, after all of them finished.
+     */
+    static void runConcurrently(final int count, int parallelism, final Task task, final Runnable completion) {
+        if (count == 0) {
+            completion.run();
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger remaining = new AtomicInteger(count);
+        final Runnable[] runNext = new Runnable[1];
+        runNext[0] = new Runnable() {
+            @Override
+            public void run() {
+                int index = next.getAndIncrement();
+                if (index >= count) {
+                    return;
+                }
+                task.run(index, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (remaining.decrementAndGet() == 0) {
+                            completion.run();
+                        } else {
+                            runNext[0].run();
+                        }
+                    }
+                });
+            }
+        };
+
+        int initial = Math.min(count, Math.max(1, parallelism));
+        for (int i = 0; i < initial; i++) {
+            runNext[0].run();
+        }
+    }
+}
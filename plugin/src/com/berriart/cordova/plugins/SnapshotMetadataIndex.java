@@ -0,0 +1,416 @@
+package com.berriart.cordova.plugins;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.snapshot.SnapshotMetadata;
+import com.google.android.gms.games.snapshot.Snapshots;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Locally persisted index of the player's snapshots (name, size, last
+ * modification, description and play time).
+ *
+ * The index is refreshed from the {@link Snapshots#load} metadata listing and
+ * updated in place by the save, load and delete actions, so listing the save
+ * slots is answered from memory. The frozen metadata of every snapshot is kept
+ * in memory as well, which lets deletes skip the listing altogether.
+ *
+ * The index is kept per player; a listing loaded for a player who signed
+ * out meanwhile is dropped. Snapshots the plugin keeps for itself (shards,
+ * key-value namespaces) are named with {@link #INTERNAL_PREFIX}; they are
+ * indexed in memory but never listed.
+ */
+class SnapshotMetadataIndex {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final long DEFAULT_MAX_AGE = 5 * 60 * 1000;
+    static final String INTERNAL_PREFIX = "~pgs~";
+
+    private static final String AREA = "index";
+    private static final String FILE_NAME = "snapshots.json";
+
+    interface Callback {
+        void onSuccess();
+
+        void onError(String message);
+    }
+
+    static class Entry {
+        String name;
+        long sizeBytes = -1;
+        long lastModified;
+        String description;
+        long playedTime;
+        long progressValue;
+        SnapshotMetadata metadata;
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("saveName", name);
+            json.put("sizeBytes", sizeBytes);
+            json.put("saveTime", lastModified);
+            json.put("description", description == null ? JSONObject.NULL : description);
+            json.put("playedTime", playedTime);
+            json.put("progressValue", progressValue);
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) {
+            Entry entry = new Entry();
+            entry.name = json.optString("saveName");
+            entry.sizeBytes = json.optLong("sizeBytes", -1);
+            entry.lastModified = json.optLong("saveTime");
+            entry.description = json.isNull("description") ? null : json.optString("description");
+            entry.playedTime = json.optLong("playedTime");
+            entry.progressValue = json.optLong("progressValue");
+            return entry;
+        }
+    }
+
+    /** A listing being loaded, and the refreshes waiting for it. */
+    private static class Refresh {
+        final boolean forceReload;
+        /** The index file of the player the listing is loaded for. */
+        final File file;
+        final List<Callback> waiters = new ArrayList<Callback>();
+
+        Refresh(boolean forceReload, File file) {
+            this.forceReload = forceReload;
+            this.file = file;
+        }
+    }
+
+    private final Context context;
+    private final GameHelper gameHelper;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private String playerId;
+    /** The index file of the player, null while nobody is signed in. */
+    private File file;
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+    private long refreshedAt;
+    private boolean restored;
+    private Refresh refreshing;
+
+    SnapshotMetadataIndex(Context context, GameHelper gameHelper) {
+        this.context = context;
+        this.gameHelper = gameHelper;
+        final File legacy = new File(PluginStorage.getDirectory(context, AREA), FILE_NAME);
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Written by earlier versions for whoever was signed in
+                if (legacy.isFile() && !legacy.delete()) {
+                    Log.w(LOGTAG, "SnapshotMetadataIndex: unable to delete the shared index");
+                }
+            }
+        });
+    }
+
+    /**
+     * Switches to the index of the player, called once signed in.
+     */
+    synchronized void setPlayer(String playerId) {
+        if (playerId.equals(this.playerId)) {
+            return;
+        }
+        this.playerId = playerId;
+        file = new File(PluginStorage.getPlayerDirectory(context, AREA, playerId), FILE_NAME);
+        reset();
+    }
+
+    /**
+     * Selects the index of the player signed in last unless a player signed
+     * in since, so the save slots can be listed before the connection
+     * completes.
+     */
+    synchronized void restorePlayer(String playerId) {
+        if (this.playerId == null) {
+            setPlayer(playerId);
+        }
+    }
+
+    /**
+     * Forgets the index of the player signing out. Their index stays on disk
+     * for their next sign-in.
+     */
+    synchronized void clear() {
+        playerId = null;
+        file = null;
+        reset();
+    }
+
+    private void reset() {
+        entries.clear();
+        refreshedAt = 0;
+        restored = false;
+        // A listing still loading belongs to the previous player
+        refreshing = null;
+    }
+
+    static boolean isInternal(String name) {
+        return name.startsWith(INTERNAL_PREFIX);
+    }
+
+    /**
+     * Returns the indexed save slots, most recently modified first.
+     */
+    synchronized JSONObject toJson() throws JSONException {
+        restore();
+        List<Entry> sorted = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            if (!isInternal(entry.name)) {
+                sorted.add(entry);
+            }
+        }
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.lastModified == b.lastModified ? 0 : (a.lastModified > b.lastModified ? -1 : 1);
+            }
+        });
+        JSONArray saves = new JSONArray();
+        for (Entry entry : sorted) {
+            saves.put(entry.toJson());
+        }
+        JSONObject result = new JSONObject();
+        result.put("saves", saves);
+        result.put("refreshedAt", refreshedAt);
+        return result;
+    }
+
+    synchronized boolean isFresh(long maxAge) {
+        restore();
+        return refreshedAt > 0 && System.currentTimeMillis() - refreshedAt <= maxAge;
+    }
+
+    /**
+     * Returns the frozen metadata of the snapshot if the index has it in memory.
+     */
+    synchronized SnapshotMetadata metadataFor(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? null : entry.metadata;
+    }
+
+    /**
+     * Returns the names of the indexed snapshots starting with the prefix.
+     */
+    synchronized List<String> namesStartingWith(String prefix) {
+        restore();
+        List<String> names = new ArrayList<String>();
+        for (String name : entries.keySet()) {
+            if (name.startsWith(prefix)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the last modification of the snapshot, or -1 if it is not indexed.
+     */
+    synchronized long lastModifiedOf(String name) {
+        restore();
+        Entry entry = entries.get(name);
+        return entry == null ? -1 : entry.lastModified;
+    }
+
+    /**
+     * Merges the metadata listing into the index. Entries whose last
+     * modification did not change keep their locally known size. A refresh
+     * made while a listing is loading waits for it, unless it forces a reload
+     * the loading one does not.
+     */
+    void refresh(boolean forceReload, Callback callback) {
+        if (!gameHelper.isSignedIn()) {
+            callback.onError("not yet signed in");
+            return;
+        }
+        final Refresh refresh;
+        synchronized (this) {
+            if (refreshing != null && (refreshing.forceReload || !forceReload)) {
+                refreshing.waiters.add(callback);
+                return;
+            }
+            refresh = new Refresh(forceReload, file);
+            refresh.waiters.add(callback);
+            refreshing = refresh;
+        }
+        try {
+            PendingResult<Snapshots.LoadSnapshotsResult> result = Games.Snapshots.load(gameHelper.getApiClient(), forceReload);
+            result.setResultCallback(new ResultCallback<Snapshots.LoadSnapshotsResult>() {
+                @Override
+                public void onResult(Snapshots.LoadSnapshotsResult loadSnapshotsResult) {
+                    String error = null;
+                    try {
+                        if (!loadSnapshotsResult.getStatus().isSuccess()) {
+                            error = "error while loading snapshots: " + loadSnapshotsResult.getStatus().getStatusMessage();
+                        } else if (!index(loadSnapshotsResult, refresh)) {
+                            error = "the player changed while loading snapshots";
+                        } else {
+                            persist();
+                        }
+                    } catch (Exception e) {
+                        Log.w(LOGTAG, "SnapshotMetadataIndex: unable to index snapshots", e);
+                        error = "error while indexing snapshots";
+                    } finally {
+                        loadSnapshotsResult.release();
+                    }
+                    finish(refresh, error);
+                }
+            });
+        } catch (Exception e) {
+            Log.w(LOGTAG, "SnapshotMetadataIndex: unable to load snapshots", e);
+            finish(refresh, "error while loading snapshots");
+        }
+    }
+
+    /**
+     * Merges the listing into the index, unless it was loaded for a player
+     * who signed out since.
+     */
+    private synchronized boolean index(Snapshots.LoadSnapshotsResult loadSnapshotsResult, Refresh refresh) {
+        if (refresh.file != file) {
+            return false;
+        }
+        restore();
+        Set<String> seen = new HashSet<String>();
+        for (SnapshotMetadata metadata : loadSnapshotsResult.getSnapshots()) {
+            seen.add(metadata.getUniqueName());
+            update(metadata.freeze(), -1);
+        }
+        entries.keySet().retainAll(seen);
+        refreshedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Answers every refresh waiting for the listing, with the error if any.
+     */
+    private void finish(Refresh refresh, String error) {
+        List<Callback> waiters;
+        synchronized (this) {
+            if (refreshing == refresh) {
+                refreshing = null;
+            }
+            waiters = new ArrayList<Callback>(refresh.waiters);
+        }
+        for (Callback waiter : waiters) {
+            try {
+                if (error == null) {
+                    waiter.onSuccess();
+                } else {
+                    waiter.onError(error);
+                }
+            } catch (Exception e) {
+                Log.w(LOGTAG, "SnapshotMetadataIndex: refresh callback failed", e);
+            }
+        }
+    }
+
+    /**
+     * Records a snapshot that was just written or read.
+     */
+    void record(SnapshotMetadata metadata, long sizeBytes) {
+        synchronized (this) {
+            restore();
+            update(metadata, sizeBytes);
+        }
+        persist();
+    }
+
+    void remove(String name) {
+        synchronized (this) {
+            restore();
+            if (entries.remove(name) == null) {
+                return;
+            }
+        }
+        persist();
+    }
+
+    private void update(SnapshotMetadata metadata, long sizeBytes) {
+        Entry entry = entries.get(metadata.getUniqueName());
+        if (entry == null) {
+            entry = new Entry();
+            entry.name = metadata.getUniqueName();
+            entries.put(entry.name, entry);
+        } else if (entry.lastModified != metadata.getLastModifiedTimestamp() && sizeBytes < 0) {
+            // Modified elsewhere, the size we knew is stale
+            entry.sizeBytes = -1;
+        }
+        if (sizeBytes >= 0) {
+            entry.sizeBytes = sizeBytes;
+        }
+        entry.lastModified = metadata.getLastModifiedTimestamp();
+        entry.description = metadata.getDescription();
+        entry.playedTime = metadata.getPlayedTime();
+        entry.progressValue = metadata.getProgressValue();
+        entry.metadata = metadata;
+    }
+
+    private void restore() {
+        if (restored || file == null) {
+            return;
+        }
+        restored = true;
+        try {
+            byte[] data = PluginStorage.readFully(file);
+            if (data == null) {
+                return;
+            }
+            JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            refreshedAt = json.optLong("refreshedAt");
+            JSONArray saves = json.optJSONArray("saves");
+            for (int i = 0; saves != null && i < saves.length(); i++) {
+                Entry entry = Entry.fromJson(saves.getJSONObject(i));
+                entries.put(entry.name, entry);
+            }
+        } catch (Exception e) {
+            Log.w(LOGTAG, "SnapshotMetadataIndex: ignoring unreadable index", e);
+            entries.clear();
+        }
+    }
+
+    private void persist() {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] data;
+                    File target;
+                    synchronized (SnapshotMetadataIndex.this) {
+                        target = file;
+                        if (target == null) {
+                            return;
+                        }
+                        data = toJson().toString().getBytes(StandardCharsets.UTF_8);
+                    }
+                    PluginStorage.writeAtomically(target, data);
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "SnapshotMetadataIndex: unable to persist index", e);
+                }
+            }
+        });
+    }
+}
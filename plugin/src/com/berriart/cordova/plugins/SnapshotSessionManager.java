@@ -0,0 +1,486 @@
+package com.berriart.cordova.plugins;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+import com.google.android.gms.games.snapshot.Snapshots;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps snapshots open across several writes so that a game saving after
+ * every level pays for one open and one commit per session instead of one per
+ * save. Sessions are keyed by save name and committed when they stay idle for
+ * their timeout, or when the activity stops. The metadata change of the last
+ * write that had one is committed with the session. A session holds the
+ * journaled save of its name back until it is committed, see
+ * {@link SaveJournal#hold(String)}.
+ */
+class SnapshotSessionManager {
+
+    private static final String LOGTAG = "CordovaPlayGamesService";
+
+    static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+    private static final long COMMIT_ALL_TIMEOUT = 2000;
+
+    interface Callback {
+        void onSuccess(JSONObject result) throws JSONException;
+
+        void onError(String message);
+    }
+
+    private static class Session {
+        final String saveName;
+        final long idleTimeout;
+        final List<Callback> openWaiters = new ArrayList<Callback>();
+        /** Writes made while the snapshot opens, applied in order once open. */
+        final List<QueuedWrite> queuedWrites = new ArrayList<QueuedWrite>();
+        Snapshot snapshot;
+        Future<CoverImageProcessor.PreparedMetadata> metadata;
+        /** Taken by the latest write, released once the session ends. */
+        SaveJournal.Hold journalHold;
+        byte[] data;
+        boolean dirty;
+        int writes;
+        long writtenAt;
+        Runnable idleTask;
+
+        Session(String saveName, long idleTimeout) {
+            this.saveName = saveName;
+            this.idleTimeout = idleTimeout;
+        }
+    }
+
+    private static class QueuedWrite {
+        final byte[] write;
+        final Future<CoverImageProcessor.PreparedMetadata> metadata;
+        final Callback callback;
+
+        QueuedWrite(byte[] write, Future<CoverImageProcessor.PreparedMetadata> metadata, Callback callback) {
+            this.write = write;
+            this.metadata = metadata;
+            this.callback = callback;
+        }
+    }
+
+    private final GameHelper gameHelper;
+    private final SnapshotConflictResolver conflictResolver;
+    private final SnapshotMetadataIndex index;
+    private final LocalSnapshotCache cache;
+    private final SaveJournal journal;
+    private final CoverImageProcessor coverImageProcessor;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Session> sessions = new HashMap<String, Session>();
+
+    SnapshotSessionManager(GameHelper gameHelper, SnapshotConflictResolver conflictResolver, SnapshotMetadataIndex index, LocalSnapshotCache cache,
+                           SaveJournal journal, CoverImageProcessor coverImageProcessor) {
+        this.gameHelper = gameHelper;
+        this.conflictResolver = conflictResolver;
+        this.index = index;
+        this.cache = cache;
+        this.journal = journal;
+        this.coverImageProcessor = coverImageProcessor;
+    }
+
+    synchronized boolean hasSession(String saveName) {
+        return sessions.containsKey(saveName);
+    }
+
+    /**
+     * Returns the save written in the session but not committed yet, or null.
+     */
+    synchronized SnapshotLoader.LoadedSave pendingSave(String saveName) {
+        Session session = sessions.get(saveName);
+        return session != null && session.dirty ? new SnapshotLoader.LoadedSave(saveName, session.data, session.writtenAt) : null;
+    }
+
+    /**
+     * Opens the snapshot for a session, or joins the session already open.
+     */
+    void begin(final String saveName, long idleTimeout, final Callback callback) {
+        final Session session;
+        synchronized (this) {
+            Session existing = sessions.get(saveName);
+            if (existing != null) {
+                if (existing.snapshot == null) {
+                    existing.openWaiters.add(callback);
+                } else {
+                    scheduleIdle(existing);
+                    succeed(callback, existing);
+                }
+                return;
+            }
+            session = new Session(saveName, idleTimeout > 0 ? idleTimeout : DEFAULT_IDLE_TIMEOUT);
+            session.openWaiters.add(callback);
+            sessions.put(saveName, session);
+        }
+
+        conflictResolver.open(saveName, true, new ResultCallback<Snapshots.OpenSnapshotResult>() {
+            @Override
+            public void onResult(Snapshots.OpenSnapshotResult snapshotResult) {
+                List<Callback> waiters;
+                List<QueuedWrite> queued;
+                byte[] data = null;
+                String error = null;
+                boolean discarded = false;
+                Snapshot snapshot = snapshotResult.getSnapshot();
+                synchronized (SnapshotSessionManager.this) {
+                    waiters = new ArrayList<Callback>(session.openWaiters);
+                    session.openWaiters.clear();
+                    queued = new ArrayList<QueuedWrite>(session.queuedWrites);
+                    session.queuedWrites.clear();
+                    if (!snapshotResult.getStatus().isSuccess()) {
+                        error = "error while opening snapshot: " + snapshotResult.getStatus().getStatusMessage();
+                    } else if (snapshot == null || snapshot.getSnapshotContents() == null) {
+                        error = "snapshot or snapshotContents is null";
+                    } else if (sessions.get(saveName) != session) {
+                        // Discarded while opening
+                        discarded = true;
+                        error = "session discarded";
+                    }
+                    if (error != null) {
+                        if (!discarded) {
+                            sessions.remove(saveName);
+                        }
+                    } else {
+                        session.snapshot = snapshot;
+                        for (QueuedWrite write : queued) {
+                            data = record(session, write.write, write.metadata);
+                        }
+                        scheduleIdle(session);
+                    }
+                }
+                if (discarded) {
+                    Games.Snapshots.discardAndClose(gameHelper.getApiClient(), snapshot);
+                } else if (error != null) {
+                    journal.release(session.journalHold, false);
+                }
+                for (Callback waiter : waiters) {
+                    if (error != null) {
+                        waiter.onError(error);
+                    } else {
+                        succeed(waiter, session);
+                    }
+                }
+                for (QueuedWrite write : queued) {
+                    if (error != null) {
+                        coverImageProcessor.discard(write.metadata);
+                        write.callback.onError(error);
+                    } else {
+                        // Only the last of the queued writes reaches the snapshot
+                        writeContents(session, data, write.callback);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the session's save data without committing it. A write made
+     * while the session opens is applied once the snapshot is open.
+     *
+     * @param metadata the change to commit with the session, or null to keep
+     *                 the one of an earlier write
+     */
+    void write(final String saveName, byte[] write, Future<CoverImageProcessor.PreparedMetadata> metadata, final Callback callback) {
+        final Session session;
+        final byte[] data;
+        SaveJournal.Hold previousHold;
+        synchronized (this) {
+            session = sessions.get(saveName);
+            if (session == null) {
+                coverImageProcessor.discard(metadata);
+                callback.onError("no open session for " + saveName);
+                return;
+            }
+            // Newer than the journaled save, which must not be uploaded over it
+            previousHold = session.journalHold;
+            session.journalHold = journal.hold(saveName);
+            if (session.snapshot == null) {
+                session.queuedWrites.add(new QueuedWrite(write, metadata, callback));
+                data = null;
+            } else {
+                data = record(session, write, metadata);
+                scheduleIdle(session);
+            }
+        }
+        journal.release(previousHold, false);
+        if (data != null) {
+            writeContents(session, data, callback);
+        }
+    }
+
+    /**
+     * Makes the write the session's data, returning the bytes to write.
+     */
+    private byte[] record(Session session, byte[] write, Future<CoverImageProcessor.PreparedMetadata> metadata) {
+        if (metadata != null) {
+            coverImageProcessor.discard(session.metadata);
+            session.metadata = metadata;
+        }
+        // Every write replaces the contents
+        session.data = write;
+        session.dirty = true;
+        session.writes++;
+        session.writtenAt = System.currentTimeMillis();
+        return write;
+    }
+
+    private void writeContents(final Session session, final byte[] data, final Callback callback) {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SnapshotSessionManager.this) {
+                    // Only the latest data matters, a later write may already be queued
+                    if (session.data != data) {
+                        succeed(callback, session);
+                        return;
+                    }
+                }
+                if (SnapshotFraming.write(session.snapshot.getSnapshotContents(), data)) {
+                    succeed(callback, session);
+                } else {
+                    callback.onError("unable to write session data");
+                }
+            }
+        });
+    }
+
+    /**
+     * Commits the session if it holds unsaved writes and closes it.
+     */
+    void commit(final String saveName, final Callback callback) {
+        final Session session;
+        synchronized (this) {
+            session = sessions.get(saveName);
+            if (session == null || session.snapshot == null) {
+                callback.onError("no open session for " + saveName);
+                return;
+            }
+            sessions.remove(saveName);
+            cancelIdle(session);
+        }
+
+        // Queued behind the pending writes of the session
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                commitNow(session, callback);
+            }
+        });
+    }
+
+    /**
+     * Closes the session discarding any write not committed yet.
+     */
+    void close(final String saveName, final Callback callback) {
+        final Session session;
+        synchronized (this) {
+            session = sessions.remove(saveName);
+            if (session == null || session.snapshot == null) {
+                if (session != null) {
+                    sessions.put(saveName, session);
+                }
+                callback.onError("no open session for " + saveName);
+                return;
+            }
+            cancelIdle(session);
+        }
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Games.Snapshots.discardAndClose(gameHelper.getApiClient(), session.snapshot);
+                coverImageProcessor.discard(session.metadata);
+                journal.release(session.journalHold, false);
+                succeed(callback, session);
+            }
+        });
+    }
+
+    /**
+     * Discards the session of the save without committing, called once the
+     * save is deleted. A session still opening is discarded once open.
+     */
+    void discard(String saveName) {
+        Session session;
+        synchronized (this) {
+            session = sessions.remove(saveName);
+            if (session == null) {
+                return;
+            }
+            cancelIdle(session);
+        }
+        if (session.snapshot != null) {
+            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), session.snapshot);
+            coverImageProcessor.discard(session.metadata);
+        }
+        journal.release(session.journalHold, false);
+    }
+
+    /**
+     * Commits every open session, called when the activity stops. The commits
+     * are issued before returning so they reach the client before it
+     * disconnects; it waits for the queued writes and must not be called on
+     * the UI thread.
+     */
+    void commitAll() {
+        List<Session> open = new ArrayList<Session>();
+        synchronized (this) {
+            for (Session session : sessions.values()) {
+                if (session.snapshot != null) {
+                    cancelIdle(session);
+                    open.add(session);
+                }
+            }
+            for (Session session : open) {
+                sessions.remove(session.saveName);
+            }
+        }
+        if (open.isEmpty()) {
+            return;
+        }
+        try {
+            // Wait for the queued writes
+            writeExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(COMMIT_ALL_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.w(LOGTAG, "SnapshotSessionManager: pending writes did not finish before stop", e);
+        }
+        for (Session session : open) {
+            commitNow(session, loggingCallback("stop", session.saveName));
+        }
+    }
+
+    /**
+     * Discards every session without committing, called before the client
+     * signs out. Sessions still opening are discarded once open.
+     */
+    void discardAll() {
+        List<Session> open = new ArrayList<Session>();
+        List<SaveJournal.Hold> holds = new ArrayList<SaveJournal.Hold>();
+        synchronized (this) {
+            for (Session session : sessions.values()) {
+                cancelIdle(session);
+                if (session.snapshot != null) {
+                    open.add(session);
+                }
+                holds.add(session.journalHold);
+            }
+            sessions.clear();
+        }
+        for (Session session : open) {
+            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), session.snapshot);
+            coverImageProcessor.discard(session.metadata);
+        }
+        for (SaveJournal.Hold hold : holds) {
+            journal.release(hold, false);
+        }
+    }
+
+    /**
+     * Commits off the UI thread, the metadata change may still be preparing.
+     */
+    private void commitNow(final Session session, final Callback callback) {
+        if (!session.dirty) {
+            Games.Snapshots.discardAndClose(gameHelper.getApiClient(), session.snapshot);
+            coverImageProcessor.discard(session.metadata);
+            journal.release(session.journalHold, false);
+            succeed(callback, session);
+            return;
+        }
+        final CoverImageProcessor.PreparedMetadata prepared = CoverImageProcessor.await(session.metadata);
+        Games.Snapshots.commitAndClose(gameHelper.getApiClient(), session.snapshot, prepared == null ? SnapshotMetadataChange.EMPTY_CHANGE : prepared.change)
+                .setResultCallback(new ResultCallback<Snapshots.CommitSnapshotResult>() {
+                    @Override
+                    public void onResult(Snapshots.CommitSnapshotResult commitSnapshotResult) {
+                        coverImageProcessor.release(prepared);
+                        journal.release(session.journalHold, commitSnapshotResult.getStatus().isSuccess());
+                        if (!commitSnapshotResult.getStatus().isSuccess()) {
+                            callback.onError("save not sent: " + commitSnapshotResult.getStatus().getStatusMessage());
+                            return;
+                        }
+                        index.record(commitSnapshotResult.getSnapshotMetadata().freeze(), session.data.length);
+                        cache.put(session.saveName, session.data, commitSnapshotResult.getSnapshotMetadata().getLastModifiedTimestamp());
+                        try {
+                            JSONObject result = sessionToJson(session);
+                            result.put("saveTime", commitSnapshotResult.getSnapshotMetadata().getLastModifiedTimestamp());
+                            callback.onSuccess(result);
+                        } catch (JSONException e) {
+                            callback.onError("unable to build the result");
+                        }
+                    }
+                });
+    }
+
+    private void scheduleIdle(final Session session) {
+        cancelIdle(session);
+        session.idleTask = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SnapshotSessionManager.this) {
+                    if (session.idleTask != this || sessions.get(session.saveName) != session) {
+                        return;
+                    }
+                }
+                commit(session.saveName, loggingCallback("idle timeout", session.saveName));
+            }
+        };
+        handler.postDelayed(session.idleTask, session.idleTimeout);
+    }
+
+    private void cancelIdle(Session session) {
+        if (session.idleTask != null) {
+            handler.removeCallbacks(session.idleTask);
+            session.idleTask = null;
+        }
+    }
+
+    private static JSONObject sessionToJson(Session session) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("saveName", session.saveName);
+        result.put("writes", session.writes);
+        result.put("dirty", session.dirty);
+        return result;
+    }
+
+    private static void succeed(Callback callback, Session session) {
+        try {
+            callback.onSuccess(sessionToJson(session));
+        } catch (JSONException e) {
+            callback.onError("unable to build the result");
+        }
+    }
+
+    private static Callback loggingCallback(final String reason, final String saveName) {
+        return new Callback() {
+            @Override
+            public void onSuccess(JSONObject result) {
+                Log.d(LOGTAG, "SnapshotSessionManager: " + reason + " closed session " + saveName);
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.w(LOGTAG, "SnapshotSessionManager: " + reason + " failed for " + saveName + ": " + message);
+            }
+        };
+    }
+}
@@ -0,0 +1,230 @@
+package com.berriart.cordova.plugins;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Runs the background snapshot sync periodically while the activity is
+ * started. A run is skipped when the device is offline, when the battery is
+ * low and not charging, or when the metered network budget of the current
+ * window is used up. Skipped and failed runs back off exponentially up to
+ * {@link #MAX_BACKOFF}.
+ *
+ * Time and device state come from {@link Clock} and {@link Conditions} so the
+ * scheduling does not depend on the Android framework.
+ */
+class SyncScheduler {
+
+    static final long DEFAULT_INTERVAL = 15 * 60 * 1000;
+    static final int DEFAULT_MIN_BATTERY_PERCENT = 20;
+    static final long DEFAULT_METERED_BYTES_PER_WINDOW = 1024 * 1024;
+    static final long BUDGET_WINDOW = 60 * 60 * 1000;
+    static final long MAX_BACKOFF = 4 * 60 * 60 * 1000;
+
+    interface Clock {
+        long now();
+
+        void schedule(Runnable task, long delay);
+
+        void cancel(Runnable task);
+    }
+
+    interface Conditions {
+        boolean isOnline();
+
+        boolean isMetered();
+
+        boolean isCharging();
+
+        /** Battery level between 0 and 100, or -1 when unknown. */
+        int batteryPercent();
+    }
+
+    interface SyncTask {
+        void run(Callback callback);
+    }
+
+    interface Callback {
+        /** @param bytesTransferred bytes downloaded or uploaded by the run */
+        void onFinished(long bytesTransferred, String error);
+    }
+
+    private final Clock clock;
+    private final Conditions conditions;
+    private final SyncTask task;
+
+    private boolean enabled;
+    private boolean started;
+    private boolean running;
+    private long interval = DEFAULT_INTERVAL;
+    private int minBatteryPercent = DEFAULT_MIN_BATTERY_PERCENT;
+    private long meteredBytesPerWindow = DEFAULT_METERED_BYTES_PER_WINDOW;
+    private long windowStartedAt;
+    private long meteredBytesInWindow;
+    private int backoffLevel;
+    private long nextRunAt = -1;
+
+    private long runs;
+    private long skipped;
+    private long failures;
+    private long bytesTransferred;
+    private long lastRunAt = -1;
+    private String lastResult;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+        }
+    };
+
+    SyncScheduler(Clock clock, Conditions conditions, SyncTask task) {
+        this.clock = clock;
+        this.conditions = conditions;
+        this.task = task;
+    }
+
+    synchronized void configure(boolean enabled, long interval, int minBatteryPercent, long meteredBytesPerWindow) {
+        this.enabled = enabled;
+        this.interval = Math.max(60 * 1000, interval);
+        this.minBatteryPercent = minBatteryPercent;
+        this.meteredBytesPerWindow = meteredBytesPerWindow;
+        backoffLevel = 0;
+        reschedule(this.interval);
+    }
+
+    /**
+     * Starts or resumes the schedule, the first run happens after one interval.
+     */
+    synchronized void start() {
+        started = true;
+        reschedule(interval);
+    }
+
+    /**
+     * Pauses the schedule, a run in progress finishes normally.
+     */
+    synchronized void stop() {
+        started = false;
+        clock.cancel(tick);
+        nextRunAt = -1;
+    }
+
+    /**
+     * Runs a sync now, whatever the schedule and the budget.
+     */
+    void syncNow(Callback done) {
+        synchronized (this) {
+            if (running) {
+                done.onFinished(0, "sync already running");
+                return;
+            }
+            running = true;
+        }
+        runTask(conditions.isMetered(), done);
+    }
+
+    synchronized JSONObject statusToJson() throws JSONException {
+        JSONObject status = new JSONObject();
+        status.put("enabled", enabled);
+        status.put("running", running);
+        status.put("runs", runs);
+        status.put("skipped", skipped);
+        status.put("failures", failures);
+        status.put("bytesTransferred", bytesTransferred);
+        status.put("lastResult", lastResult == null ? JSONObject.NULL : lastResult);
+        status.put("msSinceLastRun", lastRunAt < 0 ? -1 : clock.now() - lastRunAt);
+        status.put("msUntilNextRun", nextRunAt < 0 ? -1 : Math.max(0, nextRunAt - clock.now()));
+        return status;
+    }
+
+    private void onTick() {
+        boolean metered;
+        synchronized (this) {
+            nextRunAt = -1;
+            if (!enabled || !started || running) {
+                return;
+            }
+            String reason = skipReason();
+            if (reason != null) {
+                skipped++;
+                lastResult = "skipped: " + reason;
+                backOff();
+                return;
+            }
+            running = true;
+            metered = conditions.isMetered();
+        }
+        runTask(metered, null);
+    }
+
+    private void runTask(final boolean metered, final Callback done) {
+        task.run(new Callback() {
+            @Override
+            public void onFinished(long bytes, String error) {
+                synchronized (SyncScheduler.this) {
+                    running = false;
+                    runs++;
+                    lastRunAt = clock.now();
+                    bytesTransferred += bytes;
+                    if (metered) {
+                        rollWindow();
+                        meteredBytesInWindow += bytes;
+                    }
+                    if (error != null) {
+                        failures++;
+                        lastResult = "failed: " + error;
+                        backOff();
+                    } else {
+                        lastResult = "ok";
+                        backoffLevel = 0;
+                        reschedule(interval);
+                    }
+                }
+                if (done != null) {
+                    done.onFinished(bytes, error);
+                }
+            }
+        });
+    }
+
+    private String skipReason() {
+        if (!conditions.isOnline()) {
+            return "offline";
+        }
+        int battery = conditions.batteryPercent();
+        if (battery >= 0 && battery < minBatteryPercent && !conditions.isCharging()) {
+            return "battery low";
+        }
+        if (conditions.isMetered()) {
+            rollWindow();
+            if (meteredBytesInWindow >= meteredBytesPerWindow) {
+                return "metered budget used";
+            }
+        }
+        return null;
+    }
+
+    private void rollWindow() {
+        long now = clock.now();
+        if (now - windowStartedAt >= BUDGET_WINDOW) {
+            windowStartedAt = now;
+            meteredBytesInWindow = 0;
+        }
+    }
+
+    private void backOff() {
+        backoffLevel = Math.min(backoffLevel + 1, 16);
+        reschedule(Math.min(MAX_BACKOFF, interval << backoffLevel));
+    }
+
+    private void reschedule(long delay) {
+        clock.cancel(tick);
+        if (!enabled || !started) {
+            nextRunAt = -1;
+            return;
+        }
+        nextRunAt = clock.now() + delay;
+        clock.schedule(tick, delay);
+    }
+}
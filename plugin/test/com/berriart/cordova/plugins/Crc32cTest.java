@@ -0,0 +1,66 @@
+package com.berriart.cordova.plugins;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Crc32cTest {
+
+    /**
+     * Snapshots are committed and downloaded through the Play Games service,
+     * well below this rate even on a fast connection.
+     */
+    private static final double SNAPSHOT_BYTES_PER_SECOND = 10e6;
+    /** Checksumming may slow saves and loads down by at most 5%. */
+    private static final double THROUGHPUT_BUDGET = 0.05;
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void matchesTheKnownAnswer() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xE3069283, Crc32c.compute(check, 0, check.length));
+    }
+
+    @Test
+    public void emptyDataHasAZeroChecksum() {
+        assertEquals(0, Crc32c.compute(new byte[0], 0, 0));
+    }
+
+    @Test
+    public void updateContinuesAChecksum() {
+        byte[] data = random(100003, 1);
+        int whole = Crc32c.compute(data, 0, data.length);
+        for (int split : new int[]{1, 7, 8, 9, 50001, data.length - 1}) {
+            assertEquals(whole, Crc32c.update(Crc32c.compute(data, 0, split), data, split, data.length - split));
+        }
+    }
+
+    @Test
+    public void checksumsFastEnoughForTheThroughputBudget() {
+        byte[] data = random(8 * 1024 * 1024, 2);
+        // Warms the JIT up before timing
+        int sink = 0;
+        for (int i = 0; i < 5; i++) {
+            sink ^= Crc32c.compute(data, 0, data.length);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            sink ^= Crc32c.compute(data, 0, data.length);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double bytesPerSecond = data.length / (best / 1e9);
+        double required = SNAPSHOT_BYTES_PER_SECOND / THROUGHPUT_BUDGET;
+        assertTrue("checksummed " + (long) (bytesPerSecond / 1e6) + " MB/s, needs " + (long) (required / 1e6) + " MB/s (" + sink + ")",
+                bytesPerSecond >= required);
+    }
+}
@@ -0,0 +1,248 @@
+package com.berriart.cordova.plugins;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeltaSaveFormatTest {
+
+    private static final long SNAPSHOT_TIME = 1000;
+
+    /** Growable in-memory snapshot contents. */
+    private static class FakeContents implements DeltaSaveFormat.Contents {
+        byte[] data = new byte[0];
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public void writeBytes(byte[] bytes) {
+            data = bytes.clone();
+        }
+
+        @Override
+        public void modifyBytes(int offset, byte[] bytes, int srcOffset, int count) {
+            if (offset + count > data.length) {
+                data = Arrays.copyOf(data, offset + count);
+            }
+            System.arraycopy(bytes, srcOffset, data, offset, count);
+        }
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    /** Streams the frame back from a file, as it is read from a snapshot descriptor. */
+    private static byte[] readStream(byte[] frame) throws IOException {
+        File file = File.createTempFile("delta", ".bin");
+        try {
+            FileOutputStream fileOut = new FileOutputStream(file);
+            try {
+                fileOut.write(frame);
+            } finally {
+                fileOut.close();
+            }
+            FileInputStream fileIn = new FileInputStream(file);
+            try {
+                SnapshotFraming.PayloadStream in = DeltaSaveFormat.unwrap(fileIn);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1000];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                assertEquals(out.size(), in.length);
+                return out.toByteArray();
+            } finally {
+                fileIn.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void chunksCoverThePayloadWithinTheBounds() {
+        byte[] payload = random(500 * 1024, 1);
+        List<DeltaSaveFormat.Chunk> chunks = DeltaSaveFormat.chunk(payload);
+        int offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            DeltaSaveFormat.Chunk chunk = chunks.get(i);
+            assertEquals(offset, chunk.offset);
+            assertTrue(chunk.length <= DeltaSaveFormat.MAX_CHUNK);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.length >= DeltaSaveFormat.MIN_CHUNK);
+            }
+            offset += chunk.length;
+        }
+        assertEquals(payload.length, offset);
+    }
+
+    @Test
+    public void uniformDataIsCutAtTheMaximum() {
+        List<DeltaSaveFormat.Chunk> chunks = DeltaSaveFormat.chunk(new byte[3 * DeltaSaveFormat.MAX_CHUNK]);
+        assertEquals(3, chunks.size());
+        for (DeltaSaveFormat.Chunk chunk : chunks) {
+            assertEquals(DeltaSaveFormat.MAX_CHUNK, chunk.length);
+        }
+    }
+
+    @Test
+    public void emptyPayloadHasNoChunks() throws IOException {
+        assertEquals(0, DeltaSaveFormat.chunk(new byte[0]).size());
+        FakeContents contents = new FakeContents();
+        DeltaSaveFormat.write(contents, new byte[0], null, SNAPSHOT_TIME);
+        assertEquals(0, DeltaSaveFormat.unwrap(contents.data).length);
+    }
+
+    @Test
+    public void boundariesResynchronizeAfterAnInsertion() {
+        byte[] original = random(300 * 1024, 2);
+        byte[] edited = concat(random(100, 3), original);
+        List<DeltaSaveFormat.Chunk> before = DeltaSaveFormat.chunk(original);
+        List<DeltaSaveFormat.Chunk> after = DeltaSaveFormat.chunk(edited);
+        // Every chunk but the first ones is found again, shifted by the insertion
+        int matched = 0;
+        for (DeltaSaveFormat.Chunk chunk : after) {
+            for (DeltaSaveFormat.Chunk previous : before) {
+                if (Arrays.equals(chunk.hash, previous.hash)) {
+                    assertEquals(previous.offset + 100, chunk.offset);
+                    matched++;
+                    break;
+                }
+            }
+        }
+        assertTrue(matched >= before.size() - 2);
+    }
+
+    @Test
+    public void fullRewriteRoundTrips() throws IOException {
+        byte[] payload = random(200 * 1024, 4);
+        FakeContents contents = new FakeContents();
+        DeltaSaveFormat.WriteResult result = DeltaSaveFormat.write(contents, payload, null, SNAPSHOT_TIME);
+        assertTrue(result.fullRewrite);
+        assertEquals(contents.data.length, result.bytesWritten);
+        assertArrayEquals(payload, DeltaSaveFormat.unwrap(contents.data));
+        assertArrayEquals(payload, readStream(contents.data));
+    }
+
+    @Test
+    public void insertionAtTheStartOnlyWritesTheNewChunks() throws IOException {
+        byte[] original = random(400 * 1024, 5);
+        FakeContents contents = new FakeContents();
+        DeltaSaveFormat.Manifest manifest = DeltaSaveFormat.write(contents, original, null, SNAPSHOT_TIME).manifest;
+
+        byte[] edited = concat(random(50, 6), original);
+        DeltaSaveFormat.WriteResult result = DeltaSaveFormat.write(contents, edited, manifest.withSnapshotTime(SNAPSHOT_TIME), SNAPSHOT_TIME);
+        assertFalse(result.fullRewrite);
+        assertTrue("wrote " + result.bytesWritten, result.bytesWritten < 3 * DeltaSaveFormat.MAX_CHUNK);
+        assertArrayEquals(edited, DeltaSaveFormat.unwrap(contents.data));
+        assertArrayEquals(edited, readStream(contents.data));
+    }
+
+    @Test
+    public void successiveDeltasRoundTrip() throws IOException {
+        byte[] payload = random(300 * 1024, 7);
+        FakeContents contents = new FakeContents();
+        DeltaSaveFormat.Manifest manifest = DeltaSaveFormat.write(contents, payload, null, SNAPSHOT_TIME).manifest;
+        Random random = new Random(8);
+        for (int i = 0; i < 10; i++) {
+            int at = random.nextInt(payload.length);
+            int removed = Math.min(random.nextInt(4096), payload.length - at);
+            payload = concat(Arrays.copyOfRange(payload, 0, at), random(random.nextInt(4096), i),
+                    Arrays.copyOfRange(payload, at + removed, payload.length));
+            manifest = DeltaSaveFormat.write(contents, payload, manifest.withSnapshotTime(SNAPSHOT_TIME), SNAPSHOT_TIME).manifest;
+            assertArrayEquals(payload, DeltaSaveFormat.unwrap(contents.data));
+            assertArrayEquals(payload, readStream(contents.data));
+        }
+    }
+
+    @Test
+    public void unchangedPayloadOnlyRewritesTheIndex() throws IOException {
+        byte[] payload = random(100 * 1024, 9);
+        FakeContents contents = new FakeContents();
+        DeltaSaveFormat.Manifest manifest = DeltaSaveFormat.write(contents, payload, null, SNAPSHOT_TIME).manifest;
+        DeltaSaveFormat.WriteResult result = DeltaSaveFormat.write(contents, payload, manifest.withSnapshotTime(SNAPSHOT_TIME), SNAPSHOT_TIME);
+        assertFalse(result.fullRewrite);
+        assertEquals(DeltaSaveFormat.HEADER_SIZE + manifest.chunks.size() * 8, result.bytesWritten);
+        assertArrayEquals(payload, DeltaSaveFormat.unwrap(contents.data));
+    }
+
+    @Test
+    public void shrinkingFarBelowTheStoredDataRewritesEverything() throws IOException {
+        FakeContents contents = new FakeContents();
+        DeltaSaveFormat.Manifest manifest = DeltaSaveFormat.write(contents, random(400 * 1024, 10), null, SNAPSHOT_TIME).manifest;
+        byte[] small = random(10 * 1024, 11);
+        DeltaSaveFormat.WriteResult result = DeltaSaveFormat.write(contents, small, manifest.withSnapshotTime(SNAPSHOT_TIME), SNAPSHOT_TIME);
+        assertTrue(result.fullRewrite);
+        assertArrayEquals(small, DeltaSaveFormat.unwrap(contents.data));
+    }
+
+    @Test
+    public void staleManifestRewritesEverything() throws IOException {
+        byte[] payload = random(100 * 1024, 12);
+        FakeContents contents = new FakeContents();
+        DeltaSaveFormat.Manifest manifest = DeltaSaveFormat.write(contents, payload, null, SNAPSHOT_TIME).manifest;
+        DeltaSaveFormat.WriteResult result = DeltaSaveFormat.write(contents, payload, manifest.withSnapshotTime(SNAPSHOT_TIME), SNAPSHOT_TIME + 1);
+        assertTrue(result.fullRewrite);
+    }
+
+    @Test
+    public void plainDataIsReturnedAsIs() throws IOException {
+        byte[] plain = "{\"level\":3}".getBytes("UTF-8");
+        assertArrayEquals(plain, DeltaSaveFormat.unwrap(plain));
+        assertArrayEquals(plain, readStream(plain));
+    }
+
+    @Test
+    public void versionOneFramesAreStillRead() throws IOException {
+        byte[] payload = random(5000, 13);
+        byte[] frame = concat(new byte[]{0x00, 'P', 'G', 'D', 0, 0, 0, 1, 0, 0, 0x13, (byte) 0x88}, payload, new byte[100]);
+        assertArrayEquals(payload, DeltaSaveFormat.unwrap(frame));
+        assertArrayEquals(payload, readStream(frame));
+    }
+
+    @Test
+    public void truncatedFramesAreRejected() {
+        FakeContents contents = new FakeContents();
+        DeltaSaveFormat.write(contents, random(50 * 1024, 14), null, SNAPSHOT_TIME);
+        try {
+            DeltaSaveFormat.unwrap(Arrays.copyOf(contents.data, contents.data.length - 4));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            readStream(Arrays.copyOf(contents.data, contents.data.length - 4));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
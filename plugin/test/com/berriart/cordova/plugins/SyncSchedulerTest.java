@@ -0,0 +1,209 @@
+package com.berriart.cordova.plugins;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SyncSchedulerTest {
+
+    private static final long INTERVAL = 60 * 1000;
+    private static final long BUDGET = 1000;
+
+    private static class FakeClock implements SyncScheduler.Clock {
+        long now;
+        Runnable task;
+        long runAt = -1;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delay) {
+            this.task = task;
+            this.runAt = now + delay;
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            if (this.task == task) {
+                this.task = null;
+                this.runAt = -1;
+            }
+        }
+
+        /** Moves to the scheduled run and runs it, returning the delay waited. */
+        long runNext() {
+            long delay = runAt - now;
+            Runnable next = task;
+            now = runAt;
+            task = null;
+            runAt = -1;
+            next.run();
+            return delay;
+        }
+    }
+
+    private static class FakeConditions implements SyncScheduler.Conditions {
+        boolean online = true;
+        boolean metered;
+        boolean charging;
+        int batteryPercent = 100;
+
+        @Override
+        public boolean isOnline() {
+            return online;
+        }
+
+        @Override
+        public boolean isMetered() {
+            return metered;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return charging;
+        }
+
+        @Override
+        public int batteryPercent() {
+            return batteryPercent;
+        }
+    }
+
+    private static class FakeTask implements SyncScheduler.SyncTask {
+        int runs;
+        long bytes;
+        String error;
+
+        @Override
+        public void run(SyncScheduler.Callback callback) {
+            runs++;
+            callback.onFinished(bytes, error);
+        }
+    }
+
+    private FakeClock clock;
+    private FakeConditions conditions;
+    private FakeTask task;
+    private SyncScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        conditions = new FakeConditions();
+        task = new FakeTask();
+        scheduler = new SyncScheduler(clock, conditions, task);
+        scheduler.configure(true, INTERVAL, 20, BUDGET);
+        scheduler.start();
+    }
+
+    @Test
+    public void runsEveryIntervalAfterSuccess() {
+        assertEquals(INTERVAL, clock.runNext());
+        assertEquals(1, task.runs);
+        assertEquals(INTERVAL, clock.runNext());
+        assertEquals(2, task.runs);
+    }
+
+    @Test
+    public void failuresBackOffExponentiallyUpToTheMaximum() {
+        task.error = "network";
+        clock.runNext();
+        assertEquals(INTERVAL * 2, clock.runNext());
+        assertEquals(INTERVAL * 4, clock.runNext());
+        assertEquals(INTERVAL * 8, clock.runNext());
+        for (int i = 0; i < 20; i++) {
+            clock.runNext();
+        }
+        assertEquals(SyncScheduler.MAX_BACKOFF, clock.runNext());
+    }
+
+    @Test
+    public void successResetsTheBackoff() {
+        task.error = "network";
+        clock.runNext();
+        clock.runNext();
+        task.error = null;
+        clock.runNext();
+        assertEquals(INTERVAL, clock.runNext());
+    }
+
+    @Test
+    public void lowBatterySkipsAndBacksOffUnlessCharging() {
+        conditions.batteryPercent = 10;
+        clock.runNext();
+        assertEquals(0, task.runs);
+        assertEquals(INTERVAL * 2, clock.runNext());
+        assertEquals(0, task.runs);
+
+        conditions.charging = true;
+        clock.runNext();
+        assertEquals(1, task.runs);
+        assertEquals(INTERVAL, clock.runNext());
+    }
+
+    @Test
+    public void unknownBatteryLevelDoesNotSkip() {
+        conditions.batteryPercent = -1;
+        clock.runNext();
+        assertEquals(1, task.runs);
+    }
+
+    @Test
+    public void offlineSkips() {
+        conditions.online = false;
+        clock.runNext();
+        assertEquals(0, task.runs);
+    }
+
+    @Test
+    public void meteredBudgetSkipsUntilTheWindowRolls() {
+        conditions.metered = true;
+        task.bytes = BUDGET;
+        clock.runNext();
+        assertEquals(1, task.runs);
+
+        // The window's budget is used up
+        clock.runNext();
+        assertEquals(1, task.runs);
+
+        clock.now = SyncScheduler.BUDGET_WINDOW + 1;
+        clock.runAt = clock.now;
+        clock.runNext();
+        assertEquals(2, task.runs);
+    }
+
+    @Test
+    public void unmeteredTransfersDoNotUseTheBudget() {
+        task.bytes = BUDGET * 10;
+        clock.runNext();
+        conditions.metered = true;
+        clock.runNext();
+        assertEquals(2, task.runs);
+    }
+
+    @Test
+    public void syncNowIgnoresTheBudget() {
+        conditions.metered = true;
+        task.bytes = BUDGET;
+        clock.runNext();
+        final int[] finished = new int[1];
+        scheduler.syncNow(new SyncScheduler.Callback() {
+            @Override
+            public void onFinished(long bytesTransferred, String error) {
+                finished[0]++;
+            }
+        });
+        assertEquals(2, task.runs);
+        assertEquals(1, finished[0]);
+    }
+
+    @Test
+    public void stopCancelsTheSchedule() {
+        scheduler.stop();
+        assertEquals(-1, clock.runAt);
+    }
+}
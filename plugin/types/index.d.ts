@@ -8,6 +8,11 @@ interface IShowPlayerResponse {
     title: string;
     iconImageUrl: string;
     hiResIconImageUrl: string;
+    /** Local file URIs of the avatars, null until they are downloaded to the device cache */
+    iconImageUri: string | null;
+    hiResIconImageUri: string | null;
+    /** The last known player, answered before the sign-in completes */
+    cached?: boolean;
 }
 
 interface IGetPlayerScoreInput {
@@ -21,9 +26,107 @@ interface IShowLeaderboardInput {
     leaderboardId: string;
 }
 
+type LeaderboardTimeSpan = 'daily' | 'weekly' | 'allTime';
+
+interface ILoadScoresInput {
+    leaderboardId: string;
+    timeSpan?: LeaderboardTimeSpan;
+    collection?: 'public' | 'social';
+    /** Scores per page, between 1 and 25 */
+    maxResults?: number;
+    /** Pages loaded before the paging stops and returns a page token */
+    pages?: number;
+    /** Skips the page cache */
+    forceReload?: boolean;
+}
+interface ILoadMoreScoresInput {
+    pageToken: string;
+    /** Loads towards higher ranks instead of lower ranks */
+    previous?: boolean;
+    pages?: number;
+}
+interface ILeaderboardScore {
+    rank: number;
+    displayRank: string;
+    score: number;
+    displayScore: string;
+    scoreTag: string | null;
+    timestamp: number;
+    playerId: string | null;
+    playerDisplayName: string;
+    playerIconImageUrl: string | null;
+    /** Local file URI of the avatar, null until it is downloaded to the device cache */
+    playerIconImageUri: string | null;
+}
+interface ILoadScoresPage {
+    leaderboardId: string;
+    done: false;
+    /** 0 for the first page loaded, negative for pages loaded with previous */
+    pageIndex: number;
+    scores: ILeaderboardScore[];
+}
+interface IGetLocalRankInput {
+    leaderboardId: string;
+    score: number;
+    timeSpan?: LeaderboardTimeSpan;
+}
+interface IGetLocalRankResponse {
+    rank: number;
+    /** Counted among the scores known on the device rather than derived from a remote rank */
+    estimated: boolean;
+    knownScores: number;
+}
+interface ILoadLocalScoresInput {
+    leaderboardId: string;
+    timeSpan?: LeaderboardTimeSpan;
+    maxResults?: number;
+}
+interface ILocalScore {
+    rank: number;
+    estimated: boolean;
+    score: number;
+    timestamp: number;
+    /** null for a score submitted on the device before the player was known */
+    playerId: string | null;
+    playerDisplayName: string | null;
+}
+interface ILoadLocalScoresResponse {
+    leaderboardId: string;
+    scores: ILocalScore[];
+}
+interface ILoadLeaderboardMetadataInput {
+    /** Returns only this leaderboard */
+    leaderboardId?: string;
+    /** Reloads the metadata even if the cached copy is fresh */
+    forceReload?: boolean;
+}
+interface ILeaderboardMetadata {
+    leaderboardId: string;
+    displayName: string;
+    iconImageUrl: string | null;
+    scoreOrder: 'largerIsBetter' | 'smallerIsBetter';
+}
+interface ILoadLeaderboardMetadataResponse {
+    leaderboards: ILeaderboardMetadata[];
+    refreshedAt: number;
+}
+interface ILoadScoresDone {
+    leaderboardId: string;
+    done: true;
+    /** Continues the paging with loadMoreScores, null when there are no more scores */
+    pageToken: string | null;
+}
+
 interface ISubmitScoreInput {
     score: number;
     leaderboardId: string;
+    /** submitScore only: sends the score even if it is not better than the best known */
+    force?: boolean;
+}
+interface IScoreSubmissionStats {
+    submitted: number;
+    /** submitScore calls not sent as the score could not change any time span */
+    suppressed: number;
 }
 interface ISubmitScoreResponse {
     leaderboardId: string;
@@ -41,9 +144,370 @@ interface IUnlockAchievementInput {
 interface IIncrementAchievement {
     achievementId: string;
     numSteps: number;
+    /** incrementAchievementNow answers at once with the steps predicted from the cached achievements */
+    optimistic?: boolean;
+}
+interface IIncrementAchievementResponse {
+    achievementId: string;
+    unlocked: boolean;
+    /** Whether the answer is a prediction not yet confirmed by the server */
+    optimistic: boolean;
+    /** Missing when the achievement is not cached */
+    currentSteps?: number;
+    totalSteps?: number;
+}
+
+interface IAvatarCacheStats {
+    entries: number;
+    bytes: number;
+    maxBytes: number;
+    hits: number;
+    misses: number;
+    hitRate: number;
+    downloads: number;
+    failures: number;
+    evictions: number;
+    evictedBytes: number;
+}
+interface IIncrementEventInput {
+    eventId: string;
+    /** Defaults to 1 */
+    amount?: number;
+}
+interface ILoadAchievementsInput {
+    /** Reloads the achievements instead of answering from the cached copy */
+    forceReload?: boolean;
+}
+interface IAchievement {
+    achievementId: string;
+    name: string;
+    description: string;
+    type: 'standard' | 'incremental';
+    state: 'unlocked' | 'revealed' | 'hidden';
+    /** Always 0 for standard achievements */
+    currentSteps: number;
+    totalSteps: number;
+    lastUpdated: number;
+    unlockedImageUrl: string | null;
+    revealedImageUrl: string | null;
+    xpValue: number;
+}
+interface ILoadAchievementsResponse {
+    achievements: IAchievement[];
+    refreshedAt: number;
+}
+interface IAchievementChanges {
+    /** Achievements whose state or steps changed */
+    changed: IAchievement[];
+    /** Identifiers of achievements no longer listed */
+    removed: string[];
+    /** Whether the changes correct an optimistic increment the server did not confirm */
+    corrected: boolean;
+}
+
+interface ISaveGameInput {
+    /** Names starting with ~pgs~ are reserved for the snapshots the plugin keeps for itself */
+    saveName: string;
+    saveData: string;
+    /** Writes only the chunks whose content changed since the last delta save. Rejected while a save session of the same name is open */
+    delta?: boolean;
+    /** Shown in the Play Games saved games UI */
+    description?: string;
+    /** Milliseconds played, shown in the Play Games saved games UI */
+    playedTime?: number;
+    progressValue?: number;
+    /** Base64 image or data URL, scaled down to the cover image limit */
+    coverImage?: string;
+    /** Stores a CRC-32C per block, verified on load. Cannot be combined with delta */
+    checksum?: boolean;
+    /** Acknowledges once the save is in the local journal and uploads it in the background, delta is ignored */
+    journal?: boolean;
+}
+interface ISaveGameResponse {
+    saveTime: number;
+    bytesWritten?: number;
+    fullRewrite?: boolean;
+    journaled?: boolean;
+}
+
+interface ILoadGameInput {
+    saveName: string;
+    /** Answers from the local save cache when its copy is as recent as the last known snapshot */
+    cached?: boolean;
+}
+interface ILoadGameResponse {
+    saveData: string;
+    saveTime: number;
+    /** Set when the snapshot failed its checksums and the locally cached copy was returned */
+    recoveredFromCache?: boolean;
+    /** Set when the save was answered from the local save cache */
+    cached?: boolean;
+}
+interface ILoadGameError {
+    status: number;
+    message: string;
+}
+
+interface ILoadGameChunkedInput {
+    saveName: string;
+    chunkSize?: number;
+}
+interface ILoadGameChunkedResponse {
+    saveName: string;
+    chunkIndex?: number;
+    offset?: number;
+    /** Length of the save data, without the snapshot framing */
+    totalBytes: number;
+    saveTime: number;
+    chunkData?: string;
+    done: boolean;
+}
+
+interface IDeleteSaveGameInput {
+    saveName?: string;
+    /** Deletes several saves at once, the response then lists the outcome per save */
+    saveNames?: string[];
+}
+interface IDeleteSaveGameResponse {
+    deleted: string[];
+    failed: { saveName: string, message: string }[];
+}
+
+interface IPutSaveValueInput {
+    namespace: string;
+    key?: string;
+    value?: string;
+    /** Several keys at once, applied in a single update */
+    values?: { [key: string]: string };
+}
+
+interface IGetSaveValueInput {
+    namespace: string;
+    /** When omitted every value of the namespace is returned */
+    key?: string;
+}
+interface IGetSaveValueResponse {
+    namespace: string;
+    key?: string;
+    exists?: boolean;
+    value?: string | null;
+    values?: { [key: string]: string };
+}
+
+interface IDeleteSaveValueInput {
+    namespace: string;
+    key?: string;
+    keys?: string[];
+}
+
+interface IFlushSaveValuesInput {
+    namespace: string;
+}
+
+interface ISaveGameShardedInput {
+    /** Names starting with ~pgs~ are reserved for the snapshots the plugin keeps for itself */
+    saveName: string;
+    saveData: string;
+    /** Bytes per shard, defaults to the maximum snapshot data size */
+    shardSize?: number;
+    /** Maximum number of shards transferred at the same time */
+    parallelism?: number;
+}
+interface ISaveGameShardedResponse {
+    saveTime: number;
+    shards: number;
+}
+
+interface ILoadGameShardedInput {
+    saveName: string;
+    parallelism?: number;
+}
+interface ILoadGameShardedResponse {
+    saveData: string;
+    saveTime: number;
+    shards: number;
+}
+
+interface IListSavesInput {
+    /** Bypasses the Play Games cache when refreshing the index */
+    forceReload?: boolean;
+    /** Milliseconds the index is considered fresh, defaults to 5 minutes */
+    maxAge?: number;
+    /** Answers from the local index without refreshing it */
+    cachedOnly?: boolean;
+}
+interface ISaveSlot {
+    saveName: string;
+    /** Size of the save data, -1 when it is not known locally */
+    sizeBytes: number;
+    saveTime: number;
+    description: string | null;
+    playedTime: number;
+    progressValue: number;
+}
+interface IListSavesResponse {
+    saves: ISaveSlot[];
+    refreshedAt: number;
+}
+
+interface ILoadGamesInput {
+    saveNames: string[];
+    /** Maximum number of snapshots opened at the same time, defaults to 3 */
+    parallelism?: number;
+}
+interface ILoadGamesSlot {
+    saveName: string;
+    saveData?: string;
+    saveTime?: number;
+    /** One of the LOAD_GAME_ERROR_* codes when the slot could not be loaded */
+    status?: number;
+    message?: string;
+}
+interface ILoadGamesResponse {
+    saves: ILoadGamesSlot[];
+}
+
+interface ISetPrefetchSavesInput {
+    saveNames: string[];
+    maxEntries?: number;
+    maxBytes?: number;
+}
+
+interface IPrefetchStats {
+    prefetched: number;
+    hits: number;
+    inFlightHits: number;
+    misses: number;
+    hitRate: number;
+    evicted: number;
+    discarded: number;
+    bufferedEntries: number;
+    bufferedBytes: number;
+}
+
+interface ISetSaveCacheOptionsInput {
+    maxBytes?: number;
+    /** Saves never evicted from the cache */
+    pinned?: string[];
+}
+
+interface ISaveCacheStats {
+    entries: number;
+    bytes: number;
+    maxBytes: number;
+    pinned: string[];
+    hits: number;
+    misses: number;
+    hitRate: number;
+    evictions: number;
+    evictedBytes: number;
+}
+
+type ConflictStrategy = 'mostRecentlyModified' | 'longestPlaytime' | 'maxPerField' | 'union' | 'js';
+
+interface ISetConflictResolutionInput {
+    strategy: ConflictStrategy;
+}
+
+interface ISnapshotConflict {
+    conflictId: string;
+    saveName: string;
+    saveData: string;
+    saveTime: number;
+    conflictingSaveData: string;
+    conflictingSaveTime: number;
+}
+
+interface IResolveConflictInput {
+    conflictId: string;
+    saveData: string;
+}
+
+interface IConflictStats {
+    strategy: ConflictStrategy;
+    conflicts: number;
+    resolved: number;
+    fallbacks: number;
+    failed: number;
+    rounds: number;
+    averageLatencyMs: number;
+    maxLatencyMs: number;
+}
+
+interface IBeginSaveSessionInput {
+    saveName: string;
+    /** Milliseconds without writes before the session is committed, 60000 by default */
+    idleTimeout?: number;
+}
+
+interface IWriteSaveSessionInput {
+    saveName: string;
+    saveData: string;
+    /** Committed with the session, the last write that sets metadata wins */
+    description?: string;
+    /** Milliseconds played, shown in the Play Games saved games UI */
+    playedTime?: number;
+    progressValue?: number;
+    /** Base64 image or data URL, scaled down to the cover image limit */
+    coverImage?: string;
+}
+
+interface ISaveSessionInput {
+    saveName: string;
+}
+
+interface ISaveSessionResponse {
+    saveName: string;
+    writes: number;
+    dirty: boolean;
+    /** Only set by commitSaveSession when the session had writes */
+    saveTime?: number;
+}
+
+interface IJournaledSave {
+    saveName: string;
+    saveTime: number;
+    sizeBytes: number;
+    uploading: boolean;
+}
+
+interface ISaveJournalResponse {
+    pending: IJournaledSave[];
+}
+
+interface ISetSyncOptionsInput {
+    /** true by default */
+    enabled?: boolean;
+    /** Seconds between runs, like the PlayGamesSyncInterval preference, 900 by default */
+    interval?: number;
+    /** Runs are skipped below this battery level unless charging, 20 by default */
+    minBatteryPercent?: number;
+    /** Bytes a sync may transfer per hour over a metered network, 1MB by default */
+    meteredBytesPerHour?: number;
+}
+
+interface ISyncNowResponse {
+    bytesTransferred: number;
+}
+
+interface ISyncStatus {
+    enabled: boolean;
+    running: boolean;
+    runs: number;
+    skipped: number;
+    failures: number;
+    bytesTransferred: number;
+    lastResult: string | null;
+    msSinceLastRun: number;
+    msUntilNextRun: number;
 }
 
 interface IPlayGamesServices {
+    LOAD_GAME_ERROR_FAILED: number;
+    LOAD_GAME_ERROR_NOT_EXIST: number;
+    LOAD_GAME_ERROR_NOT_SIGNED: number;
+    LOAD_GAME_ERROR_CORRUPTED: number;
+
     /**
      * Logs into google play services
      */
@@ -61,6 +525,7 @@ interface IPlayGamesServices {
 
     /**
      * Fetch the currently authenticated player's data.
+     * Answered from the device cache, including on a cold start before the sign-in completes.
      */
     showPlayer(onSuccess: (response: IShowPlayerResponse) => void, onError?: () => void): void;
 
@@ -79,6 +544,11 @@ interface IPlayGamesServices {
      */
     getPlayerScore(data: IGetPlayerScoreInput, onSuccess: (response: IGetPlayerScoreResponse) => void, onError?: () => void): void;
 
+    /**
+     * Returns how many submitScore calls were sent and how many were skipped as not better than the best known
+     */
+    getScoreSubmissionStats(onSuccess: (response: IScoreSubmissionStats) => void, onError?: (error: string) => void): void;
+
     /**
      * Launches the native Play Games leaderboard view controller to show all the leaderboards.
      */
@@ -89,6 +559,37 @@ interface IPlayGamesServices {
      */
     showLeaderboard(data: IShowLeaderboardInput, onSuccess?: () => void, onError?: () => void): void;
 
+    /**
+     * Loads the top scores of a leaderboard, every page is sent to onSuccess as it arrives
+     */
+    loadTopScores(data: ILoadScoresInput, onSuccess: (response: ILoadScoresPage | ILoadScoresDone) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Loads the scores around the current player, every page is sent to onSuccess as it arrives
+     */
+    loadPlayerCenteredScores(data: ILoadScoresInput, onSuccess: (response: ILoadScoresPage | ILoadScoresDone) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Continues loadTopScores or loadPlayerCenteredScores from a page token. A player-centered
+     * token fails with a page token expired error once its pages were dropped
+     */
+    loadMoreScores(data: ILoadMoreScoresInput, onSuccess: (response: ILoadScoresPage | ILoadScoresDone) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Returns the rank a score would have among the scores known on the device, works offline
+     */
+    getLocalRank(data: IGetLocalRankInput, onSuccess: (response: IGetLocalRankResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Returns the best scores known on the device: scores submitted on it and scores of the last pages loaded
+     */
+    loadLocalScores(data: ILoadLocalScoresInput, onSuccess: (response: ILoadLocalScoresResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Returns the name, icon and score order of the leaderboards, cached on the device and loaded after sign-in
+     */
+    loadLeaderboardMetadata(data: ILoadLeaderboardMetadataInput, onSuccess: (response: ILoadLeaderboardMetadataResponse) => void, onError?: (error: string) => void): void;
+
     /**
      * Unlocks the specified achievement:
      */
@@ -105,14 +606,174 @@ interface IPlayGamesServices {
     incrementAchievement(data: IIncrementAchievement, onSuccess?: () => void, onError?: () => void): void;
 
     /**
-     * Increments the specified incremental achievement by the provided numSteps and waits for response
+     * Increments the specified incremental achievement by the provided numSteps and waits for response, unless optimistic
      */
-    incrementAchievementNow(data: IIncrementAchievement, onSuccess?: () => void, onError?: () => void): void;
+    incrementAchievementNow(data: IIncrementAchievement, onSuccess?: (response: IIncrementAchievementResponse) => void, onError?: () => void): void;
 
     /**
      * Launches the native Play Games achievements view controller to show the user’s achievements.
      */
     showAchievements(onSuccess?: () => void, onError?: () => void): void;
+
+    /**
+     * Returns the player's achievements, answered from the device cache when there is one and reloaded when older than the `PlayGamesAchievementsMaxAge` preference
+     */
+    loadAchievements(data: ILoadAchievementsInput, onSuccess: (response: ILoadAchievementsResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Calls onChange with only the achievements that changed, after every reload or unlock, until unwatchAchievements is called
+     */
+    watchAchievements(onChange: (changes: IAchievementChanges) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Stops the notifications of watchAchievements
+     */
+    unwatchAchievements(onSuccess?: () => void, onError?: (error: string) => void): void;
+
+    /**
+     * Counts occurrences of the event on the device, sent in batches every `PlayGamesEventFlushInterval` seconds and when the app stops
+     */
+    incrementEvent(data: IIncrementEventInput, onSuccess?: () => void, onError?: (error: string) => void): void;
+
+    /**
+     * Returns the hit, download and eviction counters of the avatar disk cache, bounded by the `PlayGamesAvatarCacheBytes` preference
+     */
+    getAvatarCacheStats(onSuccess: (response: IAvatarCacheStats) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Writes the save data to the specified snapshot
+     */
+    saveGame(data: ISaveGameInput, onSuccess?: (response: ISaveGameResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Reads the save data from the specified snapshot
+     */
+    loadGame(data: ILoadGameInput, onSuccess: (response: ILoadGameResponse) => void, onError?: (error: ILoadGameError) => void): void;
+
+    /**
+     * Reads the save data in chunks. onSuccess is called once per chunk and a last time with done set to true
+     */
+    loadGameChunked(data: ILoadGameChunkedInput, onSuccess: (response: ILoadGameChunkedResponse) => void, onError?: (error: ILoadGameError) => void): void;
+
+    /**
+     * Deletes the specified snapshot
+     */
+    deleteSaveGame(data: IDeleteSaveGameInput, onSuccess?: (response?: IDeleteSaveGameResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Stores one or several values in a key-value save namespace. The snapshot is written later, in batch
+     */
+    putSaveValue(data: IPutSaveValueInput, onSuccess?: () => void, onError?: (error: string) => void): void;
+
+    /**
+     * Reads a value (or all the values) of a key-value save namespace
+     */
+    getSaveValue(data: IGetSaveValueInput, onSuccess: (response: IGetSaveValueResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Deletes one or several keys of a key-value save namespace
+     */
+    deleteSaveValue(data: IDeleteSaveValueInput, onSuccess?: () => void, onError?: (error: string) => void): void;
+
+    /**
+     * Writes the pending changes of a key-value save namespace to its snapshot now
+     */
+    flushSaveValues(data: IFlushSaveValuesInput, onSuccess?: () => void, onError?: (error: string) => void): void;
+
+    /**
+     * Writes a save that may exceed the snapshot size limit, split across several snapshots
+     */
+    saveGameSharded(data: ISaveGameShardedInput, onSuccess?: (response: ISaveGameShardedResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Reads a save written with saveGameSharded, downloading its shards in parallel
+     */
+    loadGameSharded(data: ILoadGameShardedInput, onSuccess: (response: ILoadGameShardedResponse) => void, onError?: (error: ILoadGameError) => void): void;
+
+    /**
+     * Lists the save slots of the player, most recently modified first
+     */
+    listSaves(data: IListSavesInput, onSuccess: (response: IListSavesResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Loads several saves concurrently and returns them all at once, in the requested order
+     */
+    loadGames(data: ILoadGamesInput, onSuccess: (response: ILoadGamesResponse) => void, onError?: (error: ILoadGameError) => void): void;
+
+    /**
+     * Sets the saves loaded in the background right after sign-in, a later loadGame of one of them is answered from memory
+     */
+    setPrefetchSaves(data: ISetPrefetchSavesInput, onSuccess?: () => void, onError?: (error: string) => void): void;
+
+    /**
+     * Returns the hit and eviction counters of the save prefetch buffer
+     */
+    getPrefetchStats(onSuccess: (response: IPrefetchStats) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Sets the byte budget of the local save cache and the saves it never evicts, least recently used saves are evicted first
+     */
+    setSaveCacheOptions(data: ISetSaveCacheOptionsInput, onSuccess?: () => void, onError?: (error: string) => void): void;
+
+    /**
+     * Returns the hit and eviction counters of the local save cache
+     */
+    getSaveCacheStats(onSuccess: (response: ISaveCacheStats) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Sets how saveGame and loadGame resolve snapshot conflicts. With the 'js' strategy every conflict is sent to onSuccess and must be answered with resolveConflict
+     */
+    setConflictResolution(data: ISetConflictResolutionInput, onSuccess?: (conflict?: ISnapshotConflict) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Answers a conflict received with the 'js' strategy with the merged save data
+     */
+    resolveConflict(data: IResolveConflictInput, onSuccess?: () => void, onError?: (error: string) => void): void;
+
+    /**
+     * Returns the conflict counters and the resolution latency
+     */
+    getConflictStats(onSuccess: (response: IConflictStats) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Opens a snapshot and keeps it open for several writes. saveGame and loadGame of the same save use the open session
+     */
+    beginSaveSession(data: IBeginSaveSessionInput, onSuccess?: (response: ISaveSessionResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Replaces the save data of an open session without committing it
+     */
+    writeSaveSession(data: IWriteSaveSessionInput, onSuccess?: (response: ISaveSessionResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Commits the writes of a session and closes it
+     */
+    commitSaveSession(data: ISaveSessionInput, onSuccess?: (response: ISaveSessionResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Closes a session discarding the writes not committed yet
+     */
+    closeSaveSession(data: ISaveSessionInput, onSuccess?: (response: ISaveSessionResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Lists the journaled saves that are not uploaded yet
+     */
+    getSaveJournal(onSuccess: (response: ISaveJournalResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Configures the background sync that keeps the locally cached saves up to date while the app is running
+     */
+    setSyncOptions(data: ISetSyncOptionsInput, onSuccess?: () => void, onError?: (error: string) => void): void;
+
+    /**
+     * Runs the background sync now, regardless of the schedule and the budget
+     */
+    syncNow(onSuccess?: (response: ISyncNowResponse) => void, onError?: (error: string) => void): void;
+
+    /**
+     * Returns the state and counters of the background sync
+     */
+    getSyncStatus(onSuccess: (response: ISyncStatus) => void, onError?: (error: string) => void): void;
 }
 
 interface Cordova {
@@ -8,7 +8,16 @@ var PlayGamesServices = function () {
 var actions = ['auth', 'signOut', 'isSignedIn',
                'submitScore', 'submitScoreNow', 'getPlayerScore', 'showAllLeaderboards', 'showLeaderboard',
                'unlockAchievement', 'unlockAchievementNow', 'incrementAchievement', 'incrementAchievementNow',
-               'showAchievements', 'showPlayer', 'saveGame', 'loadGame', 'deleteSaveGame'];
+               'showAchievements', 'showPlayer', 'saveGame', 'loadGame', 'deleteSaveGame',
+               'loadGameChunked', 'putSaveValue', 'getSaveValue', 'deleteSaveValue', 'flushSaveValues',
+               'saveGameSharded', 'loadGameSharded', 'listSaves', 'loadGames', 'setPrefetchSaves',
+               'getPrefetchStats', 'setConflictResolution', 'resolveConflict', 'getConflictStats',
+               'beginSaveSession', 'writeSaveSession', 'commitSaveSession', 'closeSaveSession',
+               'getSaveJournal', 'setSyncOptions', 'syncNow', 'getSyncStatus', 'setSaveCacheOptions',
+               'getSaveCacheStats', 'loadTopScores', 'loadPlayerCenteredScores', 'loadMoreScores',
+               'getLocalRank', 'loadLocalScores', 'loadLeaderboardMetadata', 'getScoreSubmissionStats',
+               'loadAchievements', 'watchAchievements', 'unwatchAchievements', 'incrementEvent',
+               'getAvatarCacheStats'];
 
 actions.forEach(function (action) {
     PlayGamesServices.prototype[action] = function (data, success, failure) {
@@ -38,5 +47,6 @@ actions.forEach(function (action) {
 PlayGamesServices.prototype.LOAD_GAME_ERROR_FAILED = 0;
 PlayGamesServices.prototype.LOAD_GAME_ERROR_NOT_EXIST = 1;
 PlayGamesServices.prototype.LOAD_GAME_ERROR_NOT_SIGNED = 2;
+PlayGamesServices.prototype.LOAD_GAME_ERROR_CORRUPTED = 3;
 
 module.exports = new PlayGamesServices();